@@ -6,17 +6,22 @@ package eu.europeana.sitemap;
 public final class Constants {
 
     public static final String XML_EXTENSION = ".xml";
+    public static final String GZIP_EXTENSION = ".gz";
     public static final String TXT_EXTENSION = ".txt";
+    public static final String JSON_EXTENSION = ".json";
     public static final char PATH_SEPARATOR = '/';
     public static final char DASH = '-';
     public static final String SITEMAP_RECORD_FILENAME_BASE = "sitemap-record";
     public static final String SITEMAP_ENTITY_FILENAME_BASE = "sitemap-entity";
     public static final String SITEMAP_INDEX_SUFFIX = "-index";
     public static final String SITEMAP_ACTIVE_DEPLOYMENT_SUFFIX = "-active";
+    public static final String SITEMAP_MANIFEST_SUFFIX = "-manifest";
+    public static final String SITEMAP_CHECKPOINT_SUFFIX = "-checkpoint";
 
     // MONGO Constants
 
     /** Used mongo fields **/
+    public static final String ID = "_id";
     public static final String ABOUT = "about";
     public static final String LASTUPDATED = "timestampUpdated";
     public static final String QUALITY_ANNOTATIONS_BODY = "qualityAnnotations.body";
@@ -32,6 +37,9 @@ public final class Constants {
     public static final String AND = "$and";
     public static final String IN = "$in";
     public static final String GTE = "$gte";
+    public static final String LT = "$lt";
+    public static final String SAMPLE = "$sample";
+    public static final String SORT = "$sort";
 
     private Constants() {
         // empty constructor to prevent initialization
@@ -29,6 +29,31 @@ public final class StorageFileName {
         return sb.toString();
     }
 
+    /**
+     * Generates the name of the manifest file (listing all sitemap files of a deployment) as it is (or should be)
+     * stored in the object storage
+     * @param type sitemap type (record or entity)
+     * @param blueGreen type of deployment (blue or green)
+     * @return manifest file name
+     */
+    public static String getManifestFileName(SitemapType type, Deployment blueGreen) {
+        return type.getFileNameBase() + Constants.DASH + blueGreen + Constants.SITEMAP_MANIFEST_SUFFIX
+                + Constants.JSON_EXTENSION;
+    }
+
+    /**
+     * Generates the name of the checkpoint file (listing the sitemap files of a generation that is still in progress)
+     * as it is (or should be) stored in the object storage. Note that the name starts with the same prefix as all
+     * other files of the deployment, so it's deleted together with those files.
+     * @param type sitemap type (record or entity)
+     * @param blueGreen type of deployment (blue or green)
+     * @return checkpoint file name
+     */
+    public static String getCheckpointFileName(SitemapType type, Deployment blueGreen) {
+        return type.getFileNameBase() + Constants.DASH + blueGreen + Constants.SITEMAP_CHECKPOINT_SUFFIX
+                + Constants.JSON_EXTENSION;
+    }
+
     /**
      * Generates the file name of a sitemap file as it is (or should be) stored in the object storage
      * @param type sitemap type (record or entity)
@@ -37,16 +62,46 @@ public final class StorageFileName {
      * @return sitemap file name
      */
     public static String getSitemapFileName(SitemapType type, Deployment blueGreen, String appendix) {
+        return getSitemapFileName(type, blueGreen, null, appendix, false);
+    }
+
+    /**
+     * Generates the file name of a (possibly gzip-compressed) sitemap file as it is (or should be) stored in the
+     * object storage
+     * @param type sitemap type (record or entity)
+     * @param blueGreen deployment type (blue or green)
+     * @param section name of the section (part of the sitemap) the file belongs to, can be null or empty
+     * @param appendix appendix that is added to the file name (e.g. ?from=0&to=1000), can be null or empty
+     * @param gzip if true the name of a gzip-compressed file is returned (e.g. sitemap-record-blue.xml.gz)
+     * @return sitemap file name (e.g. sitemap-record-blue-p01.xml?from=0&to=1000)
+     */
+    public static String getSitemapFileName(SitemapType type, Deployment blueGreen, String section, String appendix,
+                                            boolean gzip) {
         StringBuilder sb = new StringBuilder(type.getFileNameBase())
                 .append(Constants.DASH)
-                .append(blueGreen)
-                .append(Constants.XML_EXTENSION);
+                .append(blueGreen);
+        if (StringUtils.isNotEmpty(section)) {
+            sb.append(Constants.DASH).append(section);
+        }
+        sb.append(Constants.XML_EXTENSION);
+        if (gzip) {
+            sb.append(Constants.GZIP_EXTENSION);
+        }
         if (StringUtils.isNotEmpty(appendix)) {
             sb.append(appendix);
         }
         return sb.toString();
     }
 
+    /**
+     * Check if a stored file is gzip-compressed
+     * @param fileName name of the file in the object storage
+     * @return true if the file name has a .xml.gz extension, otherwise false
+     */
+    public static boolean isGzipFileName(String fileName) {
+        return fileName.contains(Constants.XML_EXTENSION + Constants.GZIP_EXTENSION);
+    }
+
     /**
      * Generate the name of the file containing the active deployment (blue/green).
      * @param type sitemap type (record or entity)
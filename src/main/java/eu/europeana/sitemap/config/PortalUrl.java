@@ -2,6 +2,7 @@ package eu.europeana.sitemap.config;
 
 import eu.europeana.sitemap.Constants;
 import eu.europeana.sitemap.SitemapType;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -46,14 +47,19 @@ public class PortalUrl {
      *
      * @param baseUrl baseUrl used for generating the result
      * @param type sitemap type (record or entity)
+     * @param section name of the section (part of the sitemap) the file belongs to, can be null or empty
      * @param appendix appendix of the file (e.g. ?from=0&to=45000)
+     * @param gzip if true the url of a gzip-compressed file (.xml.gz) is returned
      * @return the url of a public sitemap file
      */
-    private static String getSitemapUrlPlain(String baseUrl, SitemapType type, String appendix) {
+    private static String getSitemapUrlPlain(String baseUrl, SitemapType type, String section, String appendix,
+                                             boolean gzip) {
         return baseUrl +
                 Constants.PATH_SEPARATOR +
                 type.getFileNameBase() +
+                (StringUtils.isEmpty(section) ? "" : Constants.DASH + section) +
                 Constants.XML_EXTENSION +
+                (gzip ? Constants.GZIP_EXTENSION : "") +
                 appendix;
     }
 
@@ -66,7 +72,23 @@ public class PortalUrl {
      * @return the url of a public sitemap file
      */
     public static String getSitemapUrlEncoded(String baseUrl, SitemapType type, String appendix) {
-        return StringEscapeUtils.escapeXml10(getSitemapUrlPlain(baseUrl, type, appendix));
+        return getSitemapUrlEncoded(baseUrl, type, null, appendix, false);
+    }
+
+    /**
+     * Return the public url of a (possibly gzip-compressed) sitemap file (as it appears in the sitemap index file)
+     * but url encoded
+     *
+     * @param baseUrl baseUrl used for generating the result
+     * @param type sitemap type (record or entity)
+     * @param section name of the section (part of the sitemap) the file belongs to, can be null or empty
+     * @param appendix appendix of the file (e.g. ?from=0&to=45000)
+     * @param gzip if true the url of a gzip-compressed file (.xml.gz) is returned
+     * @return the url of a public sitemap file
+     */
+    public static String getSitemapUrlEncoded(String baseUrl, SitemapType type, String section, String appendix,
+                                              boolean gzip) {
+        return StringEscapeUtils.escapeXml10(getSitemapUrlPlain(baseUrl, type, section, appendix, gzip));
     }
 
 
@@ -87,7 +109,15 @@ public class PortalUrl {
      * @return portal record page url
      */
     public String getRecordUrl(String europeanaId) {
-        return portalBaseUrl + recordPortalPath + europeanaId;
+        return getRecordUrlPrefix() + europeanaId;
+    }
+
+    /**
+     * Return the first part of all portal record page urls, so without the CHO id
+     * @return portal record page url prefix
+     */
+    public String getRecordUrlPrefix() {
+        return portalBaseUrl + recordPortalPath;
     }
 
     /**
@@ -4,6 +4,12 @@ package eu.europeana.sitemap.config;
 import eu.europeana.features.S3ObjectStorageClient;
 import eu.europeana.sitemap.exceptions.SiteMapConfigException;
 import eu.europeana.sitemap.mongo.MongoProvider;
+import eu.europeana.sitemap.s3.BackoffRetryPolicy;
+import eu.europeana.sitemap.s3.RetryPolicy;
+import eu.europeana.sitemap.s3.S3Provider;
+import eu.europeana.sitemap.service.update.BufferedFileSink;
+import eu.europeana.sitemap.service.update.MultipartUploadSink;
+import eu.europeana.sitemap.service.update.SitemapFileSink;
 import jakarta.annotation.PostConstruct;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
@@ -14,6 +20,10 @@ import org.springframework.context.annotation.PropertySource;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * Class that contains all configuration settings
@@ -23,6 +33,11 @@ import java.net.URL;
 @PropertySource(value = "classpath:sitemap.user.properties", ignoreResourceNotFound = true)
 public class SitemapConfiguration {
 
+    private static final int MB = 1024 * 1024;
+    /** S3 doesn't accept presigned urls that are valid for more than 7 days **/
+    private static final int MAX_REDIRECT_URL_EXPIRY = 7 * 24 * 3600;
+    private static final Pattern ENTITY_TYPE = Pattern.compile("[a-z0-9]+");
+
     @Value("${admin.apikey}")
     private String adminKey;
 
@@ -37,11 +52,39 @@ public class SitemapConfiguration {
     private String mongoConnectionUrl;
     @Value("${mongodb.record.dbname}")
     private String mongoDatabase;
+    @Value("${record.partitions:1}")
+    private int recordPartitions;
+    @Value("${record.prefetch.size:100000}")
+    private int recordPrefetchSize;
+    @Value("${record.ordered:false}")
+    private boolean recordOrdered;
+    @Value("${record.incremental:false}")
+    private boolean recordIncremental;
+    @Value("${record.incremental.fullrun.days:7}")
+    private int recordIncrementalFullRunDays;
+    @Value("${record.checkpoint.interval:10}")
+    private int recordCheckpointInterval;
 
+    @Value("${entity.types:agent,concept,timespan,organization}")
+    private String[] entityTypes;
+    @Value("${entity.types.separate:false}")
+    private boolean entityTypesSeparate;
     @Value("${entity.api.url}")
     private String entityApiUrl;
     @Value("${entity.api.wskey}")
     private String entityApiKey;
+    @Value("${entity.api.concurrency:4}")
+    private int entityApiConcurrency;
+    @Value("${entity.api.cursor:false}")
+    private boolean entityApiCursor;
+    @Value("${entity.api.timeout.connect:10}")
+    private int entityApiConnectTimeout;
+    @Value("${entity.api.timeout.read:60}")
+    private int entityApiReadTimeout;
+    @Value("${entity.api.retry.attempts:3}")
+    private int entityApiRetryAttempts;
+    @Value("${entity.api.retry.backoff:1000}")
+    private long entityApiRetryBackoff;
     private URL entityApi;
 
     @Value("${s3.key}")
@@ -54,6 +97,43 @@ public class SitemapConfiguration {
     private String bucket;
     @Value("${s3.endpoint}")
     private String endpoint;
+    @Value("${s3.retry.attempts:5}")
+    private int retryAttempts;
+    @Value("${s3.retry.backoff:200}")
+    private long retryBackoff;
+    @Value("${s3.retry.backoff.max:10000}")
+    private long retryBackoffMax;
+    @Value("${s3.circuitbreaker.failures:10}")
+    private int circuitBreakerFailures;
+    @Value("${s3.circuitbreaker.open:30}")
+    private int circuitBreakerOpen;
+    @Value("${s3.errorbudget:50}")
+    private int errorBudget;
+    @Value("${deployment.cache.staleness:60}")
+    private int deploymentCacheStaleness;
+    @Value("${read.cache.size:16}")
+    private int readCacheSize;
+    @Value("${mirror.directory:}")
+    private String mirrorDirectory;
+    @Value("${redirect.enabled:false}")
+    private boolean redirectEnabled;
+    @Value("${redirect.url.expiry:900}")
+    private int redirectUrlExpiry;
+    @Value("${redirect.cdn.url:}")
+    private String redirectCdnUrl;
+    @Value("${cache.control.maxage:600}")
+    private int cacheControlMaxAge;
+
+    @Value("${generate.streaming:false}")
+    private boolean generateStreaming;
+    @Value("${generate.streaming.partsize:5}")
+    private int generateStreamingPartSize;
+    @Value("${generate.upload.concurrency:2}")
+    private int generateUploadConcurrency;
+    @Value("${generate.gzip:false}")
+    private boolean generateGzip;
+    @Value("${generate.versioned.urls:false}")
+    private boolean generateVersionedUrls;
 
     @Value("${spring.mail.from:#{null}}")
     private String mailFrom;
@@ -79,9 +159,35 @@ public class SitemapConfiguration {
         } catch (MalformedURLException e) {
             throw new SiteMapConfigException("Property entity.api.url is incorrect: " + entityApiUrl, e);
         }
+        if (entityTypes.length == 0 || !Arrays.stream(entityTypes).allMatch(t -> ENTITY_TYPE.matcher(t).matches())) {
+            throw new SiteMapConfigException("Property entity.types should be a comma-separated list of entity types "
+                    + "(lowercase letters and digits only)");
+        }
+        if (entityApiConcurrency < 1) {
+            throw new SiteMapConfigException("Property entity.api.concurrency should be at least 1");
+        }
+        if (entityApiConnectTimeout < 1 || entityApiReadTimeout < 1) {
+            throw new SiteMapConfigException("Properties entity.api.timeout.connect and entity.api.timeout.read should "
+                    + "be at least 1 (seconds)");
+        }
+        if (entityApiRetryAttempts < 1) {
+            throw new SiteMapConfigException("Property entity.api.retry.attempts should be at least 1");
+        }
 
         // trim to avoid problems with accidental trailing spaces
         this.portalBaseUrl = this.portalBaseUrl.trim();
+
+        if ((generateStreaming || generateGzip) && generateStreamingPartSize * MB < MultipartUploadSink.MIN_PART_SIZE) {
+            throw new SiteMapConfigException("Property generate.streaming.partsize should be at least 5 (MB)");
+        }
+        if (retryAttempts < 1) {
+            throw new SiteMapConfigException("Property s3.retry.attempts should be at least 1");
+        }
+        if (redirectEnabled && StringUtils.isBlank(redirectCdnUrl)
+                && (redirectUrlExpiry <= 0 || redirectUrlExpiry > MAX_REDIRECT_URL_EXPIRY)) {
+            throw new SiteMapConfigException("Property redirect.url.expiry should be between 1 and "
+                    + MAX_REDIRECT_URL_EXPIRY + " (seconds)");
+        }
     }
 
     /**
@@ -94,11 +200,90 @@ public class SitemapConfiguration {
         return new S3ObjectStorageClient(key, secret, region, bucket, endpoint);
     }
 
+    /**
+     * Direct access to the bucket where all sitemap files are stored
+     * @return S3 client provider
+     */
+    @Bean(destroyMethod = "close")
+    public S3Provider s3Provider() {
+        return new S3Provider(key, secret, region, bucket, endpoint);
+    }
+
+    /**
+     * Retry policy for saving sitemap files and other object storage operations done during sitemap updates
+     * @return retry policy
+     */
+    @Bean
+    public RetryPolicy storageRetryPolicy() {
+        return new BackoffRetryPolicy(retryAttempts, retryBackoff, retryBackoffMax, circuitBreakerFailures,
+                TimeUnit.SECONDS.toMillis(circuitBreakerOpen), errorBudget);
+    }
+
+    /**
+     * Destination of generated sitemap files. Depending on configuration files are either streamed to storage while
+     * they are generated, or kept in memory until they are complete. Gzip-compressed files are binary, so those are
+     * always saved using the streaming sink.
+     * @param objectStorage object storage client
+     * @param s3Provider S3 client provider
+     * @param retryPolicy retry policy for saving files
+     * @return sitemap file sink
+     */
+    @Bean
+    public SitemapFileSink sitemapFileSink(S3ObjectStorageClient objectStorage, S3Provider s3Provider,
+                                           RetryPolicy retryPolicy) {
+        if (generateStreaming || generateGzip) {
+            LogManager.getLogger(SitemapConfiguration.class).info("Streaming sitemap files to storage (part size = {} MB)",
+                    generateStreamingPartSize);
+            return new MultipartUploadSink(s3Provider, generateStreamingPartSize * MB, retryPolicy);
+        }
+        return new BufferedFileSink(objectStorage, s3Provider, retryPolicy);
+    }
+
     @Bean
     public MongoProvider mongoProvider() {
         return new MongoProvider(mongoConnectionUrl, mongoDatabase);
     }
 
+    public int getDeploymentCacheStaleness() {
+        return deploymentCacheStaleness;
+    }
+
+    public int getReadCacheSize() {
+        return readCacheSize;
+    }
+
+    public String getMirrorDirectory() {
+        return mirrorDirectory;
+    }
+
+    public boolean isRedirectEnabled() {
+        return redirectEnabled;
+    }
+
+    public int getRedirectUrlExpiry() {
+        return redirectUrlExpiry;
+    }
+
+    public String getRedirectCdnUrl() {
+        return redirectCdnUrl;
+    }
+
+    public int getCacheControlMaxAge() {
+        return cacheControlMaxAge;
+    }
+
+    public int getGenerateUploadConcurrency() {
+        return generateUploadConcurrency;
+    }
+
+    public boolean isGenerateGzip() {
+        return generateGzip;
+    }
+
+    public boolean isGenerateVersionedUrls() {
+        return generateVersionedUrls;
+    }
+
     public String getPortalBaseUrl() {
         return portalBaseUrl;
     }
@@ -111,6 +296,54 @@ public class SitemapConfiguration {
         return recordMetadataTier;
     }
 
+    public int getRecordPartitions() {
+        return recordPartitions;
+    }
+
+    public int getRecordPrefetchSize() {
+        return recordPrefetchSize;
+    }
+
+    public boolean isRecordOrdered() {
+        return recordOrdered;
+    }
+
+    public boolean isRecordIncremental() {
+        return recordIncremental;
+    }
+
+    public int getRecordIncrementalFullRunDays() {
+        return recordIncrementalFullRunDays;
+    }
+
+    public int getRecordCheckpointInterval() {
+        return recordCheckpointInterval;
+    }
+
+    public List<String> getEntityTypes() {
+        return List.of(entityTypes);
+    }
+
+    /**
+     * Only used for testing purposes
+     * @param entityTypes
+     */
+    public void setEntityTypes(String... entityTypes) {
+        this.entityTypes = entityTypes;
+    }
+
+    public boolean isEntityTypesSeparate() {
+        return entityTypesSeparate;
+    }
+
+    /**
+     * Only used for testing purposes
+     * @param entityTypesSeparate
+     */
+    public void setEntityTypesSeparate(boolean entityTypesSeparate) {
+        this.entityTypesSeparate = entityTypesSeparate;
+    }
+
     public String getEntityApiUrl() {
         return entityApi.toString();
     }
@@ -140,6 +373,38 @@ public class SitemapConfiguration {
         return entityApi;
     }
 
+    public int getEntityApiConcurrency() {
+        return entityApiConcurrency;
+    }
+
+    public boolean isEntityApiCursor() {
+        return entityApiCursor;
+    }
+
+    /**
+     * Only used for testing purposes
+     * @param entityApiCursor
+     */
+    public void setEntityApiCursor(boolean entityApiCursor) {
+        this.entityApiCursor = entityApiCursor;
+    }
+
+    public int getEntityApiConnectTimeout() {
+        return entityApiConnectTimeout;
+    }
+
+    public int getEntityApiReadTimeout() {
+        return entityApiReadTimeout;
+    }
+
+    public int getEntityApiRetryAttempts() {
+        return entityApiRetryAttempts;
+    }
+
+    public long getEntityApiRetryBackoff() {
+        return entityApiRetryBackoff;
+    }
+
     public String getMailFrom() {
         return mailFrom;
     }
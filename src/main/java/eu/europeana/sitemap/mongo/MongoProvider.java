@@ -1,6 +1,7 @@
 package eu.europeana.sitemap.mongo;
 
 import com.mongodb.ConnectionString;
+import com.mongodb.MongoException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
@@ -8,6 +9,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
 
 /**
  * Connects to the (production) mongo server to retrieve all records.
@@ -20,6 +22,7 @@ public class MongoProvider {
 
     private final MongoClient mongoClient;
     private final MongoCollection<Document> collection;
+    private final MongoCollection<RecordData> recordDataCollection;
 
     /**
      * Create a new MongoClient based on a connectionUrl
@@ -35,6 +38,10 @@ public class MongoProvider {
         LOG.info("Connecting to Mongo {} database at {}...", database, connection.getHosts());
         this.mongoClient = MongoClients.create(connection);
         this.collection = this.mongoClient.getDatabase(database).getCollection("record");
+        this.recordDataCollection = collection
+                .withCodecRegistry(CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(new RecordDataCodec()),
+                        collection.getCodecRegistry()))
+                .withDocumentClass(RecordData.class);
         LOG.info("Mongo record collection retrieved.");
     }
 
@@ -54,4 +61,33 @@ public class MongoProvider {
     public MongoCollection<Document> getCollection() {
         return collection;
     }
+
+    /**
+     * Check if the record collection has an index that starts with the provided field, so queries on that field don't
+     * require a collection scan
+     * @param field name of the field
+     * @return true if there is such an index (or if the indexes can't be retrieved), otherwise false
+     */
+    public boolean hasIndex(String field) {
+        try {
+            for (Document index : collection.listIndexes()) {
+                Document key = index.get("key", Document.class);
+                if (key != null && !key.isEmpty() && field.equals(key.keySet().iterator().next())) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (MongoException e) {
+            LOG.warn("Unable to retrieve indexes of record collection", e);
+            return true;
+        }
+    }
+
+    /**
+     * @return the record collection, with results decoded as RecordData (only use this for queries that return
+     * record sitemap data)
+     */
+    public MongoCollection<RecordData> getRecordDataCollection() {
+        return recordDataCollection;
+    }
 }
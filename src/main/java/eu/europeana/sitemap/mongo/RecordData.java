@@ -0,0 +1,48 @@
+package eu.europeana.sitemap.mongo;
+
+/**
+ * The data of a record that is needed for the record sitemap, as read by the RecordDataCodec
+ * @see RecordDataCodec
+ */
+public final class RecordData {
+
+    /** Value of contentTier when a record has no (valid) content tier **/
+    public static final int NO_CONTENT_TIER = -1;
+    /** Value of lastUpdated when a record has no timestampUpdated **/
+    public static final long NO_LAST_UPDATED = Long.MIN_VALUE;
+
+    private final String about;
+    private final int contentTier;
+    private final String metadataTier;
+    private final long lastUpdated;
+
+    /**
+     * Create new record data
+     * @param about record id, e.g. /123/abc
+     * @param contentTier content tier, or NO_CONTENT_TIER
+     * @param metadataTier metadata tier, can be null
+     * @param lastUpdated timestampUpdated in ms since epoch, or NO_LAST_UPDATED
+     */
+    public RecordData(String about, int contentTier, String metadataTier, long lastUpdated) {
+        this.about = about;
+        this.contentTier = contentTier;
+        this.metadataTier = metadataTier;
+        this.lastUpdated = lastUpdated;
+    }
+
+    public String getAbout() {
+        return about;
+    }
+
+    public int getContentTier() {
+        return contentTier;
+    }
+
+    public String getMetadataTier() {
+        return metadataTier;
+    }
+
+    public long getLastUpdated() {
+        return lastUpdated;
+    }
+}
@@ -0,0 +1,83 @@
+package eu.europeana.sitemap.mongo;
+
+import eu.europeana.sitemap.Constants;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/**
+ * Codec that decodes the documents returned by the record sitemap query directly into RecordData objects. Unlike
+ * decoding into a Document, no map (or objects for unused fields) is created for each record; the timestamp is read
+ * as a long and the content tier as an int. All other fields are skipped.
+ */
+public class RecordDataCodec implements Codec<RecordData> {
+
+    @Override
+    public RecordData decode(BsonReader reader, DecoderContext decoderContext) {
+        String about = null;
+        int contentTier = RecordData.NO_CONTENT_TIER;
+        String metadataTier = null;
+        long lastUpdated = RecordData.NO_LAST_UPDATED;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            BsonType type = reader.getCurrentBsonType();
+            if (Constants.ABOUT.equals(name) && type == BsonType.STRING) {
+                about = reader.readString();
+            } else if (Constants.CONTENT_TIER.equals(name) && type == BsonType.STRING) {
+                contentTier = parseTier(reader.readString());
+            } else if (Constants.CONTENT_TIER.equals(name) && type == BsonType.INT32) {
+                contentTier = reader.readInt32();
+            } else if (Constants.METADATA_TIER.equals(name) && type == BsonType.STRING) {
+                metadataTier = reader.readString();
+            } else if (Constants.LASTUPDATED.equals(name) && type == BsonType.DATE_TIME) {
+                lastUpdated = reader.readDateTime();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return new RecordData(about, contentTier, metadataTier, lastUpdated);
+    }
+
+    /**
+     * Content tiers are single digits, so we avoid Integer.parseInt for the common case
+     */
+    private static int parseTier(String value) {
+        if (value.length() == 1 && Character.isDigit(value.charAt(0))) {
+            return value.charAt(0) - '0';
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return RecordData.NO_CONTENT_TIER;
+        }
+    }
+
+    @Override
+    public void encode(BsonWriter writer, RecordData value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (value.getAbout() != null) {
+            writer.writeString(Constants.ABOUT, value.getAbout());
+        }
+        if (value.getContentTier() != RecordData.NO_CONTENT_TIER) {
+            writer.writeString(Constants.CONTENT_TIER, String.valueOf(value.getContentTier()));
+        }
+        if (value.getMetadataTier() != null) {
+            writer.writeString(Constants.METADATA_TIER, value.getMetadataTier());
+        }
+        if (value.getLastUpdated() != RecordData.NO_LAST_UPDATED) {
+            writer.writeDateTime(Constants.LASTUPDATED, value.getLastUpdated());
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<RecordData> getEncoderClass() {
+        return RecordData.class;
+    }
+}
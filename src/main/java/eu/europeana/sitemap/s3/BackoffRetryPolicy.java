@@ -0,0 +1,160 @@
+package eu.europeana.sitemap.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Retries failed object storage operations with exponential backoff and (full) jitter, so clients that are throttled
+ * at the same time don't retry at the same time. Only errors that may go away are retried (e.g. network errors,
+ * throttling and 5xx responses); errors such as a missing file fail right away.
+ *
+ * If many operations fail in a row the storage is probably unavailable, so a circuit breaker fails all operations
+ * immediately for a while. After that, operations are tried again; if the first one fails the circuit opens again.
+ *
+ * There is also an error budget per sitemap update (see startRun()): when more operations than that have failed, all
+ * further operations fail immediately. An update then aborts early instead of spending a long time on retries
+ * and producing an incomplete deployment. Note that updates of different sitemap types share the budget.
+ *
+ * Operations should be done with a client that doesn't retry itself (see S3Provider.getClientWithoutRetries()), so that
+ * each attempt is 1 request. The object storage library doesn't allow that, so operations done with that library may
+ * be retried by its client as well.
+ */
+public class BackoffRetryPolicy implements RetryPolicy {
+
+    private static final Logger LOG = LogManager.getLogger(BackoffRetryPolicy.class);
+
+    private static final int HTTP_SERVER_ERROR = 500;
+    private static final int MAX_BACKOFF_SHIFT = 30;
+
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final int circuitBreakerThreshold;
+    private final long circuitBreakerOpenMs;
+    private final int errorBudget;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicInteger failuresThisRun = new AtomicInteger();
+    private volatile long circuitOpenUntil;
+
+    /**
+     * Create a new retry policy
+     * @param maxAttempts maximum number of times an operation is executed, at least 1
+     * @param initialBackoffMs maximum time to wait before the first retry, this doubles for each next retry
+     * @param maxBackoffMs maximum time to wait before any retry
+     * @param circuitBreakerThreshold number of failures in a row after which the circuit breaker opens, 0 to disable
+     * @param circuitBreakerOpenMs time during which all operations fail once the circuit breaker is open
+     * @param errorBudget maximum number of failures per sitemap update, 0 for no limit
+     */
+    public BackoffRetryPolicy(int maxAttempts, long initialBackoffMs, long maxBackoffMs, int circuitBreakerThreshold,
+                              long circuitBreakerOpenMs, int errorBudget) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Maximum number of attempts should be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+        this.circuitBreakerOpenMs = circuitBreakerOpenMs;
+        this.errorBudget = errorBudget;
+    }
+
+    @Override
+    public void startRun() {
+        failuresThisRun.set(0);
+    }
+
+    @Override
+    public <T> T execute(String description, StorageOperation<T> operation) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            checkAvailable(description);
+            try {
+                T result = operation.run();
+                consecutiveFailures.set(0);
+                return result;
+            } catch (IOException | AmazonClientException e) {
+                if (!isRetryable(e)) {
+                    throw toIOException(description, e);
+                }
+                registerFailure();
+                if (attempt >= maxAttempts) {
+                    LOG.error("Failed to {}, giving up after {} attempts", description, attempt);
+                    throw toIOException(description, e);
+                }
+                long backoff = getBackoff(attempt);
+                LOG.warn("Failed to {} (attempt {} of {}), retrying in {} ms: {}", description, attempt, maxAttempts,
+                        backoff, e.getMessage());
+                sleep(backoff);
+            }
+        }
+    }
+
+    /**
+     * Fail right away if the circuit breaker is open or the error budget is used up
+     */
+    private void checkAvailable(String description) throws IOException {
+        if (errorBudget > 0 && failuresThisRun.get() > errorBudget) {
+            throw new IOException("Not trying to " + description + ", more than " + errorBudget
+                    + " storage operations failed during this update");
+        }
+        long openMs = circuitOpenUntil - System.currentTimeMillis();
+        if (openMs > 0) {
+            throw new IOException("Not trying to " + description + ", storage is unavailable (circuit breaker is "
+                    + "open for another " + openMs + " ms)");
+        }
+    }
+
+    private void registerFailure() {
+        failuresThisRun.incrementAndGet();
+        if (circuitBreakerThreshold > 0 && consecutiveFailures.incrementAndGet() >= circuitBreakerThreshold) {
+            LOG.error("{} storage operations failed in a row, failing all operations for {} ms",
+                    consecutiveFailures.get(), circuitBreakerOpenMs);
+            circuitOpenUntil = System.currentTimeMillis() + circuitBreakerOpenMs;
+        }
+    }
+
+    /**
+     * Full jitter: a random time between 0 and the exponentially increasing maximum
+     */
+    private long getBackoff(int attempt) {
+        long max = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt - 1, MAX_BACKOFF_SHIFT));
+        return (max <= 0 ? 0 : ThreadLocalRandom.current().nextLong(max + 1));
+    }
+
+    private static boolean isRetryable(Exception e) {
+        if (e instanceof AmazonServiceException serviceException) {
+            return serviceException.getStatusCode() >= HTTP_SERVER_ERROR
+                    || RetryUtils.isRetryableServiceException(serviceException)
+                    || RetryUtils.isThrottlingException(serviceException);
+        }
+        if (e instanceof AmazonClientException clientException) {
+            return clientException.isRetryable();
+        }
+        return !(e instanceof FileNotFoundException);
+    }
+
+    private static IOException toIOException(String description, Exception e) {
+        if (e instanceof IOException ioException) {
+            return ioException;
+        }
+        return new IOException("Failed to " + description, e);
+    }
+
+    private static void sleep(long ms) throws InterruptedIOException {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry storage operation");
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package eu.europeana.sitemap.s3;
+
+import com.amazonaws.AmazonClientException;
+
+import java.io.IOException;
+
+/**
+ * Decides if and when failed object storage operations are retried. Operations are executed by the calling thread,
+ * so waiting before a retry blocks that thread.
+ * @see BackoffRetryPolicy
+ */
+public interface RetryPolicy {
+
+    /** Policy that executes each operation only once **/
+    RetryPolicy NONE = new RetryPolicy() {
+        @Override
+        public <T> T execute(String description, StorageOperation<T> operation) throws IOException {
+            try {
+                return operation.run();
+            } catch (AmazonClientException e) {
+                throw new IOException("Failed to " + description, e);
+            }
+        }
+    };
+
+    /**
+     * An operation on the object storage, for example saving a file. An operation should throw an exception when it
+     * fails; this can be an IOException or one of the (unchecked) exceptions of the S3 client.
+     * @param <T> type of the result
+     */
+    @FunctionalInterface
+    interface StorageOperation<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Execute an operation, retrying it if it fails (depending on the policy)
+     * @param description description of the operation (e.g. "save file x") used for logging and error messages
+     * @param operation the operation to execute, it should be safe to execute it more than once
+     * @param <T> type of the result
+     * @return result of the operation
+     * @throws IOException when the operation failed and won't be retried (anymore)
+     */
+    <T> T execute(String description, StorageOperation<T> operation) throws IOException;
+
+    /**
+     * Called when a new sitemap update starts, so the policy can reset any state that applies to a single update. By
+     * default this does nothing.
+     */
+    default void startRun() {
+        // no state per run
+    }
+}
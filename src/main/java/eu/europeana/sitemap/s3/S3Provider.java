@@ -0,0 +1,96 @@
+package eu.europeana.sitemap.s3;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Provides direct access to the S3 bucket where sitemap files are stored. This is used for operations that are not
+ * supported by the object-storage library (e.g. multipart uploads).
+ *
+ * Operations that are retried with a RetryPolicy should use the client without retries, otherwise each attempt of the
+ * policy can be several requests (the SDK retries 3 times by default) and its backoff, circuit breaker and error
+ * budget don't work as configured. Other operations (e.g. for serving files) can use the client with SDK retries.
+ */
+public class S3Provider {
+
+    private static final Logger LOG = LogManager.getLogger(S3Provider.class);
+
+    private final AmazonS3 client;
+    private final AmazonS3 clientWithoutRetries;
+    private final String bucket;
+
+    /**
+     * Create a new S3 client for the provided bucket
+     * @param key S3 client key
+     * @param secret S3 secret key
+     * @param region S3 region
+     * @param bucket name of the bucket to use
+     * @param endpoint S3 endpoint, can be empty when using Amazon S3 (required for IBM Cloud S3)
+     */
+    public S3Provider(String key, String secret, String region, String bucket, String endpoint) {
+        AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard()
+                .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(key, secret)))
+                .withPathStyleAccessEnabled(true);
+        if (StringUtils.isEmpty(endpoint)) {
+            builder.withRegion(region);
+        } else {
+            builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, region));
+        }
+        this.client = builder.build();
+        this.clientWithoutRetries = builder
+                .withClientConfiguration(new ClientConfiguration().withMaxErrorRetry(0))
+                .build();
+        this.bucket = bucket;
+        LOG.info("Connected to S3 bucket {}", bucket);
+    }
+
+    /**
+     * Create a new provider for an existing client (for testing purposes)
+     * @param client S3 client
+     * @param bucket name of the bucket to use
+     */
+    public S3Provider(AmazonS3 client, String bucket) {
+        this.client = client;
+        this.clientWithoutRetries = client;
+        this.bucket = bucket;
+    }
+
+    /**
+     * @return the S3 client, which retries failed requests itself
+     */
+    public AmazonS3 getClient() {
+        return client;
+    }
+
+    /**
+     * @return S3 client that doesn't retry failed requests, for operations that are retried with a RetryPolicy
+     */
+    public AmazonS3 getClientWithoutRetries() {
+        return clientWithoutRetries;
+    }
+
+    /**
+     * @return the name of the bucket where all sitemap files are stored
+     */
+    public String getBucket() {
+        return bucket;
+    }
+
+    /**
+     * Close the connection to S3
+     */
+    public void close() {
+        LOG.info("Shutting down connections to S3...");
+        client.shutdown();
+        if (clientWithoutRetries != client) {
+            clientWithoutRetries.shutdown();
+        }
+    }
+}
@@ -1,26 +1,66 @@
 package eu.europeana.sitemap.service;
 
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
 import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import eu.europeana.features.S3ObjectStorageClient;
 import eu.europeana.sitemap.Constants;
 import eu.europeana.sitemap.SitemapType;
 import eu.europeana.sitemap.StorageFileName;
+import eu.europeana.sitemap.config.SitemapConfiguration;
+import eu.europeana.sitemap.s3.RetryPolicy;
+import eu.europeana.sitemap.s3.S3Provider;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 
 /**
  * Checks whether we use green or blue deployment. Also allows for switching between blue and green and deleting all
  * files from the inactive deployment
  *
+ * Inactive files are listed by prefix and deleted in batches (1 request per 1000 files), with a few batches deleted
+ * concurrently. Note that the files of a deployment are not deleted when switching away from it, but only at the start
+ * of the next update, so instances that still serve the previous deployment (e.g. from cache) keep working. If the next
+ * update starts soon after the switch, deletion waits until no instance can be using the previous deployment anymore
+ * (the maximum staleness of cached values plus the validity of presigned redirect urls).
+ *
+ * Storage operations done during updates (listing, deleting and switching) are retried according to the retry policy.
+ * Before a generated deployment is made active, all its files can be verified against a listing of the inactive
+ * deployment (see verifyInactiveFiles()), so we don't need to check each saved file separately.
+ *
+ * For serving sitemap files the active deployment can be looked up from a cache (see getCachedActiveDeployment()), so
+ * most requests don't need to read the active file from storage. Cached values are revalidated in the background by
+ * checking the ETag and last modified time of the active file, and updated right away when this instance switches
+ * deployment. Every switch changes the last modified time, so we also notice when the deployment was switched twice
+ * (e.g. from blue to green and back) while the active file has the same contents as before.
+ *
  * Created by jeroen on 21-9-16.
  * Refactored by Patrick Ehlert on 11-06-2018
  */
@@ -29,18 +69,90 @@ public class ActiveDeploymentService {
 
     private static final Logger LOG = LogManager.getLogger(ActiveDeploymentService.class);
 
-    private static final int PROGRESS_INTERVAL = 100;
+    /** S3 doesn't allow deleting more than 1000 objects in 1 request **/
+    private static final int MAX_KEYS_PER_DELETE = 1000;
+    private static final int MAX_KEYS_PER_LIST = 1000;
+    private static final int MAX_CONCURRENT_DELETES = 4;
+    /** Extra time to wait before deleting the previous deployment, in case clocks are not exactly in sync **/
+    private static final long DELETE_GRACE_MARGIN_MS = 1_000;
 
     private final S3ObjectStorageClient objectStorageProvider;
+    private final S3Provider s3Provider;
+    private final RetryPolicy retryPolicy;
+    private final ExecutorService deleteExecutor;
+    private final long cacheMaxStalenessMs;
+    private final long deleteGracePeriodMs;
+    private final ExecutorService revalidateExecutor;
+    private final Map<SitemapType, CachedDeployment> cache = new ConcurrentHashMap<>();
+    private final Map<SitemapType, Boolean> revalidating = new ConcurrentHashMap<>();
+    private final List<Consumer<SitemapType>> switchListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Active deployment as read from storage, with the ETag and last modified time of the active file. When this
+     * instance saved the active file itself, the last modified time isn't returned by S3 so it's estimated (as the time
+     * after saving, which is never earlier than the actual last modified time).
+     */
+    private static final class CachedDeployment {
+        private final Deployment deployment;
+        private final String eTag;
+        private final long activeSince;
+        private final boolean activeSinceEstimated;
+        private final long validated;
+
+        private CachedDeployment(Deployment deployment, String eTag, long activeSince) {
+            this(deployment, eTag, activeSince, false);
+        }
+
+        private CachedDeployment(Deployment deployment, String eTag, long activeSince, boolean activeSinceEstimated) {
+            this.deployment = deployment;
+            this.eTag = eTag;
+            this.activeSince = activeSince;
+            this.activeSinceEstimated = activeSinceEstimated;
+            this.validated = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Initialize the service, without retrying failed storage operations
+     * @param objectStorageClient storage where active deployment info is saved
+     * @param s3Provider direct access to the same storage, used for deleting files in batches
+     * @param config configuration settings
+     */
+    public ActiveDeploymentService(S3ObjectStorageClient objectStorageClient, S3Provider s3Provider,
+                                   SitemapConfiguration config) {
+        this(objectStorageClient, s3Provider, config, RetryPolicy.NONE);
+    }
 
     /**
      * Initialize the service
      * @param objectStorageClient storage where active deployment info is saved
+     * @param s3Provider direct access to the same storage, used for deleting files in batches
+     * @param config configuration settings
+     * @param retryPolicy policy for retrying failed storage operations
      */
     @Autowired
-    public ActiveDeploymentService(S3ObjectStorageClient objectStorageClient) {
+    public ActiveDeploymentService(S3ObjectStorageClient objectStorageClient, S3Provider s3Provider,
+                                   SitemapConfiguration config, RetryPolicy retryPolicy) {
         LOG.debug("Init");
         this.objectStorageProvider = objectStorageClient;
+        this.s3Provider = s3Provider;
+        this.retryPolicy = retryPolicy;
+        this.cacheMaxStalenessMs = TimeUnit.SECONDS.toMillis(config.getDeploymentCacheStaleness());
+        // presigned urls are only handed out when there's no CDN
+        long redirectExpiry = (config.isRedirectEnabled() && StringUtils.isBlank(config.getRedirectCdnUrl())
+                ? TimeUnit.SECONDS.toMillis(config.getRedirectUrlExpiry()) : 0);
+        this.deleteGracePeriodMs = cacheMaxStalenessMs + redirectExpiry;
+        AtomicInteger threadNr = new AtomicInteger(0);
+        this.deleteExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_DELETES, runnable -> {
+            Thread t = new Thread(runnable, "delete-files-" + threadNr.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.revalidateExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread t = new Thread(runnable, "revalidate-deployment");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     /**
@@ -58,11 +170,13 @@ public class ActiveDeploymentService {
             if (s3Object == null) {
                 // if the active file does not exist we create a new one
                 LOG.error("File {} not present. Initializing new active deployment file...", activeFileName);
-                saveToStorageProvider(Deployment.GREEN, activeFileName);
+                String eTag = saveToStorageProvider(Deployment.GREEN, activeFileName);
                 result = Deployment.GREEN;
+                cacheDeployment(sitemapType, new CachedDeployment(result, eTag, System.currentTimeMillis(), true));
             } else {
-                String blueGreen = new String(s3Object.getObjectContent().readAllBytes(), StandardCharsets.UTF_8);
-                result = Deployment.fromString(blueGreen);
+                result = readDeployment(s3Object);
+                cacheDeployment(sitemapType, new CachedDeployment(result, s3Object.getObjectMetadata().getETag(),
+                        getLastModified(s3Object)));
             }
         } catch (IOException e) {
             LOG.error("Error while processing the file {} to determine the current active site map", activeFileName, e);
@@ -71,6 +185,101 @@ public class ActiveDeploymentService {
         return result;
     }
 
+    /**
+     * Register a listener that is called when the active deployment of a sitemap type changes, either because this
+     * instance switched deployment or because we noticed that another instance did. Listeners are also called when
+     * the deployment was switched more than once in the meantime, so the active deployment is the same as before but
+     * its files are new.
+     * @param listener receives the sitemap type of which the active deployment changed
+     */
+    public void addSwitchListener(Consumer<SitemapType> listener) {
+        switchListeners.add(listener);
+    }
+
+    private void cacheDeployment(SitemapType sitemapType, CachedDeployment cached) {
+        CachedDeployment previous = cache.put(sitemapType, cached);
+        if (previous != null && isSwitched(previous, cached)) {
+            switchListeners.forEach(listener -> listener.accept(sitemapType));
+        }
+    }
+
+    /**
+     * Any change of the active file means a switch, even if it lists the same deployment: the ETag only depends on the
+     * contents, so after switching twice the last modified time is what changed. If we saved the active file ourselves
+     * its last modified time was estimated, so only a later time means another switch.
+     */
+    private static boolean isSwitched(CachedDeployment previous, CachedDeployment current) {
+        if (previous.deployment != current.deployment
+                || (previous.eTag != null && current.eTag != null && !previous.eTag.equals(current.eTag))) {
+            return true;
+        }
+        if (previous.activeSinceEstimated) {
+            return current.activeSince > previous.activeSince;
+        }
+        return current.activeSince != previous.activeSince;
+    }
+
+    private static long getLastModified(S3Object s3Object) {
+        Date lastModified = s3Object.getObjectMetadata().getLastModified();
+        return (lastModified == null ? 0 : lastModified.getTime());
+    }
+
+    private static Deployment readDeployment(S3Object s3Object) throws IOException {
+        String blueGreen = new String(s3Object.getObjectContent().readAllBytes(), StandardCharsets.UTF_8);
+        return Deployment.fromString(blueGreen);
+    }
+
+    /**
+     * Returns the active deployment (blue or green) from cache, for serving sitemap files. When the cached value is
+     * older than half the configured maximum staleness it's revalidated in the background, when it's older than the
+     * maximum staleness the active file is read right away. Note that for updates getActiveDeployment() should be used.
+     * @param sitemapType type of sitemap (record or entity)
+     * @return deployment that is active for this type
+     */
+    public Deployment getCachedActiveDeployment(SitemapType sitemapType) {
+        CachedDeployment cached = cache.get(sitemapType);
+        long age = (cached == null ? Long.MAX_VALUE : System.currentTimeMillis() - cached.validated);
+        if (age >= cacheMaxStalenessMs || cached.deployment == null) {
+            return getActiveDeployment(sitemapType);
+        }
+        if (age >= cacheMaxStalenessMs / 2 && revalidating.putIfAbsent(sitemapType, Boolean.TRUE) == null) {
+            revalidateExecutor.execute(() -> {
+                try {
+                    revalidate(sitemapType, cached);
+                } finally {
+                    revalidating.remove(sitemapType);
+                }
+            });
+        }
+        return cached.deployment;
+    }
+
+    /**
+     * Check if the active file changed since it was cached, only if it did the new contents are read. We don't use a
+     * conditional request on the ETag, because switching twice results in the same ETag.
+     */
+    private void revalidate(SitemapType sitemapType, CachedDeployment cached) {
+        if (cached.eTag == null) {
+            getActiveDeployment(sitemapType);
+            return;
+        }
+        String activeFileName = StorageFileName.getActiveDeploymentFileName(sitemapType);
+        try {
+            ObjectMetadata metadata = s3Provider.getClient().getObjectMetadata(s3Provider.getBucket(), activeFileName);
+            long lastModified = (metadata.getLastModified() == null ? 0 : metadata.getLastModified().getTime());
+            CachedDeployment current = new CachedDeployment(cached.deployment, metadata.getETag(), lastModified);
+            if (!isSwitched(cached, current)) {
+                LOG.debug("Active file {} not modified", activeFileName);
+                cacheDeployment(sitemapType, current);
+            } else {
+                Deployment deployment = getActiveDeployment(sitemapType);
+                LOG.info("Active {} deployment changed to {}", sitemapType, deployment);
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Error revalidating active file {}", activeFileName, e);
+        }
+    }
+
     /**
      * Returns the inactive deployment (blue or green), depending on which value is in the active file. If no active file
      * is present we create a new one with the value "green"
@@ -85,50 +294,154 @@ public class ActiveDeploymentService {
     }
 
     /**
-     * Deletes all the inactive files for the provided type
+     * Deletes all the inactive files for the provided type. If the active deployment was switched only recently, we
+     * first wait until other instances can no longer be serving the (now inactive) previous deployment.
      * @param sitemapType type of sitemap (record or entity)
      * @return the number of deleted files
      */
     public long deleteInactiveFiles(SitemapType sitemapType) {
-        long result = 0;
+        String fileNamePrefix = getInactiveFileNamePrefix(sitemapType);
+        awaitDeleteGracePeriod(sitemapType);
+        return deleteFiles(fileNamePrefix);
+    }
 
-        // determine inactive files
+    /**
+     * Wait until the grace period after the last switch has passed. The switch time is the last modified time of the
+     * active file, so this also works when the switch was done by another instance (or a previous run).
+     */
+    private void awaitDeleteGracePeriod(SitemapType sitemapType) {
+        CachedDeployment active = cache.get(sitemapType);
+        if (deleteGracePeriodMs <= 0 || active == null || active.activeSince <= 0) {
+            return;
+        }
+        long wait = active.activeSince + deleteGracePeriodMs + DELETE_GRACE_MARGIN_MS - System.currentTimeMillis();
+        if (wait > 0) {
+            LOG.info("Active {} deployment was switched recently, waiting {} ms before deleting inactive files",
+                    sitemapType, wait);
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to delete inactive " + sitemapType
+                        + " files", e);
+            }
+        }
+    }
+
+    /**
+     * Check that all expected files of the inactive deployment are stored, before it's made active. All files of the
+     * inactive deployment are listed (1 request per 1000 files) and compared with the expected file names and sizes.
+     * @param sitemapType type of sitemap (record or entity)
+     * @param expectedFiles names of the files that should be stored, with their size in bytes (0 if unknown)
+     * @return descriptions of the files that are missing or have a different size, empty if all files are stored
+     */
+    public List<String> verifyInactiveFiles(SitemapType sitemapType, Map<String, Long> expectedFiles) {
+        String fileNamePrefix = getInactiveFileNamePrefix(sitemapType);
+        LOG.info("Verifying {} files with name starting with {} ...", expectedFiles.size(), fileNamePrefix);
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(s3Provider.getBucket())
+                .withPrefix(fileNamePrefix)
+                .withMaxKeys(MAX_KEYS_PER_LIST);
+        Map<String, Long> storedFiles = new HashMap<>();
+        ListObjectsV2Result list;
+        do {
+            list = listFiles(request);
+            for (S3ObjectSummary summary : list.getObjectSummaries()) {
+                storedFiles.put(summary.getKey(), summary.getSize());
+            }
+            request.setContinuationToken(list.getNextContinuationToken());
+        } while (list.isTruncated());
+
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Long> expected : expectedFiles.entrySet()) {
+            Long storedSize = storedFiles.get(expected.getKey());
+            if (storedSize == null) {
+                result.add("File " + expected.getKey() + " is missing");
+            } else if (expected.getValue() > 0 && expected.getValue().longValue() != storedSize) {
+                result.add("File " + expected.getKey() + " has size " + storedSize + " instead of "
+                        + expected.getValue());
+            }
+        }
+        LOG.info("Verified {} files, {} stored files listed, {} problems found", expectedFiles.size(),
+                storedFiles.size(), result.size());
+        return result;
+    }
+
+    private String getInactiveFileNamePrefix(SitemapType sitemapType) {
         Deployment inactive = this.getInactiveDeployment(sitemapType);
-        String fileNameToDelete = StorageFileName.getSitemapFileName(sitemapType, inactive, null);
+        String fileName = StorageFileName.getSitemapFileName(sitemapType, inactive, null);
         // remove .xml extension so we delete also the index file
-        fileNameToDelete = fileNameToDelete.split(Constants.XML_EXTENSION)[0];
+        return fileName.split(Constants.XML_EXTENSION)[0];
+    }
 
-        // list files
-        String continuationToken = null;
-        LOG.info("Deleting all old files with name starting with {} ...", fileNameToDelete);
+    /**
+     * Delete all files with a name that starts with the provided prefix. Each listed page of files is deleted with 1
+     * request, the pages are deleted concurrently.
+     * @param fileNamePrefix prefix of the files to delete
+     * @return the number of deleted files
+     */
+    private long deleteFiles(String fileNamePrefix) {
+        LOG.info("Deleting all old files with name starting with {} ...", fileNamePrefix);
+        AmazonS3 client = s3Provider.getClientWithoutRetries();
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(s3Provider.getBucket())
+                .withPrefix(fileNamePrefix)
+                .withMaxKeys(MAX_KEYS_PER_DELETE);
+        List<Future<Integer>> batches = new ArrayList<>();
+        ListObjectsV2Result list;
         do {
-            ListObjectsV2Result list = objectStorageProvider.listAll(continuationToken);
-            continuationToken = list.getNextContinuationToken();
-            List<S3ObjectSummary> results = list.getObjectSummaries();
-            if (results.isEmpty()) {
-                LOG.info("No files to remove.");
-            } else {
-                for (S3ObjectSummary obj : results) {
-                    result = deleteInactiveFile(obj.getKey(), fileNameToDelete, result);
-                }
+            list = listFiles(request);
+            List<DeleteObjectsRequest.KeyVersion> keys = list.getObjectSummaries().stream()
+                    .map(summary -> new DeleteObjectsRequest.KeyVersion(summary.getKey()))
+                    .toList();
+            if (!keys.isEmpty()) {
+                batches.add(deleteExecutor.submit(() -> deleteBatch(client, keys)));
             }
-        } while (continuationToken != null);
+            request.setContinuationToken(list.getNextContinuationToken());
+        } while (list.isTruncated());
 
+        long result = 0;
+        try {
+            for (Future<Integer> batch : batches) {
+                result += batch.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error deleting files with name starting with " + fileNamePrefix,
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while deleting files with name starting with "
+                    + fileNamePrefix, e);
+        } finally {
+            batches.forEach(batch -> batch.cancel(true));
+        }
         LOG.info("Deleted {} old files", result);
         return result;
     }
 
-    private long deleteInactiveFile(String fileName, String fileNameToDelete, long filesDeleted) {
-        if (fileName.startsWith(fileNameToDelete)) {
-            LOG.debug("Deleting file {}", fileName);
-            objectStorageProvider.deleteObject(fileName);
-            filesDeleted++;
-            // report on progress
-            if (filesDeleted > 0 && filesDeleted % PROGRESS_INTERVAL == 0) {
-                LOG.info("Deleted {} old files", filesDeleted);
+    private int deleteBatch(AmazonS3 client, List<DeleteObjectsRequest.KeyVersion> keys) throws IOException {
+        LOG.debug("Deleting {} files, starting with {}", keys.size(), keys.get(0).getKey());
+        try {
+            // in quiet mode only errors are reported
+            retryPolicy.execute("delete " + keys.size() + " files starting with " + keys.get(0).getKey(), () ->
+                    client.deleteObjects(new DeleteObjectsRequest(s3Provider.getBucket()).withKeys(keys).withQuiet(true)));
+        } catch (IOException e) {
+            if (e.getCause() instanceof MultiObjectDeleteException deleteException) {
+                deleteException.getErrors().forEach(error -> LOG.error("Error deleting file {}: {} {}", error.getKey(),
+                        error.getCode(), error.getMessage()));
             }
+            throw e;
+        }
+        return keys.size();
+    }
+
+    private ListObjectsV2Result listFiles(ListObjectsV2Request request) {
+        try {
+            return retryPolicy.execute("list files starting with " + request.getPrefix(),
+                    () -> s3Provider.getClientWithoutRetries().listObjectsV2(request));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return filesDeleted;
     }
 
     /**
@@ -139,7 +452,8 @@ public class ActiveDeploymentService {
     public Deployment switchDeployment(SitemapType sitemapType) {
         Deployment switchTo = getInactiveDeployment(sitemapType);
         String activeFileName = StorageFileName.getActiveDeploymentFileName(sitemapType);
-        saveToStorageProvider(switchTo, activeFileName);
+        String eTag = saveToStorageProvider(switchTo, activeFileName);
+        cacheDeployment(sitemapType, new CachedDeployment(switchTo, eTag, System.currentTimeMillis(), true));
         return switchTo;
     }
 
@@ -150,7 +464,21 @@ public class ActiveDeploymentService {
      */
     private String saveToStorageProvider(Deployment blueGreen, String activeFileName) {
         LOG.debug("Saving value {} in file {} ", blueGreen, activeFileName);
-        return objectStorageProvider.putObject(activeFileName, blueGreen.toString());
+        try {
+            return retryPolicy.execute("save file " + activeFileName, () -> s3Provider.getClientWithoutRetries()
+                    .putObject(s3Provider.getBucket(), activeFileName, blueGreen.toString()).getETag());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stop deleting files and revalidating the cache (if in progress)
+     */
+    @PreDestroy
+    public void shutdown() {
+        deleteExecutor.shutdownNow();
+        revalidateExecutor.shutdownNow();
     }
 
 }
@@ -0,0 +1,288 @@
+package eu.europeana.sitemap.service;
+
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import eu.europeana.features.S3ObjectStorageClient;
+import eu.europeana.sitemap.Constants;
+import eu.europeana.sitemap.SitemapType;
+import eu.europeana.sitemap.config.SitemapConfiguration;
+import eu.europeana.sitemap.s3.S3Provider;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a copy of the sitemap files of the active deployments on local disk, so a web server can serve them from disk
+ * instead of from S3. This is only done when a mirror directory is configured.
+ *
+ * The files of a sitemap type are copied when the web server has started and again each time we notice the active
+ * deployment of that type has changed. A mirror is only used when all files of the deployment are copied; until then
+ * (or if copying fails) files are read from S3.
+ */
+@Service
+public class LocalMirrorService {
+
+    private static final Logger LOG = LogManager.getLogger(LocalMirrorService.class);
+
+    private static final int MAX_KEYS_PER_LIST = 1000;
+    /** Replaced mirrors are deleted after a delay, so requests that are still serving them can finish **/
+    private static final long DELETE_DELAY_MINUTES = 5;
+    private static final long RETRY_DELAY_MINUTES = 5;
+
+    private final S3ObjectStorageClient objectStorageProvider;
+    private final S3Provider s3Provider;
+    private final ActiveDeploymentService deploymentService;
+    private final Path mirrorDirectory;
+    private final ScheduledExecutorService executor;
+    private final Map<SitemapType, Mirror> mirrors = new ConcurrentHashMap<>();
+    // increased each time the active deployment changes, so we can detect that a mirror was outdated before it's done
+    private final Map<SitemapType, AtomicLong> versions = new EnumMap<>(SitemapType.class);
+
+    /**
+     * Copied files of the active deployment of a sitemap type
+     */
+    private static final class Mirror {
+        private final Deployment deployment;
+        private final Path directory;
+        private final Set<String> fileNames;
+
+        private Mirror(Deployment deployment, Path directory, Set<String> fileNames) {
+            this.deployment = deployment;
+            this.directory = directory;
+            this.fileNames = fileNames;
+        }
+    }
+
+    @Autowired
+    public LocalMirrorService(S3ObjectStorageClient objectStorageProvider, S3Provider s3Provider,
+                              ActiveDeploymentService deploymentService, SitemapConfiguration config) {
+        this.objectStorageProvider = objectStorageProvider;
+        this.s3Provider = s3Provider;
+        this.deploymentService = deploymentService;
+        this.mirrorDirectory = StringUtils.isBlank(config.getMirrorDirectory()) ? null
+                : Paths.get(config.getMirrorDirectory().trim());
+        for (SitemapType type : SitemapType.values()) {
+            versions.put(type, new AtomicLong());
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread t = new Thread(runnable, "mirror-files");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Start copying files when the web server is ready. Applications that only run an update don't mirror files.
+     * @param event application ready event
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start(ApplicationReadyEvent event) {
+        if (isEnabled() && event.getApplicationContext() instanceof WebApplicationContext) {
+            startMirroring();
+        }
+    }
+
+    void startMirroring() {
+        LOG.info("Mirroring active deployments to {}", mirrorDirectory);
+        deleteOldMirrors();
+        deploymentService.addSwitchListener(this::onSwitch);
+        for (SitemapType type : SitemapType.values()) {
+            executor.execute(() -> mirror(type));
+        }
+    }
+
+    /**
+     * Delete mirrors that are left behind by a previous run (e.g. when the application was killed)
+     */
+    private void deleteOldMirrors() {
+        if (!Files.isDirectory(mirrorDirectory)) {
+            return;
+        }
+        try (Stream<Path> directories = Files.list(mirrorDirectory)) {
+            for (Path directory : directories.toList()) {
+                String name = directory.getFileName().toString();
+                if (Arrays.stream(SitemapType.values()).anyMatch(type -> name.startsWith(type.getFileNameBase()))) {
+                    FileUtils.deleteDirectory(directory.toFile());
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Error deleting old mirrors in {}", mirrorDirectory, e);
+        }
+    }
+
+    /**
+     * @return true if a mirror directory is configured, otherwise false
+     */
+    public boolean isEnabled() {
+        return mirrorDirectory != null;
+    }
+
+    /**
+     * @return true if the files of all sitemap types are mirrored, otherwise false
+     */
+    public boolean isComplete() {
+        return mirrors.size() == SitemapType.values().length;
+    }
+
+    /**
+     * @return the deployments that are mirrored at the moment, per sitemap type
+     */
+    public Map<SitemapType, Deployment> getMirroredDeployments() {
+        Map<SitemapType, Deployment> result = new EnumMap<>(SitemapType.class);
+        mirrors.forEach((type, mirror) -> result.put(type, mirror.deployment));
+        return result;
+    }
+
+    /**
+     * Return the local copy of a file
+     * @param fileName name of the file in storage
+     * @return path of the copied file, or null if the file is not (yet) mirrored
+     */
+    public Path getFile(String fileName) {
+        for (Mirror mirror : mirrors.values()) {
+            if (mirror.fileNames.contains(fileName)) {
+                return mirror.directory.resolve(toLocalFileName(fileName));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The inactive deployment is overwritten by the next update, so after a switch the old mirror shouldn't be used
+     * anymore. Until the new mirror is done files are read from S3.
+     */
+    private synchronized void onSwitch(SitemapType type) {
+        versions.get(type).incrementAndGet();
+        Mirror old = mirrors.remove(type);
+        if (old != null) {
+            scheduleDelete(old.directory);
+        }
+        executor.execute(() -> mirror(type));
+    }
+
+    private void mirror(SitemapType type) {
+        long version = versions.get(type).get();
+        Deployment deployment = deploymentService.getActiveDeployment(type);
+        Mirror current = mirrors.get(type);
+        if (current != null && current.deployment == deployment) {
+            LOG.debug("Deployment {} of {} sitemap is already mirrored", deployment, type);
+            return;
+        }
+
+        String prefix = type.getFileNameBase() + Constants.DASH + deployment;
+        Path directory = mirrorDirectory.resolve(prefix + Constants.DASH + System.currentTimeMillis());
+        try {
+            long start = System.currentTimeMillis();
+            Set<String> fileNames = copyFiles(prefix, directory);
+            synchronized (this) {
+                if (versions.get(type).get() != version) {
+                    LOG.info("Active deployment of {} sitemap changed while mirroring, discarding copied files", type);
+                    scheduleDelete(directory);
+                    return;
+                }
+                mirrors.put(type, new Mirror(deployment, directory, fileNames));
+            }
+            LOG.info("Mirrored {} files of {} sitemap, deployment {}, in {} ms", fileNames.size(), type, deployment,
+                    System.currentTimeMillis() - start);
+            if (current != null) {
+                scheduleDelete(current.directory);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Error mirroring files of {} sitemap, retrying in {} minutes", type, RETRY_DELAY_MINUTES, e);
+            scheduleDelete(directory);
+            executor.schedule(() -> mirror(type), RETRY_DELAY_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    private Set<String> copyFiles(String fileNamePrefix, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Set<String> result = new HashSet<>();
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(s3Provider.getBucket())
+                .withPrefix(fileNamePrefix)
+                .withMaxKeys(MAX_KEYS_PER_LIST);
+        ListObjectsV2Result list;
+        do {
+            list = s3Provider.getClient().listObjectsV2(request);
+            for (S3ObjectSummary summary : list.getObjectSummaries()) {
+                String fileName = summary.getKey();
+                // skip manifest and checkpoint files, those are not served
+                if (fileName.contains(Constants.XML_EXTENSION) && copyFile(fileName, directory)) {
+                    result.add(fileName);
+                }
+            }
+            request.setContinuationToken(list.getNextContinuationToken());
+        } while (list.isTruncated());
+        return result;
+    }
+
+    private boolean copyFile(String fileName, Path directory) throws IOException {
+        try (InputStream in = objectStorageProvider.getObjectStream(fileName)) {
+            if (in == null) {
+                LOG.warn("File {} was listed but not found", fileName);
+                return false;
+            }
+            Files.copy(in, directory.resolve(toLocalFileName(fileName)));
+            return true;
+        }
+    }
+
+    /**
+     * Sitemap file names contain characters (?, & and =) that we'd rather not have in local file names
+     */
+    private static String toLocalFileName(String fileName) {
+        return URLEncoder.encode(fileName, StandardCharsets.UTF_8);
+    }
+
+    private void scheduleDelete(Path directory) {
+        executor.schedule(() -> {
+            try {
+                FileUtils.deleteDirectory(directory.toFile());
+            } catch (IOException e) {
+                LOG.warn("Error deleting mirror directory {}", directory, e);
+            }
+        }, DELETE_DELAY_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stop mirroring and delete all copied files
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        for (Mirror mirror : mirrors.values()) {
+            try {
+                FileUtils.deleteDirectory(mirror.directory.toFile());
+            } catch (IOException e) {
+                LOG.warn("Error deleting mirror directory {}", mirror.directory, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package eu.europeana.sitemap.service;
+
+import com.amazonaws.services.s3.model.S3Object;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.europeana.features.S3ObjectStorageClient;
+import eu.europeana.sitemap.SitemapType;
+import eu.europeana.sitemap.StorageFileName;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+
+/**
+ * Reads and saves the manifest files that describe the sitemap files of a deployment, as well as the checkpoint files
+ * that describe the files saved so far by a generation that is in progress (in the same format).
+ * @see SitemapManifest
+ */
+@Service
+public class ManifestService {
+
+    private static final Logger LOG = LogManager.getLogger(ManifestService.class);
+
+    private final S3ObjectStorageClient objectStorageProvider;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Initialize the service
+     * @param objectStorageClient storage where manifest files are saved
+     */
+    @Autowired
+    public ManifestService(S3ObjectStorageClient objectStorageClient) {
+        this.objectStorageProvider = objectStorageClient;
+    }
+
+    /**
+     * Read the manifest of a deployment
+     * @param type sitemap type (record or entity)
+     * @param deployment deployment (blue or green)
+     * @return the manifest, or null if there is no (valid) manifest for this deployment
+     */
+    public SitemapManifest getManifest(SitemapType type, Deployment deployment) {
+        return read(StorageFileName.getManifestFileName(type, deployment));
+    }
+
+    /**
+     * Save a manifest
+     * @param manifest the manifest to save, note that type and deployment should be set
+     * @return true if the manifest was saved, otherwise false
+     */
+    public boolean saveManifest(SitemapManifest manifest) {
+        return save(StorageFileName.getManifestFileName(manifest.getType(), manifest.getDeployment()), manifest);
+    }
+
+    /**
+     * Read the checkpoint of a generation that didn't finish
+     * @param type sitemap type (record or entity)
+     * @param deployment deployment (blue or green) to which the generation was writing files
+     * @return the checkpoint, or null if there is no (valid) checkpoint for this deployment
+     */
+    public SitemapManifest getCheckpoint(SitemapType type, Deployment deployment) {
+        return read(StorageFileName.getCheckpointFileName(type, deployment));
+    }
+
+    /**
+     * Save a checkpoint, listing the files that were saved so far by a generation that is in progress
+     * @param checkpoint the checkpoint to save, note that type and deployment should be set
+     * @return true if the checkpoint was saved, otherwise false
+     */
+    public boolean saveCheckpoint(SitemapManifest checkpoint) {
+        return save(StorageFileName.getCheckpointFileName(checkpoint.getType(), checkpoint.getDeployment()), checkpoint);
+    }
+
+    /**
+     * Delete the checkpoint of a deployment (if any), so a next generation won't resume from it
+     * @param type sitemap type (record or entity)
+     * @param deployment deployment (blue or green)
+     */
+    public void deleteCheckpoint(SitemapType type, Deployment deployment) {
+        String fileName = StorageFileName.getCheckpointFileName(type, deployment);
+        objectStorageProvider.deleteObject(fileName);
+        LOG.debug("Deleted checkpoint file {}", fileName);
+    }
+
+    private SitemapManifest read(String fileName) {
+        try (S3Object s3Object = objectStorageProvider.getObject(fileName)) {
+            if (s3Object == null) {
+                LOG.info("No file {} found", fileName);
+                return null;
+            }
+            return mapper.readValue(s3Object.getObjectContent(), SitemapManifest.class);
+        } catch (IOException e) {
+            LOG.error("Error reading file {}", fileName, e);
+            return null;
+        }
+    }
+
+    private boolean save(String fileName, SitemapManifest manifest) {
+        try {
+            String eTag = objectStorageProvider.putObject(fileName, mapper.writeValueAsString(manifest));
+            LOG.info("Saved file {} listing {} sitemap files", fileName, manifest.getFiles().size());
+            return eTag != null;
+        } catch (JsonProcessingException e) {
+            LOG.error("Error serializing file {}", fileName, e);
+            return false;
+        }
+    }
+}
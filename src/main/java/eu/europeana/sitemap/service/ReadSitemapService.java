@@ -1,5 +1,6 @@
 package eu.europeana.sitemap.service;
 
+import eu.europeana.sitemap.SitemapType;
 import eu.europeana.sitemap.exceptions.SiteMapNotFoundException;
 
 import java.io.IOException;
@@ -28,4 +29,21 @@ public interface ReadSitemapService {
      */
     InputStream getFileAsStream(String fileName) throws SiteMapNotFoundException;
 
+    /**
+     * Retrieve the metadata (ETag, last modified date and size) of a particular file, without reading its contents
+     * @param fileName the name of the requested file
+     * @return metadata of the stored file
+     * @throws SiteMapNotFoundException thrown when requested file is not available
+     */
+    SitemapFileMetadata getFileMetadata(String fileName) throws SiteMapNotFoundException;
+
+    /**
+     * Retrieve the version of a particular sitemap file, as listed in the manifest of its deployment
+     * @param type sitemap type (record or entity)
+     * @param deployment deployment (blue or green) the file belongs to
+     * @param fileName the name of the requested file
+     * @return version of the file, or null if it's unknown
+     */
+    String getFileVersion(SitemapType type, Deployment deployment, String fileName);
+
 }
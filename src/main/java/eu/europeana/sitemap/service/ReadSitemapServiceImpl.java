@@ -1,40 +1,92 @@
 package eu.europeana.sitemap.service;
 
 
+import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import eu.europeana.features.S3ObjectStorageClient;
+import eu.europeana.sitemap.Constants;
+import eu.europeana.sitemap.SitemapType;
+import eu.europeana.sitemap.StorageFileName;
+import eu.europeana.sitemap.config.SitemapConfiguration;
 import eu.europeana.sitemap.exceptions.SiteMapNotFoundException;
+import eu.europeana.sitemap.s3.S3Provider;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Read sitemap files directly from the object storage provider
+ * Read sitemap files from the object storage provider. Recently requested files are kept in a memory cache (if enabled)
+ * that is cleared when the active deployment of a sitemap type changes. File metadata and file versions (read from the
+ * manifest of a deployment) are always cached and cleared in the same way.
  *
  * @author Patrick Ehlert on 11-9-17.
  */
 @Service
 public class ReadSitemapServiceImpl implements ReadSitemapService {
 
+    private static final Logger LOG = LogManager.getLogger(ReadSitemapServiceImpl.class);
+
     private static final int KB = 1024;
     private static final int MB = 1024 * KB;
     private static final int GB = 1024 * MB;
+    private static final int HTTP_NOT_FOUND = 404;
+    // only small files (such as index files) are cached. Sitemap files are a few MB each and there are too many of
+    // them to get a useful hit ratio, while loading one in memory allocates an array of its size on each cache miss
+    private static final long MAX_CACHED_FILE_SIZE = 512L * KB;
 
     private final S3ObjectStorageClient objectStorageProvider;
+    private final S3Provider s3Provider;
+    private final ManifestService manifestService;
+    private final SitemapFileCache fileCache;
+    // files of a deployment don't change until the deployment is replaced, so neither does their metadata
+    private final Map<String, SitemapFileMetadata> metadataCache = new ConcurrentHashMap<>();
+    // file versions per manifest file name
+    private final Map<String, Map<String, String>> versionCache = new ConcurrentHashMap<>();
 
     @Autowired
-    public ReadSitemapServiceImpl (S3ObjectStorageClient objectStorageProvider) {
+    public ReadSitemapServiceImpl (S3ObjectStorageClient objectStorageProvider, S3Provider s3Provider,
+                                   ManifestService manifestService, ActiveDeploymentService deploymentService,
+                                   SitemapConfiguration config, MeterRegistry meterRegistry) {
         this.objectStorageProvider = objectStorageProvider;
+        this.s3Provider = s3Provider;
+        this.manifestService = manifestService;
+        if (config.getReadCacheSize() > 0) {
+            LOG.info("Caching served files up to {} KB, maximum size {} MB", MAX_CACHED_FILE_SIZE / KB,
+                    config.getReadCacheSize());
+            this.fileCache = new SitemapFileCache((long) config.getReadCacheSize() * MB, meterRegistry);
+        } else {
+            this.fileCache = null;
+        }
+        // files of the previously active deployment will be deleted, so we shouldn't serve them anymore
+        deploymentService.addSwitchListener(this::invalidate);
+    }
+
+    private void invalidate(SitemapType type) {
+        String fileNamePrefix = type.getFileNameBase() + Constants.DASH;
+        metadataCache.keySet().removeIf(fileName -> fileName.startsWith(fileNamePrefix));
+        versionCache.keySet().removeIf(fileName -> fileName.startsWith(fileNamePrefix));
+        if (fileCache != null) {
+            fileCache.invalidate(fileNamePrefix);
+        }
     }
 
     /**
@@ -85,10 +137,71 @@ public class ReadSitemapServiceImpl implements ReadSitemapService {
      */
     @Override
     public InputStream getFileAsStream(String fileName) throws SiteMapNotFoundException {
+        if (fileCache != null && getFileMetadata(fileName).getSize() <= MAX_CACHED_FILE_SIZE) {
+            return new ByteArrayInputStream(fileCache.get(fileName, this::readFile));
+        }
+        return getObjectStream(fileName);
+    }
+
+    /**
+     * @see ReadSitemapService#getFileMetadata(String)
+     */
+    @Override
+    public SitemapFileMetadata getFileMetadata(String fileName) throws SiteMapNotFoundException {
+        SitemapFileMetadata result = metadataCache.get(fileName);
+        if (result == null) {
+            try {
+                ObjectMetadata metadata = s3Provider.getClient().getObjectMetadata(s3Provider.getBucket(), fileName);
+                result = new SitemapFileMetadata(metadata.getETag(), metadata.getLastModified().getTime(),
+                        metadata.getContentLength());
+            } catch (AmazonS3Exception e) {
+                if (e.getStatusCode() == HTTP_NOT_FOUND) {
+                    throw new SiteMapNotFoundException("File " + fileName + " not found!");
+                }
+                throw e;
+            }
+            metadataCache.put(fileName, result);
+        }
+        return result;
+    }
+
+    /**
+     * @see ReadSitemapService#getFileVersion(SitemapType, Deployment, String)
+     */
+    @Override
+    public String getFileVersion(SitemapType type, Deployment deployment, String fileName) {
+        String manifestFileName = StorageFileName.getManifestFileName(type, deployment);
+        Map<String, String> versions = versionCache.get(manifestFileName);
+        if (versions == null) {
+            versions = new HashMap<>();
+            SitemapManifest manifest = manifestService.getManifest(type, deployment);
+            if (manifest == null) {
+                LOG.warn("No manifest found for {} deployment {}, sitemap file versions are unknown", type, deployment);
+            } else {
+                for (SitemapManifest.File file : manifest.getFiles()) {
+                    if (file.getVersion() != null) {
+                        versions.put(file.getName(), file.getVersion());
+                    }
+                }
+            }
+            versionCache.put(manifestFileName, versions);
+        }
+        return versions.get(fileName);
+    }
+
+    private InputStream getObjectStream(String fileName) throws SiteMapNotFoundException {
         InputStream result = objectStorageProvider.getObjectStream(fileName);
         if (result == null) {
             throw new SiteMapNotFoundException("File " + fileName + " not found!");
         }
         return result;
     }
+
+    private byte[] readFile(String fileName) throws SiteMapNotFoundException {
+        try (InputStream in = getObjectStream(fileName)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading file " + fileName, e);
+        }
+    }
 }
@@ -0,0 +1,126 @@
+package eu.europeana.sitemap.service;
+
+import com.amazonaws.HttpMethod;
+import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
+import com.amazonaws.services.s3.model.ResponseHeaderOverrides;
+import eu.europeana.sitemap.Constants;
+import eu.europeana.sitemap.SitemapType;
+import eu.europeana.sitemap.config.SitemapConfiguration;
+import eu.europeana.sitemap.s3.S3Provider;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Generates urls from which clients can download sitemap files directly, so we can redirect requests instead of
+ * sending the file contents ourselves. Depending on configuration this is either a CDN url or a presigned S3 url.
+ *
+ * Presigned urls are reused until a quarter of their validity is left, so most requests for the same file get the same
+ * url and we don't need to sign each request.
+ *
+ * Blue/green deployments reuse the same file names every other update, so CDN urls include the version of the file
+ * contents (its ETag) as a query parameter. This way a CDN never serves an outdated file, as long as it includes the
+ * query string in its cache key.
+ */
+@Service
+public class RedirectUrlService {
+
+    private static final Logger LOG = LogManager.getLogger(RedirectUrlService.class);
+
+    private static final String GZIP_ENCODING = "gzip";
+    private static final String VERSION_PARAM = "?v=";
+    private static final long MS_PER_SEC = 1000;
+    private static final int MIN_REMAINING_VALIDITY_DIVISOR = 4;
+
+    private final S3Provider s3Provider;
+    private final boolean enabled;
+    private final String cdnUrl;
+    private final long expiryMs;
+    private final Map<String, PresignedUrl> presignedUrls = new ConcurrentHashMap<>();
+
+    /**
+     * Presigned url and the time it expires
+     */
+    private static final class PresignedUrl {
+        private final URI url;
+        private final long expires;
+
+        private PresignedUrl(URI url, long expires) {
+            this.url = url;
+            this.expires = expires;
+        }
+    }
+
+    @Autowired
+    public RedirectUrlService(S3Provider s3Provider, ActiveDeploymentService deploymentService,
+                              SitemapConfiguration config) {
+        this.s3Provider = s3Provider;
+        this.enabled = config.isRedirectEnabled();
+        this.cdnUrl = StringUtils.removeEnd(StringUtils.trimToNull(config.getRedirectCdnUrl()), "/");
+        this.expiryMs = config.getRedirectUrlExpiry() * MS_PER_SEC;
+        if (enabled) {
+            LOG.info("Redirecting requests for sitemap files to {}", cdnUrl == null ? "presigned urls" : cdnUrl);
+        }
+        // urls of files that are replaced won't be requested again soon, so we can drop them
+        deploymentService.addSwitchListener(this::invalidate);
+    }
+
+    /**
+     * @return true if requests for sitemap files should be redirected, otherwise false
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Return the url from which a file can be downloaded directly
+     * @param fileName name of the file in storage
+     * @param version version of the file contents (e.g. the ETag of the stored file), this is added to CDN urls
+     * @param gzipEncoded if true, the file is gzip-compressed and should be sent with a Content-Encoding: gzip header.
+     *                    This should always be the same for the same file.
+     * @return url of the file
+     */
+    public URI getUrl(String fileName, String version, boolean gzipEncoded) {
+        if (cdnUrl != null) {
+            return URI.create(cdnUrl + "/" + URLEncoder.encode(fileName, StandardCharsets.UTF_8)
+                    + VERSION_PARAM + URLEncoder.encode(version, StandardCharsets.UTF_8));
+        }
+        long now = System.currentTimeMillis();
+        PresignedUrl cached = presignedUrls.get(fileName);
+        if (cached == null || cached.expires - now < expiryMs / MIN_REMAINING_VALIDITY_DIVISOR) {
+            cached = presign(fileName, gzipEncoded, now + expiryMs);
+            presignedUrls.put(fileName, cached);
+        }
+        return cached.url;
+    }
+
+    private PresignedUrl presign(String fileName, boolean gzipEncoded, long expires) {
+        GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(s3Provider.getBucket(), fileName,
+                HttpMethod.GET).withExpiration(new Date(expires));
+        if (gzipEncoded) {
+            // older files are stored without Content-Encoding header
+            request.setResponseHeaders(new ResponseHeaderOverrides().withContentEncoding(GZIP_ENCODING));
+        }
+        try {
+            LOG.debug("Generating presigned url for file {}", fileName);
+            return new PresignedUrl(s3Provider.getClient().generatePresignedUrl(request).toURI(), expires);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Invalid presigned url for file " + fileName, e);
+        }
+    }
+
+    private void invalidate(SitemapType type) {
+        String fileNamePrefix = type.getFileNameBase() + Constants.DASH;
+        presignedUrls.keySet().removeIf(fileName -> fileName.startsWith(fileNamePrefix));
+    }
+}
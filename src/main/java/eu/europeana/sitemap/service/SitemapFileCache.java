@@ -0,0 +1,197 @@
+package eu.europeana.sitemap.service;
+
+import eu.europeana.sitemap.exceptions.SiteMapNotFoundException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size-bounded cache of the contents of sitemap files, keyed by file name (in storage). When the cache is full the
+ * least recently used files are evicted. If several requests for the same file miss the cache at the same time, the
+ * file is loaded only once and all requests get the loaded contents.
+ *
+ * Cache statistics are available as actuator metrics (cache.gets, cache.evictions, cache.load.duration and cache.size
+ * with tag cache=sitemap-files), so the hit ratio is cache.gets with result=hit divided by all cache.gets.
+ */
+final class SitemapFileCache {
+
+    /**
+     * Loads the contents of a file that is not in the cache
+     */
+    @FunctionalInterface
+    interface Loader {
+        byte[] load(String fileName) throws SiteMapNotFoundException;
+    }
+
+    private static final Logger LOG = LogManager.getLogger(SitemapFileCache.class);
+
+    private static final String CACHE_TAG = "cache";
+    private static final String CACHE_NAME = "sitemap-files";
+    private static final String RESULT_TAG = "result";
+
+    private final long maxBytes;
+    // access-ordered, so iteration starts at the least recently used file
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<byte[]>> loading = new ConcurrentHashMap<>();
+    private long sizeBytes;
+    // increased on each invalidation, so files that were being loaded at that time aren't cached
+    private long generation;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private final Timer loadDuration;
+
+    /**
+     * Create a new cache
+     * @param maxBytes maximum total size of all cached files
+     * @param registry registry to which the cache meters are added
+     */
+    SitemapFileCache(long maxBytes, MeterRegistry registry) {
+        this.maxBytes = maxBytes;
+        this.hits = Counter.builder("cache.gets")
+                .description("Number of requested files that were in the cache")
+                .tag(CACHE_TAG, CACHE_NAME)
+                .tag(RESULT_TAG, "hit")
+                .register(registry);
+        this.misses = Counter.builder("cache.gets")
+                .description("Number of requested files that had to be loaded")
+                .tag(CACHE_TAG, CACHE_NAME)
+                .tag(RESULT_TAG, "miss")
+                .register(registry);
+        this.evictions = Counter.builder("cache.evictions")
+                .description("Number of files evicted because the cache was full")
+                .tag(CACHE_TAG, CACHE_NAME)
+                .register(registry);
+        this.loadDuration = Timer.builder("cache.load.duration")
+                .description("Time spent loading files that were not in the cache")
+                .tag(CACHE_TAG, CACHE_NAME)
+                .register(registry);
+        Gauge.builder("cache.size", this, SitemapFileCache::getNrFiles)
+                .description("Number of files in the cache")
+                .tag(CACHE_TAG, CACHE_NAME)
+                .register(registry);
+        Gauge.builder("cache.size.bytes", this, SitemapFileCache::getSizeBytes)
+                .description("Total size of the files in the cache")
+                .tag(CACHE_TAG, CACHE_NAME)
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Return the contents of a file from the cache, or load them if they are not cached yet
+     * @param fileName name of the file in storage
+     * @param loader loads the file if it's not in the cache
+     * @return contents of the file, callers should not modify them
+     * @throws SiteMapNotFoundException if the file doesn't exist (this is not cached)
+     */
+    byte[] get(String fileName, Loader loader) throws SiteMapNotFoundException {
+        byte[] result = getIfPresent(fileName);
+        if (result != null) {
+            hits.increment();
+            return result;
+        }
+        misses.increment();
+
+        CompletableFuture<byte[]> load = new CompletableFuture<>();
+        CompletableFuture<byte[]> inProgress = loading.putIfAbsent(fileName, load);
+        if (inProgress != null) {
+            return await(inProgress);
+        }
+        try {
+            // another request may have loaded the file just before we started loading
+            result = getIfPresent(fileName);
+            if (result == null) {
+                long loadGeneration = getGeneration();
+                long start = System.nanoTime();
+                result = loader.load(fileName);
+                loadDuration.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                put(fileName, result, loadGeneration);
+            }
+            load.complete(result);
+            return result;
+        } catch (SiteMapNotFoundException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(fileName, load);
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> load) throws SiteMapNotFoundException {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SiteMapNotFoundException notFound) {
+                throw notFound;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    private synchronized byte[] getIfPresent(String fileName) {
+        return entries.get(fileName);
+    }
+
+    private synchronized long getGeneration() {
+        return generation;
+    }
+
+    private synchronized void put(String fileName, byte[] contents, long loadGeneration) {
+        if (loadGeneration != generation || contents.length > maxBytes) {
+            return;
+        }
+        byte[] previous = entries.put(fileName, contents);
+        sizeBytes += contents.length - (previous == null ? 0 : previous.length);
+        Iterator<Map.Entry<String, byte[]>> leastRecentlyUsed = entries.entrySet().iterator();
+        while (sizeBytes > maxBytes) {
+            Map.Entry<String, byte[]> evicted = leastRecentlyUsed.next();
+            sizeBytes -= evicted.getValue().length;
+            leastRecentlyUsed.remove();
+            evictions.increment();
+            LOG.debug("Evicted file {} from cache", evicted.getKey());
+        }
+    }
+
+    /**
+     * Remove all files with a name that starts with the provided prefix. Files that are being loaded while this
+     * happens are not cached.
+     * @param fileNamePrefix prefix of the files to remove
+     */
+    synchronized void invalidate(String fileNamePrefix) {
+        generation++;
+        int removed = 0;
+        Iterator<Map.Entry<String, byte[]>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, byte[]> entry = iterator.next();
+            if (entry.getKey().startsWith(fileNamePrefix)) {
+                sizeBytes -= entry.getValue().length;
+                iterator.remove();
+                removed++;
+            }
+        }
+        LOG.info("Removed {} files starting with {} from cache", removed, fileNamePrefix);
+    }
+
+    synchronized int getNrFiles() {
+        return entries.size();
+    }
+
+    synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+}
@@ -0,0 +1,35 @@
+package eu.europeana.sitemap.service;
+
+/**
+ * Metadata of a stored sitemap file, used for answering conditional and HEAD requests without reading the file
+ */
+public final class SitemapFileMetadata {
+
+    private final String eTag;
+    private final long lastModified;
+    private final long size;
+
+    /**
+     * Create new metadata
+     * @param eTag ETag of the stored file (without quotes)
+     * @param lastModified time the file was stored, in milliseconds since epoch
+     * @param size size of the stored file in bytes
+     */
+    public SitemapFileMetadata(String eTag, long lastModified, long size) {
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.size = size;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,273 @@
+package eu.europeana.sitemap.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import eu.europeana.sitemap.SitemapType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes all sitemap files of a deployment. For each file we keep track of the range of items it contains and a
+ * hash of its (uncompressed) contents, so a next update can determine which files need to be regenerated and which
+ * ones can be reused. The same format is used for checkpoints, listing the files saved so far by a generation that is
+ * still in progress.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SitemapManifest {
+
+    private SitemapType type;
+    private Deployment deployment;
+    private boolean gzip;
+    private String order;
+    private String filter;
+    private long started;
+    private long lastFullRun;
+    private boolean incremental;
+    private List<File> files = new ArrayList<>();
+
+    /**
+     * @return sitemap type (record or entity)
+     */
+    public SitemapType getType() {
+        return type;
+    }
+
+    public void setType(SitemapType type) {
+        this.type = type;
+    }
+
+    /**
+     * @return deployment (blue or green) to which the files belong
+     */
+    public Deployment getDeployment() {
+        return deployment;
+    }
+
+    public void setDeployment(Deployment deployment) {
+        this.deployment = deployment;
+    }
+
+    /**
+     * @return true if the files are gzip-compressed
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * @return name of the field by which items are ordered (e.g. about), null if items are not ordered
+     */
+    public String getOrder() {
+        return order;
+    }
+
+    public void setOrder(String order) {
+        this.order = order;
+    }
+
+    /**
+     * @return description of the filters with which items were selected (e.g. the content and metadata tiers), null
+     * if not known. Files can only be reused by an update that uses the same filters
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @return time (in ms since epoch) when gathering data for this deployment started
+     */
+    public long getStarted() {
+        return started;
+    }
+
+    public void setStarted(long started) {
+        this.started = started;
+    }
+
+    /**
+     * @return time (in ms since epoch) when the last update that regenerated all files started
+     */
+    public long getLastFullRun() {
+        return lastFullRun;
+    }
+
+    public void setLastFullRun(long lastFullRun) {
+        this.lastFullRun = lastFullRun;
+    }
+
+    /**
+     * @return true if the files were generated by an incremental update (which only regenerated the files with
+     * changed items), false if all files were regenerated
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return all sitemap files, in the order in which they are listed in the sitemap index
+     */
+    public List<File> getFiles() {
+        return files;
+    }
+
+    public void setFiles(List<File> files) {
+        this.files = files;
+    }
+
+    /**
+     * Information about a single sitemap file
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class File {
+
+        private static final int VERSION_LENGTH = 16;
+
+        private String name;
+        private String section;
+        private long from;
+        private long to;
+        private String firstKey;
+        private String lastKey;
+        private String hash;
+        private long lastModified;
+        private long size;
+
+        /**
+         * Required for deserialization
+         */
+        public File() {
+            // empty constructor
+        }
+
+        /**
+         * Create new file information
+         * @param name name of the file in storage
+         * @param section section the file belongs to, can be null
+         * @param from number of the first item in the file
+         * @param to number of the last item in the file
+         * @param firstKey key (e.g. record id) of the first item in the file
+         * @param lastKey key of the last item in the file
+         * @param hash hash of the uncompressed file contents
+         * @param lastModified time (in ms since epoch) when the contents of the file last changed
+         */
+        public File(String name, String section, long from, long to, String firstKey, String lastKey, String hash,
+                    long lastModified) {
+            this.name = name;
+            this.section = section;
+            this.from = from;
+            this.to = to;
+            this.firstKey = firstKey;
+            this.lastKey = lastKey;
+            this.hash = hash;
+            this.lastModified = lastModified;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getSection() {
+            return section;
+        }
+
+        public void setSection(String section) {
+            this.section = section;
+        }
+
+        public long getFrom() {
+            return from;
+        }
+
+        public void setFrom(long from) {
+            this.from = from;
+        }
+
+        public long getTo() {
+            return to;
+        }
+
+        public void setTo(long to) {
+            this.to = to;
+        }
+
+        /**
+         * @return the number of items in this file
+         */
+        @JsonIgnore
+        public long getNrItems() {
+            return to - from + 1;
+        }
+
+        public String getFirstKey() {
+            return firstKey;
+        }
+
+        public void setFirstKey(String firstKey) {
+            this.firstKey = firstKey;
+        }
+
+        public String getLastKey() {
+            return lastKey;
+        }
+
+        public void setLastKey(String lastKey) {
+            this.lastKey = lastKey;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public void setHash(String hash) {
+            this.hash = hash;
+        }
+
+        /**
+         * @return version of the file contents as used in the public url of the file (the start of the hash), or null
+         * if the hash is unknown
+         */
+        @JsonIgnore
+        public String getVersion() {
+            return (hash == null ? null : hash.substring(0, Math.min(VERSION_LENGTH, hash.length())));
+        }
+
+        /**
+         * @return time (in ms since epoch) when the contents of the file last changed, 0 if unknown
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return size of the stored (possibly compressed) file in bytes, 0 if unknown
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+    }
+}
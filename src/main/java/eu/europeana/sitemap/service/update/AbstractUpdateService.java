@@ -1,24 +1,33 @@
 package eu.europeana.sitemap.service.update;
 
-import eu.europeana.features.S3ObjectStorageClient;
 import eu.europeana.sitemap.SitemapType;
+import eu.europeana.sitemap.StorageFileName;
+import eu.europeana.sitemap.config.SitemapConfiguration;
 import eu.europeana.sitemap.exceptions.SiteMapException;
 import eu.europeana.sitemap.exceptions.UpdateAlreadyInProgressException;
 import eu.europeana.sitemap.service.ActiveDeploymentService;
 import eu.europeana.sitemap.service.Deployment;
+import eu.europeana.sitemap.service.ManifestService;
+import eu.europeana.sitemap.service.SitemapManifest;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.joda.time.Period;
 
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Abstract class with basic functionality for updating a sitemap. This consists of several steps:
  * <ol>
  *     <li>Get the inactive deployment</li>
- *     <li>Delete all inactive sitemap files</li>
+ *     <li>Delete all inactive sitemap files, i.e. the files of the deployment that was active before the previous
+ *     update (unless a previous generation to the inactive deployment didn't finish and can be resumed from its
+ *     checkpoint)</li>
  *     <li>Generate new sitemap files (the actual data should be produced by an implementing class)</li>
- *     <li>Finish the generation (close and save open files)</li>
+ *     <li>Finish the generation (close and save open files and a manifest listing all files)</li>
  *     <li>Switch the active deployment</li>
  *     <li>Notify search engines (if the index file has changed)</li>
  * </ol>
@@ -29,22 +38,32 @@ public abstract class AbstractUpdateService implements UpdateService {
 
     private static final String UPDATE_IN_PROGRESS = "In progress";
     private static final String UPDATE_FINISHED = "Finished";
+    // checkpoints older than this are ignored, the data of the saved files is too outdated
+    private static final long CHECKPOINT_MAX_AGE_MS = TimeUnit.DAYS.toMillis(7);
+    private static final int MAX_REPORTED_PROBLEMS = 10;
 
     private final SitemapType sitemapType;
-    private final S3ObjectStorageClient objectStorage;
+    private final SitemapFileSink fileSink;
     private final ActiveDeploymentService deploymentService;
     private final MailService mailService;
+    private final ManifestService manifestService;
+    private final SitemapConfiguration config;
     private final int itemsPerSitemap;
 
     private String updateStatus = "initial";
     private Date updateStartTime;
+    private SitemapManifest previousManifest;
+    private SitemapManifest resumedCheckpoint;
 
-    protected AbstractUpdateService(SitemapType type, S3ObjectStorageClient objectStorage, ActiveDeploymentService deploymentService,
-                                    MailService mailService, int itemsPerSitemap) {
+    protected AbstractUpdateService(SitemapType type, SitemapFileSink fileSink, ActiveDeploymentService deploymentService,
+                                    MailService mailService, ManifestService manifestService,
+                                    SitemapConfiguration config, int itemsPerSitemap) {
         this.sitemapType = type;
-        this.objectStorage = objectStorage;
+        this.fileSink = fileSink;
         this.deploymentService = deploymentService;
         this.mailService = mailService;
+        this.manifestService = manifestService;
+        this.config = config;
         this.itemsPerSitemap = itemsPerSitemap;
     }
 
@@ -52,32 +71,45 @@ public abstract class AbstractUpdateService implements UpdateService {
      * Start the sitemap update process;
      */
     public void update() throws SiteMapException {
+        update(this::generate);
+    }
+
+    /**
+     * Start the sitemap update process, generating the files in a different way than generate(SitemapGenerator) does
+     * (e.g. regenerating only part of the sitemap)
+     * @param generation generates the sitemap files
+     * @throws SiteMapException when there is an error during the update process
+     */
+    protected void update(Generation generation) throws SiteMapException {
         setUpdateInProgress();
+        // each update has its own budget for failed storage operations
+        config.storageRetryPolicy().startRun();
         try {
-            // 1. Get inactive deployment
+            // 1. Get inactive deployment (and the manifest of the active one)
+            Deployment active = deploymentService.getActiveDeployment(sitemapType);
             Deployment inactive = deploymentService.getInactiveDeployment(sitemapType);
             LOG.info("Inactive deployment is {}", inactive);
+            previousManifest = manifestService.getManifest(sitemapType, active);
+            resumedCheckpoint = getCheckpoint(inactive);
 
-            // 2. Delete inactive files
-            deploymentService.deleteInactiveFiles(sitemapType);
+            // 2. Delete inactive files, i.e. the files of the deployment that was active before the previous update
+            // (this includes any checkpoint we can't use)
+            if (resumedCheckpoint == null) {
+                deploymentService.deleteInactiveFiles(sitemapType);
+            } else {
+                LOG.info("Resuming {} sitemap generation from checkpoint listing {} files", sitemapType,
+                        resumedCheckpoint.getFiles().size());
+            }
 
             // 3. Generate new files
-            SitemapGenerator generator = new SitemapGenerator(sitemapType, objectStorage);
-            generator.init(inactive, this.getWebsiteBaseUrl(), itemsPerSitemap);
-            long generateStartTime = System.currentTimeMillis();
-            this.generate(generator);
+            Map<String, Long> storedFiles = generateFiles(inactive, generation);
 
-            // 4. Finish generation
-            generator.finish();
-            if (LOG.isInfoEnabled()) {
-                LOG.info("{} sitemap generation completed in {}", sitemapType,
-                        getDurationText(System.currentTimeMillis() - generateStartTime));
-            }
-
-            // 5. Switch deployment
+            // 5. Verify that all files are stored and switch deployment
+            verifyFiles(inactive, storedFiles);
             LOG.debug("Switching deployment...");
             Deployment newDeploy = deploymentService.switchDeployment(sitemapType);
             LOG.info("New deployment is now {}", newDeploy);
+            // files of the previous deployment are kept until the next update, see step 2
 
         } catch (SiteMapException | RuntimeException e) {
             String message = "Error updating " + sitemapType + " sitemap";
@@ -89,11 +121,178 @@ public abstract class AbstractUpdateService implements UpdateService {
         }
     }
 
+    /**
+     * Read the checkpoint of a previous generation to the inactive deployment and check if we can resume it
+     * @return the checkpoint, or null if there is none or it can't be used
+     */
+    private SitemapManifest getCheckpoint(Deployment inactive) {
+        if (getCheckpointInterval() <= 0) {
+            return null;
+        }
+        SitemapManifest result = manifestService.getCheckpoint(sitemapType, inactive);
+        if (result == null) {
+            return null;
+        }
+        String reason = null;
+        if (result.getType() != sitemapType || result.getDeployment() != inactive || result.getFiles().isEmpty()) {
+            reason = "it doesn't list any files of the inactive deployment";
+        } else if (result.isGzip() != config.isGenerateGzip()) {
+            reason = "the gzip setting changed";
+        } else if (previousManifest != null && result.getStarted() <= previousManifest.getStarted()) {
+            reason = "it's older than the active deployment";
+        } else if (System.currentTimeMillis() - result.getStarted() > CHECKPOINT_MAX_AGE_MS) {
+            reason = "it's too old";
+        } else if (!canResume(result)) {
+            reason = "the generation settings changed";
+        }
+        if (reason != null) {
+            LOG.info("Not resuming {} sitemap generation from checkpoint, {}", sitemapType, reason);
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Generate and save all sitemap files. If configured, finished files are saved in the background
+     * @return names of the index and all sitemap files, with their stored size in bytes
+     */
+    private Map<String, Long> generateFiles(Deployment inactive, Generation generation)
+            throws SiteMapException {
+        int maxUploads = config.getGenerateUploadConcurrency();
+        try (AsyncFileSink asyncSink = (maxUploads > 0 ? new AsyncFileSink(fileSink, maxUploads) : null)) {
+            SitemapGenerator generator = new SitemapGenerator(sitemapType, (asyncSink == null ? fileSink : asyncSink),
+                    config.isGenerateGzip());
+            generator.init(inactive, this.getWebsiteBaseUrl(), itemsPerSitemap);
+            generator.setPreviousManifest(previousManifest);
+            generator.setVersionedUrls(config.isGenerateVersionedUrls());
+            long generateStartTime = System.currentTimeMillis();
+            // a resumed generation keeps its original start time, so the next update also picks up data that changed
+            // while it was interrupted
+            long dataStartTime = (resumedCheckpoint == null ? generateStartTime : resumedCheckpoint.getStarted());
+            if (resumedCheckpoint != null) {
+                generator.resume(resumedCheckpoint);
+            }
+            int checkpointInterval = getCheckpointInterval();
+            if (checkpointInterval > 0) {
+                generator.setCheckpointHandler(checkpointInterval, files -> saveCheckpoint(inactive, dataStartTime, files));
+            }
+            generation.generate(generator);
+
+            // 4. Finish generation
+            generator.finish();
+            saveManifest(generator, dataStartTime);
+            if (checkpointInterval > 0) {
+                manifestService.deleteCheckpoint(sitemapType, inactive);
+            }
+            if (LOG.isInfoEnabled()) {
+                LOG.info("{} sitemap generation completed in {}", sitemapType,
+                        getDurationText(System.currentTimeMillis() - generateStartTime));
+            }
+            Map<String, Long> result = new LinkedHashMap<>();
+            result.put(StorageFileName.getSitemapIndexFileName(sitemapType, inactive), generator.getIndexSize());
+            for (SitemapManifest.File file : generator.getFiles()) {
+                result.put(file.getName(), file.getSize());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Check that the index and all sitemap files are stored (with the expected size), so we never make an incomplete
+     * deployment active
+     */
+    private void verifyFiles(Deployment inactive, Map<String, Long> expectedFiles) throws SiteMapException {
+        List<String> problems = deploymentService.verifyInactiveFiles(sitemapType, expectedFiles);
+        if (!problems.isEmpty()) {
+            throw new SiteMapException("Not switching to " + inactive + " deployment, " + problems.size()
+                    + " files are not stored correctly: "
+                    + String.join("; ", problems.subList(0, Math.min(problems.size(), MAX_REPORTED_PROBLEMS))));
+        }
+    }
+
+    /**
+     * Save a manifest listing all generated files, so the next update can compare its files with these ones
+     */
+    private void saveManifest(SitemapGenerator generator, long generateStartTime) {
+        SitemapManifest manifest = createManifest(generator.getDeployment(), generateStartTime, generator.getFiles());
+        if (!manifestService.saveManifest(manifest)) {
+            LOG.warn("Unable to save {} sitemap manifest, next update can't reuse files", sitemapType);
+        }
+    }
+
+    /**
+     * Save a checkpoint listing the files generated so far, so generation can be resumed if it doesn't finish
+     */
+    private void saveCheckpoint(Deployment deployment, long generateStartTime, List<SitemapManifest.File> files) {
+        if (!manifestService.saveCheckpoint(createManifest(deployment, generateStartTime, files))) {
+            LOG.warn("Unable to save {} sitemap checkpoint", sitemapType);
+        }
+    }
+
+    private SitemapManifest createManifest(Deployment deployment, long generateStartTime,
+                                           List<SitemapManifest.File> files) {
+        SitemapManifest result = new SitemapManifest();
+        result.setType(sitemapType);
+        result.setDeployment(deployment);
+        result.setGzip(config.isGenerateGzip());
+        result.setStarted(generateStartTime);
+        result.setFiles(files);
+        this.completeManifest(result);
+        return result;
+    }
+
     /**
      * Do the actual sitemap generation.
      */
     protected abstract void generate(SitemapGenerator sitemapGenerator) throws SiteMapException;
 
+    /**
+     * Generates the files of a sitemap (or part of it) with the provided generator
+     */
+    @FunctionalInterface
+    protected interface Generation {
+        void generate(SitemapGenerator sitemapGenerator) throws SiteMapException;
+    }
+
+    /**
+     * Called when all files are generated and saved, just before the manifest of the new deployment is saved. Also
+     * called before a checkpoint is saved. By default this does nothing.
+     * @param manifest the manifest (or checkpoint) that will be saved
+     */
+    protected void completeManifest(SitemapManifest manifest) {
+        // nothing to add
+    }
+
+    /**
+     * @return the manifest of the active deployment (read at the start of the update), null if there is none
+     */
+    protected SitemapManifest getPreviousManifest() {
+        return previousManifest;
+    }
+
+    /**
+     * @return number of sitemap files after which a checkpoint is saved, 0 if generation can't be resumed (default)
+     */
+    protected int getCheckpointInterval() {
+        return 0;
+    }
+
+    /**
+     * Check if the current settings allow continuing a generation from its checkpoint. By default this returns false.
+     * @param checkpoint checkpoint of a previous generation to the inactive deployment that didn't finish
+     * @return true if generation can continue after the last file in the checkpoint
+     */
+    protected boolean canResume(SitemapManifest checkpoint) {
+        return false;
+    }
+
+    /**
+     * @return the checkpoint from which the current generation was resumed, null if it started from scratch
+     */
+    protected SitemapManifest getResumedCheckpoint() {
+        return resumedCheckpoint;
+    }
+
     /**
      * @return the baseUrl where sitemap files can be retrieved by search engines (for saving this info in sitemap index)
      */
@@ -0,0 +1,332 @@
+package eu.europeana.sitemap.service.update;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sink that saves sitemap files in the background, so generating the next file doesn't have to wait until the
+ * previous one is saved. Closing a file (which is when the underlying sink saves it) is handed over to a pool of
+ * upload threads. If the underlying sink saves files in parts while they are written (see getPartSize()), writing each
+ * part is handed over as well, so the generating thread never waits for a part upload either.
+ *
+ * The number of uploads (files, parts and copies) in progress at the same time is limited. When that limit is reached,
+ * closing a file or filling a part blocks until one of the ongoing uploads is done.
+ *
+ * Create a new AsyncFileSink for each sitemap update and close it when done.
+ */
+public class AsyncFileSink implements SitemapFileSink, AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(AsyncFileSink.class);
+
+    private final SitemapFileSink sink;
+    private final ExecutorService executor;
+    private final Semaphore uploadPermits;
+    private final List<Future<String>> uploads = new ArrayList<>();
+
+    /**
+     * Create a new asynchronous sink
+     * @param sink the sink that does the actual saving
+     * @param maxUploads maximum number of files that can be uploaded at the same time
+     */
+    public AsyncFileSink(SitemapFileSink sink, int maxUploads) {
+        if (maxUploads < 1) {
+            throw new IllegalArgumentException("Maximum number of uploads should be at least 1");
+        }
+        this.sink = sink;
+        this.uploadPermits = new Semaphore(maxUploads);
+        AtomicInteger threadNr = new AtomicInteger(0);
+        this.executor = Executors.newFixedThreadPool(maxUploads, runnable -> {
+            Thread t = new Thread(runnable, "sitemap-upload-" + threadNr.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public SitemapFileOutput open(String fileName) throws IOException {
+        checkUploads();
+        return new AsyncFileOutput(sink.open(fileName), sink.getPartSize());
+    }
+
+    /**
+     * Output stream that hands over saving the file to the upload threads. If the underlying sink saves files in parts,
+     * the data is collected in chunks of the part size and each full chunk is written to the underlying stream by an
+     * upload thread. The chunks of a file are written in order: each chunk waits until the previous one is written.
+     * Setting the final file name is deferred until the file is closed, so it happens after all chunks are written.
+     */
+    private final class AsyncFileOutput extends SitemapFileOutput {
+
+        private final SitemapFileOutput out;
+        private final int partSize;
+        private byte[] chunk;
+        private int chunkLength;
+        private Future<String> lastChunk;
+        private boolean discarded;
+        private boolean closed;
+
+        private AsyncFileOutput(SitemapFileOutput out, int partSize) {
+            super(out.getFileName());
+            this.out = out;
+            this.partSize = partSize;
+            this.chunk = (partSize > 0 ? new byte[partSize] : null);
+        }
+
+        @Override
+        public void setFileName(String fileName) {
+            super.setFileName(fileName);
+            if (chunk == null) {
+                out.setFileName(fileName);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (chunk == null) {
+                out.write(b);
+            } else if (!discarded) {
+                ensureOpen();
+                chunk[chunkLength++] = (byte) b;
+                if (chunkLength == chunk.length) {
+                    submitChunk();
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (chunk == null) {
+                out.write(b, off, len);
+                return;
+            }
+            if (!discarded) {
+                ensureOpen();
+            }
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0 && !discarded) {
+                int toCopy = Math.min(remaining, chunk.length - chunkLength);
+                System.arraycopy(b, offset, chunk, chunkLength, toCopy);
+                chunkLength += toCopy;
+                offset += toCopy;
+                remaining -= toCopy;
+                if (chunkLength == chunk.length) {
+                    submitChunk();
+                }
+            }
+        }
+
+        /**
+         * Chunks are only written when full, so there's nothing to flush in that case
+         */
+        @Override
+        public void flush() throws IOException {
+            if (chunk == null) {
+                out.flush();
+            }
+        }
+
+        /**
+         * Waits until all chunks that were handed over are written, so the underlying stream isn't used by 2 threads
+         * at the same time. A file of which a chunk failed is not discarded; closing it reports the error.
+         */
+        @Override
+        public boolean discard() {
+            if (chunk != null) {
+                try {
+                    waitFor(lastChunk);
+                } catch (IOException e) {
+                    LOG.debug("Not discarding file {}", getFileName(), e);
+                    return false;
+                }
+                chunkLength = 0;
+            }
+            discarded = out.discard();
+            return discarded;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (chunk == null) {
+                submitUpload(out);
+                return;
+            }
+            String fileName = getFileName();
+            byte[] data = chunk;
+            int length = chunkLength;
+            Future<String> previous = lastChunk;
+            LOG.debug("Queueing upload of file {}", fileName);
+            submit(fileName, () -> {
+                waitFor(previous);
+                out.setFileName(fileName);
+                out.write(data, 0, length);
+                out.close();
+                return fileName;
+            });
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("File " + getFileName() + " is already closed");
+            }
+        }
+
+        private void submitChunk() throws IOException {
+            Future<String> previous = lastChunk;
+            if (previous != null && previous.isDone()) {
+                // fail fast if writing the previous chunk failed
+                waitFor(previous);
+            }
+            byte[] data = chunk;
+            String fileName = getFileName();
+            LOG.debug("Queueing upload of {} bytes of file {}", data.length, fileName);
+            lastChunk = execute(fileName, () -> {
+                waitFor(previous);
+                out.write(data);
+                return fileName;
+            });
+            chunk = new byte[partSize];
+            chunkLength = 0;
+        }
+    }
+
+    private static void waitFor(Future<String> upload) throws IOException {
+        if (upload == null) {
+            return;
+        }
+        try {
+            upload.get();
+        } catch (ExecutionException e) {
+            throw toIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for upload", e);
+        }
+    }
+
+    private void submitUpload(SitemapFileOutput out) throws IOException {
+        LOG.debug("Queueing upload of file {}", out.getFileName());
+        submit(out.getFileName(), () -> {
+            out.close();
+            return out.getFileName();
+        });
+    }
+
+    /**
+     * Copy the file in the background. Copies count towards the maximum number of concurrent uploads.
+     */
+    @Override
+    public void copy(String sourceFileName, String targetFileName) throws IOException {
+        checkUploads();
+        LOG.debug("Queueing copy of file {} to {}", sourceFileName, targetFileName);
+        submit(targetFileName, () -> {
+            sink.copy(sourceFileName, targetFileName);
+            return targetFileName;
+        });
+    }
+
+    private void submit(String fileName, Callable<String> upload) throws IOException {
+        Future<String> future = execute(fileName, upload);
+        synchronized (uploads) {
+            uploads.add(future);
+        }
+    }
+
+    /**
+     * Start an upload as soon as an upload thread is available, without keeping track of it. If there are already
+     * as many uploads in progress as there are upload threads, this blocks until one of them is done.
+     */
+    private Future<String> execute(String fileName, Callable<String> upload) throws IOException {
+        try {
+            uploadPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to upload file " + fileName, e);
+        }
+        try {
+            return executor.submit(() -> {
+                try {
+                    return upload.call();
+                } finally {
+                    uploadPermits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            uploadPermits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Wait until all files that were closed are saved
+     * @throws IOException when saving one of the files failed
+     */
+    @Override
+    public void awaitSaved() throws IOException {
+        List<Future<String>> toCheck;
+        synchronized (uploads) {
+            toCheck = new ArrayList<>(uploads);
+            uploads.clear();
+        }
+        for (Future<String> upload : toCheck) {
+            try {
+                LOG.debug("File {} saved", upload.get());
+            } catch (ExecutionException e) {
+                throw toIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for uploads to finish", e);
+            }
+        }
+    }
+
+    /**
+     * Fail fast if one of the uploads that finished so far failed
+     */
+    private void checkUploads() throws IOException {
+        synchronized (uploads) {
+            for (Future<String> upload : uploads) {
+                if (upload.isDone()) {
+                    try {
+                        upload.get();
+                    } catch (ExecutionException e) {
+                        throw toIOException(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while checking uploads", e);
+                    }
+                }
+            }
+            uploads.removeIf(Future::isDone);
+        }
+    }
+
+    private static IOException toIOException(ExecutionException e) {
+        if (e.getCause() instanceof IOException ioe) {
+            return ioe;
+        }
+        return new IOException("Error uploading file", e.getCause());
+    }
+
+    /**
+     * Stop all upload threads. Uploads that are still in progress are interrupted.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,143 @@
+package eu.europeana.sitemap.service.update;
+
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import eu.europeana.features.S3ObjectStorageClient;
+import eu.europeana.sitemap.s3.RetryPolicy;
+import eu.europeana.sitemap.s3.S3Provider;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sink that keeps the contents of a sitemap file in memory and saves the entire file to storage when it's complete.
+ *
+ * When direct access to the bucket is provided, files are copied server-side and a generated file that is identical to
+ * a previous file is discarded (and copied instead). Without direct access, copying a file means downloading and saving
+ * it again, so generated files are always saved.
+ */
+public class BufferedFileSink implements SitemapFileSink {
+
+    private static final Logger LOG = LogManager.getLogger(BufferedFileSink.class);
+
+    private static final String CONTENT_TYPE = "text/xml";
+
+    private final S3ObjectStorageClient objectStorage;
+    private final S3Provider s3;
+    private final RetryPolicy retryPolicy;
+
+    /**
+     * Create a new buffered sink without direct access to the bucket, that doesn't retry failed operations
+     * @param objectStorage interface to S3 file storage
+     */
+    public BufferedFileSink(S3ObjectStorageClient objectStorage) {
+        this(objectStorage, null, RetryPolicy.NONE);
+    }
+
+    /**
+     * Create a new buffered sink
+     * @param objectStorage interface to S3 file storage
+     * @param s3 direct access to the same storage, used for saving files without SDK retries and copying files
+     *           server-side. Can be null
+     * @param retryPolicy policy for retrying failed storage operations
+     */
+    public BufferedFileSink(S3ObjectStorageClient objectStorage, S3Provider s3, RetryPolicy retryPolicy) {
+        this.objectStorage = objectStorage;
+        this.s3 = s3;
+        this.retryPolicy = retryPolicy;
+    }
+
+    @Override
+    public SitemapFileOutput open(String fileName) {
+        return new SitemapFileOutput(fileName) {
+            private final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            private boolean closed;
+            private boolean discarded;
+
+            @Override
+            public void write(int b) {
+                contents.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                contents.write(b, off, len);
+            }
+
+            /**
+             * Only discards the file if it can be copied server-side, otherwise saving what we already have in
+             * memory is cheaper than copying
+             */
+            @Override
+            public boolean discard() {
+                if (s3 == null) {
+                    return false;
+                }
+                discarded = true;
+                contents.reset();
+                return true;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    if (!discarded) {
+                        saveToStorage(getFileName(), contents.toByteArray());
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public void copy(String sourceFileName, String targetFileName) throws IOException {
+        if (s3 != null) {
+            retryPolicy.execute("copy file " + sourceFileName + " to " + targetFileName, () ->
+                    s3.getClientWithoutRetries().copyObject(
+                            new CopyObjectRequest(s3.getBucket(), sourceFileName, s3.getBucket(), targetFileName)));
+            return;
+        }
+        byte[] contents = retryPolicy.execute("read file " + sourceFileName, () -> {
+            try (S3Object source = objectStorage.getObject(sourceFileName)) {
+                if (source == null) {
+                    throw new FileNotFoundException("File " + sourceFileName + " not found");
+                }
+                return source.getObjectContent().readAllBytes();
+            }
+        });
+        saveToStorage(targetFileName, contents);
+    }
+
+    /**
+     * Save a file, retrying according to the retry policy if that fails. We don't check here if the file exists
+     * afterwards; all files of a deployment are verified at once before the deployment is made active.
+     * @param contents UTF-8 encoded contents of the file, only decoded when there's no direct access to the bucket
+     */
+    private void saveToStorage(String key, byte[] contents) throws IOException {
+        LOG.debug("Saving file with key {} ({} bytes)", key, contents.length);
+        retryPolicy.execute("save file " + key, () -> {
+            String eTag;
+            if (s3 == null) {
+                eTag = objectStorage.putObject(key, new String(contents, StandardCharsets.UTF_8));
+            } else {
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentType(CONTENT_TYPE);
+                metadata.setContentLength(contents.length);
+                eTag = s3.getClientWithoutRetries().putObject(s3.getBucket(), key, new ByteArrayInputStream(contents),
+                        metadata).getETag();
+            }
+            if (StringUtils.isEmpty(eTag)) {
+                throw new IOException("No ETag returned when saving file " + key);
+            }
+            return eTag;
+        });
+    }
+}
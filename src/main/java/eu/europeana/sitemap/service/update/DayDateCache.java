@@ -0,0 +1,65 @@
+package eu.europeana.sitemap.service.update;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.TimeZone;
+
+/**
+ * Cache of UTF-8 encoded dates (yyyy-MM-dd) with day granularity, used for writing lastmod values. Records are not
+ * ordered by modification date, but most of them are modified on a limited number of days, so a small cache prevents
+ * formatting (and creating) a new date string for each item.
+ *
+ * The cache is direct-mapped on the day number, so a lookup never creates any objects. Dates are formatted in the
+ * default time zone, the same as DateFormatUtils does.
+ *
+ * This class is not thread-safe.
+ */
+final class DayDateCache {
+
+    private static final long MS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final int DEFAULT_SIZE = 4096; // a bit over 11 years
+
+    private final TimeZone timeZone;
+    private final int mask;
+    private final long[] days;
+    private final byte[][] dates;
+
+    /**
+     * Create a new cache for the default time zone
+     */
+    DayDateCache() {
+        this(TimeZone.getDefault(), DEFAULT_SIZE);
+    }
+
+    /**
+     * Create a new cache
+     * @param timeZone time zone used to determine the day of a timestamp
+     * @param size number of days that are cached, should be a power of 2
+     */
+    DayDateCache(TimeZone timeZone, int size) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Cache size should be a power of 2");
+        }
+        this.timeZone = timeZone;
+        this.mask = size - 1;
+        this.days = new long[size];
+        this.dates = new byte[size][];
+    }
+
+    /**
+     * Return the encoded date of the provided timestamp
+     * @param epochMillis timestamp in milliseconds since epoch
+     * @return UTF-8 encoded date in yyyy-MM-dd format, do not modify the returned array!
+     */
+    byte[] get(long epochMillis) {
+        long day = Math.floorDiv(epochMillis + timeZone.getOffset(epochMillis), MS_PER_DAY);
+        int slot = (int) (day & mask);
+        byte[] result = dates[slot];
+        if (result == null || days[slot] != day) {
+            result = LocalDate.ofEpochDay(day).toString().getBytes(StandardCharsets.UTF_8);
+            days[slot] = day;
+            dates[slot] = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,178 @@
+package eu.europeana.sitemap.service.update;
+
+import eu.europeana.sitemap.config.SitemapConfiguration;
+import eu.europeana.sitemap.exceptions.EntityQueryException;
+import eu.europeana.sitemap.exceptions.InvalidApiKeyException;
+import eu.europeana.sitemap.exceptions.SiteMapException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Client for retrieving pages of search results from the Entity API. Requests are sent asynchronously, using HTTP/2
+ * when the server supports it, and connections are kept alive and reused by the underlying JDK HttpClient (idle
+ * connections are closed after jdk.httpclient.keepalive.timeout seconds). Responses are requested gzip-compressed.
+ *
+ * When retrieving a page fails because of a network error, a timeout, throttling or a server error, only that page
+ * is requested again after a backoff (with full jitter), so a single failing request doesn't abort the entire update.
+ * All requests are GET requests, so retrying them is safe.
+ */
+public class EntityApiClient {
+
+    /** Cursor to request the first page of results when using cursor pagination **/
+    public static final String FIRST_CURSOR = "*";
+
+    private static final Logger LOG = LogManager.getLogger(EntityApiClient.class);
+
+    private static final String GZIP = "gzip";
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_UNAUTHORIZED = 401;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVER_ERROR = 500;
+    private static final int MAX_BACKOFF_SHIFT = 20;
+
+    private final SitemapConfiguration config;
+    private final HttpClient httpClient;
+    private final Duration readTimeout;
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+
+    /**
+     * Create a new client. The Entity API url and key are read from the configuration for each request.
+     * @param config sitemap configuration
+     */
+    public EntityApiClient(SitemapConfiguration config) {
+        this.config = config;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(config.getEntityApiConnectTimeout()))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.readTimeout = Duration.ofSeconds(config.getEntityApiReadTimeout());
+        this.maxAttempts = config.getEntityApiRetryAttempts();
+        this.initialBackoffMs = config.getEntityApiRetryBackoff();
+    }
+
+    /**
+     * Retrieve one page of search results
+     * @param query the search query, including all parameters except page, cursor and wskey
+     * @param pageNr number of the page to retrieve
+     * @param entities consumer to which the entities on the page are passed (in order) once the page is retrieved.
+     *                 Note that this is done by one of the threads of the http client.
+     * @return future that completes with the total number of entities (on all pages), or exceptionally with a
+     * SiteMapException when the page could not be retrieved
+     */
+    public CompletableFuture<EntityResponseParser.Result> getPage(String query, long pageNr,
+                                                                  Consumer<UpdateEntityService.EntityData> entities) {
+        return getPage(query, "&page=" + pageNr, "page " + pageNr, entities);
+    }
+
+    /**
+     * Retrieve one page of search results using a cursor. Contrary to page numbers, cursors always continue where the
+     * previous page ended, even if entities are added or removed in the meantime.
+     * @param query the search query, including all parameters except page, cursor and wskey
+     * @param cursor cursor of the page to retrieve, FIRST_CURSOR for the first page
+     * @param entities consumer to which the entities on the page are passed (in order) once the page is retrieved.
+     *                 Note that this is done by one of the threads of the http client.
+     * @return future that completes with the total number of entities and the cursor of the next page, or
+     * exceptionally with a SiteMapException when the page could not be retrieved
+     */
+    public CompletableFuture<EntityResponseParser.Result> getPage(String query, String cursor,
+                                                                  Consumer<UpdateEntityService.EntityData> entities) {
+        return getPage(query, "&cursor=" + URLEncoder.encode(cursor, StandardCharsets.UTF_8),
+                "page with cursor " + cursor, entities);
+    }
+
+    private CompletableFuture<EntityResponseParser.Result> getPage(String query, String paging, String page,
+                                                                   Consumer<UpdateEntityService.EntityData> entities) {
+        URI uri = URI.create(config.getEntityApi() + "?query=" + query + paging + "&wskey=" + config.getEntityApiKey());
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(readTimeout)
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", GZIP)
+                .GET()
+                .build();
+        return send(request, page, 1).thenApply(response -> parse(response, page, entities));
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> send(HttpRequest request, String page, int attempt) {
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> checkStatus(response, page))
+                .exceptionallyCompose(e -> {
+                    Throwable cause = (e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                    if (!(cause instanceof IOException)) {
+                        return CompletableFuture.failedFuture(cause);
+                    }
+                    if (attempt >= maxAttempts) {
+                        LOG.error("Failed to retrieve entity {}, giving up after {} attempts", page, attempt);
+                        return CompletableFuture.failedFuture(
+                                new EntityQueryException("Error retrieving entity data " + page, cause));
+                    }
+                    long backoff = getBackoff(attempt);
+                    LOG.warn("Failed to retrieve entity {} (attempt {} of {}), retrying in {} ms: {}", page,
+                            attempt, maxAttempts, backoff, cause.toString());
+                    return CompletableFuture.runAsync(() -> { },
+                                    CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS))
+                            .thenCompose(ignore -> send(request, page, attempt + 1));
+                });
+    }
+
+    /**
+     * Throttling and server errors are thrown as IOException so they are retried, other errors are not retried
+     */
+    private static HttpResponse<byte[]> checkStatus(HttpResponse<byte[]> response, String page) {
+        int responseCode = response.statusCode();
+        LOG.debug("Entity query {}, status code = {}, protocol = {}", page, responseCode, response.version());
+        if (responseCode == HTTP_OK) {
+            return response;
+        }
+        if (responseCode == HTTP_TOO_MANY_REQUESTS || responseCode >= HTTP_SERVER_ERROR) {
+            throw new CompletionException(new IOException("Entity API response code " + responseCode));
+        }
+        SiteMapException error = (responseCode == HTTP_UNAUTHORIZED
+                ? new InvalidApiKeyException("API key is not valid")
+                : new EntityQueryException("Error retrieving entity data. Response code " + responseCode));
+        throw new CompletionException(error);
+    }
+
+    private static EntityResponseParser.Result parse(HttpResponse<byte[]> response, String page,
+                                                     Consumer<UpdateEntityService.EntityData> entities) {
+        try (InputStream body = getBody(response)) {
+            return EntityResponseParser.parse(body, entities);
+        } catch (IOException e) {
+            throw new CompletionException(new EntityQueryException("Error parsing entity data " + page, e));
+        }
+    }
+
+    private static InputStream getBody(HttpResponse<byte[]> response) throws IOException {
+        InputStream result = new ByteArrayInputStream(response.body());
+        if (response.headers().firstValue("Content-Encoding").filter(GZIP::equalsIgnoreCase).isPresent()) {
+            return new GZIPInputStream(result);
+        }
+        return result;
+    }
+
+    /**
+     * Full jitter: a random time between 0 and the exponentially increasing maximum
+     */
+    private long getBackoff(int attempt) {
+        long max = initialBackoffMs << Math.min(attempt - 1, MAX_BACKOFF_SHIFT);
+        return (max <= 0 ? 0 : ThreadLocalRandom.current().nextLong(max + 1));
+    }
+}
@@ -0,0 +1,143 @@
+package eu.europeana.sitemap.service.update;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadFeature;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+/**
+ * Reads an Entity API search response in a single pass. Only partOf.total, nextCursor and the id and type of each item
+ * are read; all other fields (e.g. labels) are skipped without creating objects for them.
+ */
+final class EntityResponseParser {
+
+    private static final Logger LOG = LogManager.getLogger(EntityResponseParser.class);
+
+    // the caller is responsible for closing the response
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+            .disable(StreamReadFeature.AUTO_CLOSE_SOURCE)
+            .build();
+
+    private static final String PART_OF = "partOf";
+    private static final String NEXT_CURSOR = "nextCursor";
+    private static final String TOTAL = "total";
+    private static final String ITEMS = "items";
+    private static final String ID = "id";
+    private static final String TYPE = "type";
+
+    private EntityResponseParser() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * Parse an Entity API search response
+     * @param response the response body, this is not closed
+     * @param entities consumer to which the entities are passed (in the order of the response) as they are read
+     * @return the total number of entities (on all pages) and the cursor of the next page
+     * @throws IOException when the response can't be read or is not a valid search response
+     */
+    static Result parse(InputStream response, Consumer<UpdateEntityService.EntityData> entities) throws IOException {
+        long total = -1;
+        String nextCursor = null;
+        try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Entity response is not a json object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (PART_OF.equals(field) && value == JsonToken.START_OBJECT) {
+                    total = readTotal(parser);
+                } else if (ITEMS.equals(field) && value == JsonToken.START_ARRAY) {
+                    readItems(parser, entities);
+                } else if (NEXT_CURSOR.equals(field) && value == JsonToken.VALUE_STRING) {
+                    nextCursor = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (total < 0) {
+            throw new IOException("Entity response does not contain partOf.total");
+        }
+        return new Result(total, nextCursor);
+    }
+
+    private static long readTotal(JsonParser parser) throws IOException {
+        long result = -1;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            if (parser.nextToken() == JsonToken.VALUE_NUMBER_INT && TOTAL.equals(field)) {
+                result = parser.getLongValue();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    private static void readItems(JsonParser parser, Consumer<UpdateEntityService.EntityData> entities)
+            throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            String id = null;
+            String type = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.VALUE_STRING && ID.equals(field)) {
+                    id = parser.getText();
+                } else if (value == JsonToken.VALUE_STRING && TYPE.equals(field)) {
+                    type = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (id == null || type == null) {
+                LOG.warn("Skipping entity without id or type (id = {}, type = {})", id, type);
+            } else {
+                entities.accept(new UpdateEntityService.EntityData(id, type));
+            }
+        }
+    }
+
+    /**
+     * Information about the parsed response (apart from the entities)
+     */
+    static final class Result {
+
+        private final long total;
+        private final String nextCursor;
+
+        Result(long total, String nextCursor) {
+            this.total = total;
+            this.nextCursor = nextCursor;
+        }
+
+        /**
+         * @return total number of entities (on all pages)
+         */
+        long getTotal() {
+            return total;
+        }
+
+        /**
+         * @return cursor of the next page, null if the response doesn't have one (when the request didn't use a
+         * cursor, or the Entity API doesn't support cursors)
+         */
+        String getNextCursor() {
+            return nextCursor;
+        }
+    }
+}
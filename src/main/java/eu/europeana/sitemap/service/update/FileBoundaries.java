@@ -0,0 +1,38 @@
+package eu.europeana.sitemap.service.update;
+
+import java.util.List;
+
+/**
+ * Keeps track of the keys at which sitemap files started in a previous update. When items are added in order of
+ * their key, new files can be started at the same keys so most files contain the same items as before (instead of all
+ * boundaries shifting when a single item is added or removed).
+ *
+ * This class is not thread-safe, use a separate instance for each section that is generated.
+ */
+final class FileBoundaries {
+
+    private final List<String> keys;
+    private int next;
+
+    /**
+     * @param keys first keys of the files of a previous update, in order
+     */
+    FileBoundaries(List<String> keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * Check if a file boundary lies between the previously checked key and the provided key. Keys should be checked
+     * in order.
+     * @param key key of the item that is about to be added
+     * @return true if the item should start a new file
+     */
+    boolean isCrossed(String key) {
+        boolean result = false;
+        while (next < keys.size() && keys.get(next).compareTo(key) <= 0) {
+            next++;
+            result = true;
+        }
+        return result;
+    }
+}
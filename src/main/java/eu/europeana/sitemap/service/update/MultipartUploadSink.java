@@ -0,0 +1,249 @@
+package eu.europeana.sitemap.service.update;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import eu.europeana.sitemap.StorageFileName;
+import eu.europeana.sitemap.s3.RetryPolicy;
+import eu.europeana.sitemap.s3.S3Provider;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sink that streams sitemap files to S3 while they are being generated. Data is uploaded in parts using a multipart
+ * upload, so only 1 part per open file is kept in memory regardless of the size of the file. Small files (that fit in
+ * a single part) are saved with a regular put request.
+ *
+ * If the final file name is changed after the upload has started, the file is completed under its provisional name
+ * and then copied (server-side) to its final name.
+ *
+ * Each request to S3 is retried separately according to the retry policy, so a failed part doesn't restart the upload.
+ */
+public class MultipartUploadSink implements SitemapFileSink {
+
+    private static final Logger LOG = LogManager.getLogger(MultipartUploadSink.class);
+
+    /** S3 requires all parts (except the last) to be at least 5 MB */
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private static final String CONTENT_TYPE = "text/xml";
+    private static final String GZIP_ENCODING = "gzip";
+
+    private final S3Provider s3;
+    private final int partSize;
+    private final RetryPolicy retryPolicy;
+
+    /**
+     * Create a new streaming sink that doesn't retry failed requests
+     * @param s3 provider of the S3 client and bucket
+     * @param partSize size of the uploaded parts in bytes, should be at least 5 MB
+     */
+    public MultipartUploadSink(S3Provider s3, int partSize) {
+        this(s3, partSize, RetryPolicy.NONE);
+    }
+
+    /**
+     * Create a new streaming sink
+     * @param s3 provider of the S3 client and bucket
+     * @param partSize size of the uploaded parts in bytes, should be at least 5 MB
+     * @param retryPolicy policy for retrying failed requests
+     */
+    public MultipartUploadSink(S3Provider s3, int partSize, RetryPolicy retryPolicy) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("Part size should be at least " + MIN_PART_SIZE + " bytes");
+        }
+        this.s3 = s3;
+        this.partSize = partSize;
+        this.retryPolicy = retryPolicy;
+    }
+
+    @Override
+    public SitemapFileOutput open(String fileName) {
+        return new MultipartUploadOutputStream(fileName);
+    }
+
+    @Override
+    public int getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * Copy a file server-side, so its contents don't have to be downloaded and uploaded again
+     */
+    @Override
+    public void copy(String sourceFileName, String targetFileName) throws IOException {
+        retryPolicy.execute("copy file " + sourceFileName + " to " + targetFileName, () ->
+                s3.getClientWithoutRetries().copyObject(
+                        new CopyObjectRequest(s3.getBucket(), sourceFileName, s3.getBucket(), targetFileName)));
+    }
+
+    /**
+     * Output stream that uploads its contents to S3 each time a part is full
+     */
+    private final class MultipartUploadOutputStream extends SitemapFileOutput {
+
+        private String key;
+        private final byte[] part;
+        private int partLength;
+        private String uploadId;
+        private final List<PartETag> partETags = new ArrayList<>();
+        private boolean closed;
+        private boolean discarded;
+
+        private MultipartUploadOutputStream(String key) {
+            super(key);
+            this.key = key;
+            this.part = new byte[partSize];
+        }
+
+        @Override
+        public void setFileName(String fileName) {
+            super.setFileName(fileName);
+            if (uploadId == null) {
+                this.key = fileName;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (discarded) {
+                return;
+            }
+            ensureOpen();
+            if (partLength == part.length) {
+                uploadPart();
+            }
+            part[partLength++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (discarded) {
+                return;
+            }
+            ensureOpen();
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                if (partLength == part.length) {
+                    uploadPart();
+                }
+                int toCopy = Math.min(remaining, part.length - partLength);
+                System.arraycopy(b, offset, part, partLength, toCopy);
+                partLength += toCopy;
+                offset += toCopy;
+                remaining -= toCopy;
+            }
+        }
+
+        /**
+         * Aborts the multipart upload (if any) and ignores all further data
+         */
+        @Override
+        public boolean discard() {
+            discarded = true;
+            partLength = 0;
+            abort();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            AmazonS3 client = s3.getClientWithoutRetries();
+            try {
+                if (uploadId == null) {
+                    // everything fits in 1 part, so no need for multipart upload
+                    ObjectMetadata metadata = createMetadata();
+                    metadata.setContentLength(partLength);
+                    retryPolicy.execute("save file " + key, () -> client.putObject(s3.getBucket(), key,
+                            new ByteArrayInputStream(part, 0, partLength), metadata));
+                } else {
+                    uploadPart();
+                    retryPolicy.execute("complete upload of file " + key, () -> client.completeMultipartUpload(
+                            new CompleteMultipartUploadRequest(s3.getBucket(), key, uploadId, partETags)));
+                    LOG.debug("Completed multipart upload of file {} in {} parts", key, partETags.size());
+                    if (!key.equals(getFileName())) {
+                        LOG.debug("Renaming file {} to {}", key, getFileName());
+                        retryPolicy.execute("copy file " + key + " to " + getFileName(), () -> client.copyObject(
+                                new CopyObjectRequest(s3.getBucket(), key, s3.getBucket(), getFileName())));
+                        retryPolicy.execute("delete file " + key, () -> {
+                            client.deleteObject(s3.getBucket(), key);
+                            return null;
+                        });
+                    }
+                }
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        private void uploadPart() throws IOException {
+            AmazonS3 client = s3.getClientWithoutRetries();
+            int partNumber = partETags.size() + 1;
+            try {
+                if (uploadId == null) {
+                    uploadId = retryPolicy.execute("start upload of file " + key, () -> client.initiateMultipartUpload(
+                            new InitiateMultipartUploadRequest(s3.getBucket(), key, createMetadata())).getUploadId());
+                    LOG.debug("Started multipart upload of file {}", key);
+                }
+                // the request (and its input stream) is created again for each attempt
+                partETags.add(retryPolicy.execute("upload part " + partNumber + " of file " + key,
+                        () -> client.uploadPart(new UploadPartRequest()
+                                .withBucketName(s3.getBucket())
+                                .withKey(key)
+                                .withUploadId(uploadId)
+                                .withPartNumber(partNumber)
+                                .withInputStream(new ByteArrayInputStream(part, 0, partLength))
+                                .withPartSize(partLength)).getPartETag()));
+                partLength = 0;
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        private void abort() {
+            closed = true;
+            if (uploadId != null) {
+                try {
+                    s3.getClient().abortMultipartUpload(new AbortMultipartUploadRequest(s3.getBucket(), key, uploadId));
+                } catch (AmazonClientException e) {
+                    LOG.warn("Unable to abort multipart upload of file {}", key, e);
+                }
+                uploadId = null;
+            }
+        }
+
+        private ObjectMetadata createMetadata() {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentType(CONTENT_TYPE);
+            // so clients that download the file directly from storage (or via a CDN) know how to decode it
+            if (StorageFileName.isGzipFileName(key)) {
+                metadata.setContentEncoding(GZIP_ENCODING);
+            }
+            return metadata;
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream for file " + key + " is already closed");
+            }
+        }
+    }
+}
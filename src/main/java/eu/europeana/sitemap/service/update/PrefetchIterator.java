@@ -0,0 +1,174 @@
+package eu.europeana.sitemap.service.update;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterator that reads items from a source (e.g. a mongo cursor) on a separate thread and keeps them in a bounded
+ * buffer until they are needed. This way fetching the next batch of data overlaps with processing the current one,
+ * instead of processing stopping each time the source needs to fetch a new batch.
+ *
+ * The source is read and closed by the prefetch thread only. Closing this iterator stops the prefetch thread.
+ * If reading the source fails (including errors such as an OutOfMemoryError), the consumer gets an exception instead
+ * of the end of the items, so a partially read source is never mistaken for a complete one.
+ * This class is not thread-safe; it should be consumed by 1 thread.
+ *
+ * @param <T> type of the items
+ */
+public class PrefetchIterator<T> implements Iterator<T>, AutoCloseable {
+
+    private static final Logger LOG = LogManager.getLogger(PrefetchIterator.class);
+
+    private static final Object END = new Object();
+    private static final long STOP_TIMEOUT_MS = 10_000;
+
+    private final BlockingQueue<Object> buffer;
+    private final PrefetchMetrics metrics;
+    private final Thread producer;
+    private volatile Throwable error;
+    private volatile boolean closed;
+
+    private Object next;
+    private boolean finished;
+    // statistics for logging, maintained by the consumer thread
+    private long nrTaken;
+    private long nrStalls;
+    private long stallNanos;
+
+    /**
+     * Start prefetching items
+     * @param source source of the items; if it's AutoCloseable it is closed when all items are read or when this
+     *               iterator is closed
+     * @param bufferSize maximum number of items that are prefetched
+     * @param threadName name of the prefetch thread
+     * @param metrics meters to which buffer statistics are reported
+     */
+    public PrefetchIterator(Iterator<T> source, int bufferSize, String threadName, PrefetchMetrics metrics) {
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.metrics = metrics;
+        this.producer = new Thread(() -> prefetch(source), threadName);
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    private void prefetch(Iterator<T> source) {
+        long blockedNanos = 0;
+        try {
+            while (!closed && source.hasNext()) {
+                T item = source.next();
+                if (!buffer.offer(item)) {
+                    long start = System.nanoTime();
+                    buffer.put(item);
+                    long blocked = System.nanoTime() - start;
+                    blockedNanos += blocked;
+                    metrics.getProducerBlocked().record(blocked, TimeUnit.NANOSECONDS);
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed while waiting for room in the buffer
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            // also errors, otherwise the consumer would see the end of the items while the source isn't done
+            error = e;
+        } finally {
+            closeSource(source);
+            LOG.debug("Prefetching finished, producer was blocked {} ms", TimeUnit.NANOSECONDS.toMillis(blockedNanos));
+            if (!closed) {
+                putEnd();
+            }
+        }
+    }
+
+    private void closeSource(Iterator<T> source) {
+        if (source instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                LOG.warn("Error closing prefetch source", e);
+            }
+        }
+    }
+
+    private void putEnd() {
+        try {
+            buffer.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (finished) {
+            return false;
+        }
+        if (next == null) {
+            next = take();
+        }
+        if (next == END) {
+            finished = true;
+            if (error instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (error != null) {
+                throw new IllegalStateException("Error prefetching items", error);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private Object take() {
+        int occupancy = buffer.size();
+        metrics.getOccupancy().record(occupancy);
+        Object result = buffer.poll();
+        if (result == null) {
+            long start = System.nanoTime();
+            try {
+                result = buffer.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for prefetched items", e);
+            }
+            long stall = System.nanoTime() - start;
+            stallNanos += stall;
+            nrStalls++;
+            metrics.getConsumerStall().record(stall, TimeUnit.NANOSECONDS);
+        }
+        nrTaken++;
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T result = (T) next;
+        next = null;
+        return result;
+    }
+
+    /**
+     * Stop prefetching (if it's still in progress) and close the source
+     */
+    @Override
+    public void close() {
+        closed = true;
+        producer.interrupt();
+        try {
+            producer.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.info("Prefetched {} items, consumer waited {} times for a total of {} ms", nrTaken, nrStalls,
+                TimeUnit.NANOSECONDS.toMillis(stallNanos));
+    }
+}
@@ -0,0 +1,52 @@
+package eu.europeana.sitemap.service.update;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters of the PrefetchIterator, used to check whether the prefetch buffer has the right size. If the consumer often
+ * stalls (while the buffer is empty) reading is the bottleneck; if the producer is often blocked (while the buffer is
+ * full) processing is the bottleneck and a larger buffer won't help.
+ * @see PrefetchIterator
+ */
+public class PrefetchMetrics {
+
+    private static final String SOURCE_TAG = "source";
+
+    private final DistributionSummary occupancy;
+    private final Timer consumerStall;
+    private final Timer producerBlocked;
+
+    /**
+     * Register the prefetch meters
+     * @param registry registry to which the meters are added
+     * @param source name of the data that is prefetched, e.g. record
+     */
+    public PrefetchMetrics(MeterRegistry registry, String source) {
+        this.occupancy = DistributionSummary.builder("sitemap.prefetch.occupancy")
+                .description("Number of items in the prefetch buffer when an item is taken")
+                .tag(SOURCE_TAG, source)
+                .register(registry);
+        this.consumerStall = Timer.builder("sitemap.prefetch.consumer.stall")
+                .description("Time spent waiting for the prefetch buffer to get an item")
+                .tag(SOURCE_TAG, source)
+                .register(registry);
+        this.producerBlocked = Timer.builder("sitemap.prefetch.producer.blocked")
+                .description("Time spent waiting for the prefetch buffer to have room for an item")
+                .tag(SOURCE_TAG, source)
+                .register(registry);
+    }
+
+    DistributionSummary getOccupancy() {
+        return occupancy;
+    }
+
+    Timer getConsumerStall() {
+        return consumerStall;
+    }
+
+    Timer getProducerBlocked() {
+        return producerBlocked;
+    }
+}
@@ -0,0 +1,44 @@
+package eu.europeana.sitemap.service.update;
+
+import java.io.OutputStream;
+
+/**
+ * Output stream for writing a single sitemap file to a SitemapFileSink. The file is saved under its (final) file name
+ * when the stream is closed.
+ *
+ * The name of a sitemap file contains the number of the last item in the file, which isn't known until the file is
+ * complete. A provisional name is therefore used when opening the stream and the final name can be set at any time
+ * before the stream is closed.
+ */
+public abstract class SitemapFileOutput extends OutputStream {
+
+    private String fileName;
+
+    protected SitemapFileOutput(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * @return the name under which the file will be saved
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Change the name under which the file will be saved
+     * @param fileName the new file name
+     */
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Mark the file as discarded, for example because an identical file is already stored. Data that is written
+     * afterwards is ignored and closing the stream doesn't save the file. By default discarding is not supported.
+     * @return true if the file is discarded, false if it will be saved as usual when the stream is closed
+     */
+    public boolean discard() {
+        return false;
+    }
+}
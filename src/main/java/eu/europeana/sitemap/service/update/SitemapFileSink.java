@@ -0,0 +1,47 @@
+package eu.europeana.sitemap.service.update;
+
+import java.io.IOException;
+
+/**
+ * Destination of generated sitemap files. The SitemapGenerator writes the (UTF-8 encoded) contents of each file to an
+ * output stream provided by a sink. Closing the stream completes saving the file.
+ * @see SitemapFileOutput
+ */
+public interface SitemapFileSink {
+
+    /**
+     * Open a new stream for saving a file
+     * @param fileName (provisional) name of the file as it should be stored
+     * @return output stream to which the file contents should be written
+     * @throws IOException when there is a problem creating the stream
+     */
+    SitemapFileOutput open(String fileName) throws IOException;
+
+    /**
+     * Sinks that save a file in parts while it's being written can report the part size, so callers can write the
+     * data in chunks of that size (e.g. to save the parts in the background). By default a file is saved at once
+     * when it's closed.
+     * @return the number of bytes after which a part of the file is saved, 0 if the file is only saved when closed
+     */
+    default int getPartSize() {
+        return 0;
+    }
+
+    /**
+     * Wait until all files that were closed are saved. This is only relevant for sinks that save files in the
+     * background; by default files are saved when closed.
+     * @throws IOException when saving one of the files failed
+     */
+    default void awaitSaved() throws IOException {
+        // files are saved when closed
+    }
+
+    /**
+     * Copy a file that was saved earlier (e.g. by a previous update) to a new file, without changing its contents
+     * @param sourceFileName name of the existing file
+     * @param targetFileName name of the new file
+     * @throws IOException when there is a problem copying the file
+     */
+    void copy(String sourceFileName, String targetFileName) throws IOException;
+
+}
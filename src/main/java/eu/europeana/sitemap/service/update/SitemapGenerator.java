@@ -5,12 +5,32 @@ import eu.europeana.sitemap.SitemapType;
 import eu.europeana.sitemap.StorageFileName;
 import eu.europeana.sitemap.config.PortalUrl;
 import eu.europeana.sitemap.service.Deployment;
+import eu.europeana.sitemap.service.SitemapManifest;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.time.DateFormatUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Basic implementation of generating sitemap files and sitemap index file. Note that this class doesn't involve itself
@@ -21,6 +41,30 @@ import java.util.Date;
  *
  * When all items are added using the addItem() method you need to call finish() which will wrap up the generation process
  *
+ * The contents of each sitemap file are written directly (UTF-8 encoded) to the provided SitemapFileSink, so whether
+ * files are kept in memory until they are complete or streamed to storage while being generated depends on the sink.
+ * Optionally sitemap files are gzip-compressed while they are written, in which case they are stored (and listed in
+ * the sitemap index) with a .xml.gz extension. The sitemap index file itself is never compressed.
+ *
+ * For generating large numbers of items there is an addItem() variant that doesn't create any objects per item; the
+ * url is written from a prefix and id, the priority is looked up from precomputed values and the lastmod date is
+ * taken from a cache.
+ *
+ * Items can also be generated concurrently by splitting the sitemap into sections (see createSection()). Each section
+ * is generated by its own thread and writes its own sitemap files (e.g. sitemap-record-p01.xml?from=1&to=45000). When
+ * all sections are finished, the sitemap index lists the files of all sections in the order the sections were created.
+ *
+ * For each written file the generator keeps track of the items it contains (numbers and keys of the first and last
+ * item), a hash of its uncompressed contents and its stored size, see getFiles(). Files of a previous generation can be reused with
+ * copyFile(). If the manifest of a previous generation is provided, each new file is compared with the previous files.
+ * A file with the same contents as a previous file keeps its lastmod date in the index and, if possible, is copied
+ * from the previous file instead of being uploaded.
+ * Optionally the index lists each file with its version (see setVersionedUrls()), so a file's url only changes when
+ * its contents change.
+ *
+ * Optionally the generator saves a checkpoint every so many files (see setCheckpointHandler()). If generation doesn't
+ * finish, a next generation to the same deployment can continue after the last file of the checkpoint (see resume()).
+ *
  * @author Patrick Ehlert
  * Created on 04-06-2018
  */
@@ -42,29 +86,42 @@ public class SitemapGenerator {
                     " xmlns:geo=\"http://www.google.com/geo/schemas/sitemap/1.0\">";
     private static final String URLSET_HEADER_CLOSING = "</urlset>";
 
-    private static final String URL_OPENING = "<url>";
-    private static final String URL_CLOSING = "</url>";
-
     private static final String LOC_OPENING = "<loc>";
     private static final String LOC_CLOSING = "</loc>";
-
-    private static final String PRIORITY_OPENING = "<priority>";
-    private static final String PRIORITY_CLOSING = "</priority>";
-
     private static final String LASTMOD_OPENING = "<lastmod>";
     private static final String LASTMOD_CLOSING = "</lastmod>";
 
     private static final char LN = '\n';
 
+    /** Precomputed sitemap file tags (including line endings) **/
+    private static final byte[] URLSET_OPENING_BYTES = toBytes(XML_HEADER + LN + URLSET_HEADER + LN);
+    private static final byte[] URLSET_CLOSING_BYTES = toBytes(URLSET_HEADER_CLOSING);
+    private static final byte[] URL_LOC_OPENING_BYTES = toBytes("<url>" + LN + LOC_OPENING);
+    private static final byte[] LOC_CLOSING_BYTES = toBytes(LOC_CLOSING + LN);
+    private static final byte[] PRIORITY_OPENING_BYTES = toBytes("<priority>");
+    private static final byte[] PRIORITY_CLOSING_BYTES = toBytes("</priority>" + LN);
+    private static final byte[] LASTMOD_OPENING_BYTES = toBytes(LASTMOD_OPENING);
+    private static final byte[] LASTMOD_CLOSING_BYTES = toBytes(LASTMOD_CLOSING + LN);
+    private static final byte[] URL_CLOSING_BYTES = toBytes("</url>" + LN);
+
+    /** Use as contentTier value when adding an item without priority **/
+    public static final int NO_PRIORITY = -1;
+    /** Use as lastModified value when adding an item without last-modified date **/
+    public static final long NO_LAST_MODIFIED = Long.MIN_VALUE;
+
     private static final String FROM_PARAM = "?from=";
     private static final String TO_PARAM = "&to=";
+    private static final String VERSION_PARAM = "&v=";
 
-    private static final int MAX_SAVE_ATTEMPTS = 3;
-    private static final long RETRY_SAVE_INTERVAL = 5000;
-    private static final int MS_PER_SEC = 1000;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final String HASH_ALGORITHM = "SHA-256";
 
-    private final S3ObjectStorageClient objectStorage;
+    private final SitemapFileSink fileSink;
     private final SitemapType type;
+    private final boolean gzip;
+    private final String section;
+    private final SitemapGenerator parent;
+    private final List<SitemapGenerator> sections = new ArrayList<>();
 
     private Deployment deployment;
     private String websiteBaseUrl;
@@ -73,9 +130,23 @@ public class SitemapGenerator {
     private boolean generationStarted;
     private boolean generationFinished;
 
-    private StringBuilder sitemapIndex;
-    private StringBuilder sitemap;
+    private StringBuilder sitemapIndexEntries;
+    private long indexSize;
+    private SitemapFileOutput sitemapOutput;
+    private CountingOutputStream storedBytes;
+    private Utf8ByteWriter sitemap;
+    private final byte[] writeBuffer = new byte[WRITE_BUFFER_SIZE];
+    private final DayDateCache lastModifiedDates = new DayDateCache();
+    private final MessageDigest digest;
+    private final List<SitemapManifest.File> files = new ArrayList<>();
+    private Map<String, SitemapManifest.File> previousFilesByHash = Map.of();
+    private boolean copyPreviousFiles;
+    private boolean versionedUrls;
+    private Consumer<List<SitemapManifest.File>> checkpointHandler;
+    private int checkpointInterval;
     private long fileStartTime; // this is for the current sitemap file
+    private final StringBuilder firstKey = new StringBuilder(); // this is for the current sitemap file
+    private final StringBuilder lastKey = new StringBuilder(); // this is for the current sitemap file
 
     // global stats
     private long nrRecords;
@@ -83,13 +154,45 @@ public class SitemapGenerator {
     private long from;
 
     /**
-     * Setup a new sitemap generator
+     * Setup a new sitemap generator that keeps each sitemap file in memory until it's complete
      * @param type sitemap type (record or entity)
      * @param objectStorage interface to S3 file storage
      */
     public SitemapGenerator(SitemapType type, S3ObjectStorageClient objectStorage) {
-        this.objectStorage = objectStorage;
+        this(type, new BufferedFileSink(objectStorage));
+    }
+
+    /**
+     * Setup a new sitemap generator
+     * @param type sitemap type (record or entity)
+     * @param fileSink destination of the generated files
+     */
+    public SitemapGenerator(SitemapType type, SitemapFileSink fileSink) {
+        this(type, fileSink, false);
+    }
+
+    /**
+     * Setup a new sitemap generator
+     * @param type sitemap type (record or entity)
+     * @param fileSink destination of the generated files, if gzip is true this should be a sink that can save binary data
+     * @param gzip if true sitemap files are gzip-compressed
+     */
+    public SitemapGenerator(SitemapType type, SitemapFileSink fileSink, boolean gzip) {
+        this(type, fileSink, gzip, null, null);
+    }
+
+    private SitemapGenerator(SitemapType type, SitemapFileSink fileSink, boolean gzip, SitemapGenerator parent,
+                             String section) {
+        this.fileSink = fileSink;
         this.type = type;
+        this.gzip = gzip;
+        this.parent = parent;
+        this.section = section;
+        try {
+            this.digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Hash algorithm " + HASH_ALGORITHM + " is not available", e);
+        }
     }
 
     /**
@@ -104,16 +207,123 @@ public class SitemapGenerator {
         }
         LOG.info("Starting {} sitemap generation. Location of sitemap files {}", type, websiteBaseUrl);
 
+        start(desiredDeployment, websiteBaseUrl, itemsPerSitemap);
+    }
+
+    private void start(Deployment desiredDeployment, String websiteBaseUrl, int itemsPerSitemap) {
         this.deployment = desiredDeployment;
         this.websiteBaseUrl = websiteBaseUrl;
         this.itemsPerSitemap = itemsPerSitemap;
         generationStarted = true;
         nrRecords = 0;
         nrSitemaps = 0;
-        initSitemapIndex();
+        this.sitemapIndexEntries = new StringBuilder();
         initSitemapFile();
     }
 
+    /**
+     * Provide information about the files of the previous generation (usually the active deployment), so unchanged
+     * files can be detected. This should be done before any items are added or sections are created.
+     * @param previous manifest of the previous generation, can be null
+     */
+    public void setPreviousManifest(SitemapManifest previous) {
+        if (previous == null) {
+            return;
+        }
+        Map<String, SitemapManifest.File> filesByHash = new HashMap<>();
+        for (SitemapManifest.File file : previous.getFiles()) {
+            if (file.getHash() != null) {
+                filesByHash.put(file.getHash(), file);
+            }
+        }
+        this.previousFilesByHash = filesByHash;
+        // previous files can only be copied if they are in the same format
+        this.copyPreviousFiles = (previous.isGzip() == gzip);
+    }
+
+    /**
+     * Include the version of each sitemap file (based on the hash of its contents) in the url listed in the index, e.g.
+     * sitemap-record.xml?from=1&to=45000&v=0123456789abcdef. The url of a file then only changes when its contents
+     * change, so clients can cache sitemap files indefinitely. This should be done before any items are added or
+     * sections are created.
+     * @param versionedUrls if true, urls of sitemap files include their version
+     */
+    public void setVersionedUrls(boolean versionedUrls) {
+        this.versionedUrls = versionedUrls;
+    }
+
+    /**
+     * Save a checkpoint every so many sitemap files, so generation can be resumed if it doesn't finish. Before a
+     * checkpoint is saved the generator waits until all files written so far are saved, so the checkpoint never lists
+     * files that aren't in storage. Only files of this generator are checkpointed, not those of its sections.
+     * @param interval number of sitemap files after which a checkpoint is saved
+     * @param handler saves the checkpoint, it receives information about all files saved so far
+     */
+    public void setCheckpointHandler(int interval, Consumer<List<SitemapManifest.File>> handler) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval should be larger than 0");
+        }
+        this.checkpointInterval = interval;
+        this.checkpointHandler = handler;
+    }
+
+    /**
+     * Continue a generation that didn't finish. The files listed in the checkpoint of that generation are added to
+     * the index (they should still be in storage) and new files are numbered after them. This should be done after
+     * init() and before any items are added; items should continue after the last key of the checkpoint.
+     * @param checkpoint checkpoint of a generation to the same deployment
+     */
+    public void resume(SitemapManifest checkpoint) {
+        if (!generationStarted || nrSitemaps > 0 || sitemap != null || parent != null) {
+            throw new IllegalStateException("Cannot resume; " + type + " sitemap generation should be initialized only.");
+        }
+        if (checkpoint.getDeployment() != deployment || checkpoint.isGzip() != gzip) {
+            throw new IllegalArgumentException("Checkpoint is for deployment " + checkpoint.getDeployment()
+                    + " (gzip " + checkpoint.isGzip() + "), not " + deployment + " (gzip " + gzip + ")");
+        }
+        for (SitemapManifest.File file : checkpoint.getFiles()) {
+            if (file.getSection() != null) {
+                throw new IllegalArgumentException("Cannot resume sitemap section " + file.getSection());
+            }
+            addToIndex(FROM_PARAM + file.getFrom() + TO_PARAM + file.getTo(), file);
+            files.add(file);
+            nrRecords = file.getTo();
+            nrSitemaps++;
+        }
+        this.from = nrRecords + 1;
+        LOG.info("Resumed {} sitemap generation after {} files with {} items", type, nrSitemaps, nrRecords);
+    }
+
+    /**
+     * Create a new section of the sitemap. A section has its own sitemap files and can be generated concurrently
+     * with other sections (but each section generator should only be used by 1 thread). Note that all sections need
+     * to be finished before this generator can be finished.
+     * @param name name of the section, this is included in the names of the section's sitemap files so it should be
+     *             unique and only contain lowercase letters and digits
+     * @return new generator that is already initialized
+     */
+    public SitemapGenerator createSection(String name) {
+        if (!generationStarted || generationFinished) {
+            throw new IllegalStateException("Cannot create section; " + type + " sitemap generation is not in progress.");
+        }
+        if (parent != null) {
+            throw new IllegalStateException("Cannot create a section within section " + section);
+        }
+        SitemapGenerator result = new SitemapGenerator(type, fileSink, gzip, this, name);
+        result.start(deployment, websiteBaseUrl, itemsPerSitemap);
+        result.previousFilesByHash = previousFilesByHash;
+        result.copyPreviousFiles = copyPreviousFiles;
+        result.versionedUrls = versionedUrls;
+        synchronized (sections) {
+            if (sections.stream().anyMatch(s -> s.section.equals(name))) {
+                throw new IllegalArgumentException("There is already a section with name " + name);
+            }
+            sections.add(result);
+        }
+        LOG.info("Created {} sitemap section {}", type, name);
+        return result;
+    }
+
 
     /**
      * Add an item/webpage to a sitemap file. Note that the first added item will count as the start of the generation process
@@ -122,23 +332,167 @@ public class SitemapGenerator {
      * @param dateLastModified last-modified date of the webpage
      */
     public void addItem(String url, String priority, Date dateLastModified) {
+        checkCanAddItem();
+        try {
+            startItem(url);
+            sitemap.write(url).write(LOC_CLOSING_BYTES);
+            if (!StringUtils.isEmpty(priority)) {
+                sitemap.write(PRIORITY_OPENING_BYTES).write(priority).write(PRIORITY_CLOSING_BYTES);
+            }
+            if (dateLastModified != null) {
+                writeLastModified(dateLastModified.getTime());
+            }
+            finishItem();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error writing to sitemap file " + sitemapOutput.getFileName(), e);
+        }
+    }
+
+    /**
+     * Add an item/webpage to a sitemap file without creating any objects. Note that the first added item will count
+     * as the start of the generation process
+     * @param urlPrefix first part of the url of the webpage (e.g. https://www.europeana.eu/item)
+     * @param id last part of the url of the webpage (e.g. /123/abc)
+     * @param contentTier content tier that determines the priority of the webpage, or NO_PRIORITY
+     * @param lastModified last-modified date of the webpage in milliseconds since epoch, or NO_LAST_MODIFIED
+     * @see UpdateRecordServiceUtils#getPriorityForTiers(int)
+     */
+    public void addItem(CharSequence urlPrefix, CharSequence id, int contentTier, long lastModified) {
+        checkCanAddItem();
+        try {
+            startItem(id);
+            sitemap.write(urlPrefix).write(id).write(LOC_CLOSING_BYTES);
+            if (contentTier != NO_PRIORITY) {
+                sitemap.write(PRIORITY_OPENING_BYTES)
+                        .write(UpdateRecordServiceUtils.getPriorityBytesForTiers(contentTier))
+                        .write(PRIORITY_CLOSING_BYTES);
+            }
+            if (lastModified != NO_LAST_MODIFIED) {
+                writeLastModified(lastModified);
+            }
+            finishItem();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error writing to sitemap file " + sitemapOutput.getFileName(), e);
+        }
+    }
+
+    private void checkCanAddItem() {
         if (generationFinished) {
             throw new IllegalStateException("Cannot add item; " + type + " sitemap generation is already finished.");
         }
         if (!generationStarted) {
             throw new IllegalStateException("Cannot add item; " + type + " sitemap generation is not started yet.");
         }
-        appendItem(url, priority, dateLastModified);
+    }
+
+    /**
+     * @param key key of the item (e.g. record id), we keep track of the first and last key of each file
+     */
+    private void startItem(CharSequence key) throws IOException {
+        if (sitemap == null) {
+            openSitemapFile();
+            firstKey.setLength(0);
+            firstKey.append(key);
+        }
+        lastKey.setLength(0);
+        lastKey.append(key);
+        sitemap.write(URL_LOC_OPENING_BYTES);
+    }
+
+    private void writeLastModified(long lastModified) throws IOException {
+        sitemap.write(LASTMOD_OPENING_BYTES).write(lastModifiedDates.get(lastModified)).write(LASTMOD_CLOSING_BYTES);
+    }
+
+    private void finishItem() throws IOException {
+        sitemap.write(URL_CLOSING_BYTES);
+        nrRecords++;
 
         // check if this sitemap is full and we need to create a new one
-        if (nrRecords % itemsPerSitemap == 0) {
+        if (nrRecords - from + 1 >= itemsPerSitemap) {
             finishSitemapFile();
         }
     }
 
+    /**
+     * Finish the sitemap file that is in progress (if any), so the next item is added to a new file. This can be used
+     * to align files with ranges of items (e.g. ranges of record ids)
+     */
+    public void finishCurrentFile() {
+        checkCanAddItem();
+        if (sitemap != null) {
+            finishSitemapFile();
+        }
+    }
+
+    /**
+     * @return the number of items in the sitemap file that is in progress, 0 if there is none
+     */
+    public long getNrItemsInCurrentFile() {
+        return (sitemap == null ? 0 : nrRecords - from + 1);
+    }
+
+    /**
+     * Reuse a sitemap file from a previous generation. The file is copied (without changing its contents) to a new
+     * file in the current deployment and added to the index. Any sitemap file in progress is finished first.
+     * @param file information about the file (from the manifest of the previous generation)
+     */
+    public void copyFile(SitemapManifest.File file) {
+        finishCurrentFile();
+        long to = from + file.getNrItems() - 1;
+        String fromToText = FROM_PARAM + from + TO_PARAM + to;
+        String fileName = StorageFileName.getSitemapFileName(type, deployment, section, fromToText, gzip);
+        try {
+            fileSink.copy(file.getName(), fileName);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error copying sitemap file " + file.getName() + " to " + fileName, e);
+        }
+        LOG.debug("Copied sitemap file {} to {}", file.getName(), fileName);
+        long lastModified = (file.getLastModified() > 0 ? file.getLastModified() : System.currentTimeMillis());
+        SitemapManifest.File copy = new SitemapManifest.File(fileName, section, from, to, file.getFirstKey(),
+                file.getLastKey(), file.getHash(), lastModified);
+        copy.setSize(file.getSize());
+        addToIndex(fromToText, copy);
+        files.add(copy);
+        nrRecords = to;
+        nrSitemaps++;
+        initSitemapFile();
+        saveCheckpointIfDue();
+    }
+
+    /**
+     * @return the deployment (blue or green) to which files are written
+     */
+    public Deployment getDeployment() {
+        return deployment;
+    }
+
+    /**
+     * Returns information about all sitemap files that were written (or copied), in the order they are listed in the
+     * sitemap index (so including the files of all sections)
+     * @return list of sitemap files
+     */
+    public List<SitemapManifest.File> getFiles() {
+        List<SitemapManifest.File> result = new ArrayList<>(files);
+        synchronized (sections) {
+            for (SitemapGenerator s : sections) {
+                result.addAll(s.files);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return stored size (in bytes) of the sitemap index file, 0 if it wasn't written yet
+     */
+    public long getIndexSize() {
+        return indexSize;
+    }
+
     /**
      * Write the current sitemap that's in progress as well as wrap up the index file. Note that this doesn't switch
-     * from blue to green (or vice versa) deployment yet
+     * from blue to green (or vice versa) deployment yet.
+     * When called on a section only the section's last sitemap file is written; the index file is written when the
+     * main generator is finished.
      */
     public void finish() {
         if (!generationStarted) {
@@ -147,38 +501,102 @@ public class SitemapGenerator {
         if (generationFinished) {
             throw new IllegalStateException("Cannot complete " + type + " sitemap generation. It was already finished.");
         }
-        finishSitemapFile();
+        // note that we don't create a new sitemap file until there is an item to add
+        if (sitemap != null) {
+            finishSitemapFile();
+        }
+        if (parent != null) {
+            LOG.info("Section {} items processed {}, written {} sitemap files", section, nrRecords, nrSitemaps);
+            generationFinished = true;
+            return;
+        }
+
+        long totalRecords = nrRecords;
+        int totalSitemaps = nrSitemaps;
+        synchronized (sections) {
+            for (SitemapGenerator s : sections) {
+                if (!s.generationFinished) {
+                    throw new IllegalStateException("Cannot complete " + type + " sitemap generation. Section "
+                            + s.section + " isn't finished yet.");
+                }
+                totalRecords += s.nrRecords;
+                totalSitemaps += s.nrSitemaps;
+            }
+        }
+        // only write the index when all sitemap files are saved
+        awaitSaved();
         finishSitemapIndex();
+        awaitSaved();
 
-        LOG.info("Items processed {}, written {} sitemap files and 1 sitemap index file", nrRecords, nrSitemaps);
+        LOG.info("Items processed {}, written {} sitemap files and 1 sitemap index file", totalRecords, totalSitemaps);
 
         generationFinished = true;
     }
 
-    private void initSitemapIndex() {
-        LOG.debug("Starting new index...");
-        this.sitemapIndex = new StringBuilder().append(XML_HEADER).append(LN).append(SITEMAP_HEADER_OPENING).append(LN);
+    private void awaitSaved() {
+        try {
+            fileSink.awaitSaved();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error saving " + type + " sitemap files", e);
+        }
     }
 
+    /**
+     * Write the index, listing the sitemap files of this generator followed by those of all sections
+     */
     private void finishSitemapIndex() {
-        this.sitemapIndex.append(SITEMAP_HEADER_CLOSING);
+        StringBuilder sitemapIndex = new StringBuilder()
+                .append(XML_HEADER).append(LN)
+                .append(SITEMAP_HEADER_OPENING).append(LN)
+                .append(sitemapIndexEntries);
+        synchronized (sections) {
+            for (SitemapGenerator s : sections) {
+                sitemapIndex.append(s.sitemapIndexEntries);
+            }
+        }
+        sitemapIndex.append(SITEMAP_HEADER_CLOSING);
 
         String fileName = StorageFileName.getSitemapIndexFileName(type, deployment);
-        String fileContents = this.sitemapIndex.toString();
-        LOG.debug("Generated contents for sitemap index\n{}", fileContents);
-        if (saveToStorage(fileName, fileContents)) {
-            LOG.info("Created sitemap file {}", fileName);
+        LOG.debug("Generated contents for sitemap index\n{}", sitemapIndex);
+        try (CountingOutputStream indexBytes = new CountingOutputStream(fileSink.open(fileName))) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(indexBytes, StandardCharsets.UTF_8));
+            writer.append(sitemapIndex);
+            writer.flush();
+            // the index is never compressed, so its stored size is the number of bytes written
+            indexSize = indexBytes.getByteCount();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error saving sitemap index file " + fileName, e);
         }
+        LOG.info("Created sitemap file {}", fileName);
     }
 
     private void initSitemapFile() {
-        if (sitemap != null) {
+        if (sitemapOutput != null) {
             throw new IllegalStateException("Cannot start new sitemap file. Existing one isn't done yet");
         }
         LOG.debug("Starting new sitemap file...");
         this.fileStartTime = System.currentTimeMillis();
         this.from = nrRecords + 1;
-        this.sitemap = new StringBuilder().append(XML_HEADER).append(LN).append(URLSET_HEADER).append(LN);
+    }
+
+    /**
+     * Opens the sitemap file when the first item is added. Note that the final file name isn't known yet at this point
+     * so we name it after the first item and the maximum number of items it can contain
+     */
+    private void openSitemapFile() {
+        String fromToText = FROM_PARAM + from + TO_PARAM + (from + itemsPerSitemap - 1);
+        String fileName = StorageFileName.getSitemapFileName(type, deployment, section, fromToText, gzip);
+        try {
+            this.sitemapOutput = fileSink.open(fileName);
+            // we count the bytes that are stored, so the stored file can be verified before it's made public
+            this.storedBytes = new CountingOutputStream(sitemapOutput);
+            OutputStream out = (gzip ? new GZIPOutputStream(storedBytes, WRITE_BUFFER_SIZE) : storedBytes);
+            // we hash the uncompressed contents
+            this.sitemap = new Utf8ByteWriter(new DigestOutputStream(out, digest), writeBuffer);
+            this.sitemap.write(URLSET_OPENING_BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error creating sitemap file " + fileName, e);
+        }
     }
 
     /**
@@ -189,95 +607,86 @@ public class SitemapGenerator {
             throw new IllegalStateException("No sitemap file to finish!");
         }
 
-        // add fileName to index (filename is location where file is retrievable for search engines)
+        // write sitemap file, note that the actual filename in storage also contains blue-green information
         String fromToText = FROM_PARAM + from + TO_PARAM + nrRecords;
-        String sitemapFileName = PortalUrl.getSitemapUrlEncoded(websiteBaseUrl, type, fromToText);
-        LOG.debug("Add sitemap file {} to index", sitemapFileName);
-        sitemapIndex.append(SITEMAP_OPENING).append(LN)
-                .append(LOC_OPENING)
-                .append(sitemapFileName)
-                .append(LOC_CLOSING)
-                .append(LN)
-                // TODO if we can compare a sitemap file with the previous version, we can check if it has changed and include a lastmodified?
-                //.append(generateLastModified(new Date()).toString())
-                .append(SITEMAP_CLOSING)
-                .append(LN);
+        String fileName = StorageFileName.getSitemapFileName(type, deployment, section, fromToText, gzip);
+        sitemapOutput.setFileName(fileName);
+        String hash;
+        long lastModified = System.currentTimeMillis();
+        SitemapManifest.File previous;
+        boolean copyPrevious = false;
+        try {
+            sitemap.write(URLSET_CLOSING_BYTES);
+            // all contents are hashed once the buffer is written, so we can check for an unchanged file before saving
+            sitemap.flush();
+            hash = HexFormat.of().formatHex(digest.digest());
+            previous = previousFilesByHash.get(hash);
+            if (previous != null) {
+                lastModified = (previous.getLastModified() > 0 ? previous.getLastModified() : lastModified);
+                copyPrevious = copyPreviousFiles && sitemapOutput.discard();
+            }
+            sitemap.close();
+            if (copyPrevious) {
+                fileSink.copy(previous.getName(), fileName);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error saving sitemap file " + fileName, e);
+        }
 
-        // write sitemap file, note that the actual filename in storage also contains blue-green information
-        sitemap.append(URLSET_HEADER_CLOSING);
-        String fileName = StorageFileName.getSitemapFileName(type, deployment, fromToText);
-        String fileContents = sitemap.toString();
-        LOG.debug("Generated contents for file {}\n{}", fileName, fileContents);
+        // add fileName to index (filename is location where file is retrievable for search engines)
+        SitemapManifest.File file = new SitemapManifest.File(fileName, section, from, nrRecords, firstKey.toString(),
+                lastKey.toString(), hash, lastModified);
+        file.setSize(copyPrevious ? previous.getSize() : storedBytes.getByteCount());
+        addToIndex(fromToText, file);
+        files.add(file);
         nrSitemaps++;
-        if (saveToStorage(fileName, fileContents)) {
+        if (copyPrevious) {
+            LOG.info("Created sitemap file {} in {} ms (unchanged, copied from {})", fileName,
+                    (System.currentTimeMillis() - fileStartTime), previous.getName());
+        } else {
             LOG.info("Created sitemap file {} in {} ms", fileName, (System.currentTimeMillis() - fileStartTime));
         }
         sitemap = null;
+        sitemapOutput = null;
+        storedBytes = null;
         initSitemapFile();
+        saveCheckpointIfDue();
     }
 
+    private void saveCheckpointIfDue() {
+        if (checkpointHandler != null && nrSitemaps % checkpointInterval == 0) {
+            awaitSaved();
+            checkpointHandler.accept(List.copyOf(files));
+        }
+    }
 
-    private void appendItem(String url, String priority, Date dateLastModified) {
-        this.sitemap.append(URL_OPENING).append(LN)
+    /**
+     * Add a sitemap file to the index
+     * @param fromToText from and to parameters of the file
+     * @param file information about the file (for its version and last modified time)
+     */
+    private void addToIndex(String fromToText, SitemapManifest.File file) {
+        String appendix = (versionedUrls && file.getVersion() != null
+                ? fromToText + VERSION_PARAM + file.getVersion()
+                : fromToText);
+        String sitemapFileName = PortalUrl.getSitemapUrlEncoded(websiteBaseUrl, type, section, appendix, gzip);
+        LOG.debug("Add sitemap file {} to index", sitemapFileName);
+        sitemapIndexEntries.append(SITEMAP_OPENING).append(LN)
                 .append(LOC_OPENING)
-                .append(url)
+                .append(sitemapFileName)
                 .append(LOC_CLOSING)
+                .append(LN)
+                .append(LASTMOD_OPENING)
+                // W3C datetime, e.g. 2024-06-12T08:30:15Z
+                .append(Instant.ofEpochMilli(file.getLastModified()).truncatedTo(ChronoUnit.SECONDS))
+                .append(LASTMOD_CLOSING)
+                .append(LN)
+                .append(SITEMAP_CLOSING)
                 .append(LN);
-
-        if (!StringUtils.isEmpty(priority)) {
-            this.sitemap.append(PRIORITY_OPENING)
-                    .append(priority)
-                    .append(PRIORITY_CLOSING)
-                    .append(LN);
-        }
-
-        if (dateLastModified != null) {
-            this.sitemap.append(LASTMOD_OPENING)
-                    .append(DateFormatUtils.format(dateLastModified, DateFormatUtils.ISO_8601_EXTENDED_DATE_FORMAT.getPattern()))
-                    .append(LASTMOD_CLOSING)
-                    .append(LN);
-        }
-
-        this.sitemap.append(URL_CLOSING).append(LN);
-
-        nrRecords++;
-    }
-
-    private boolean saveToStorage(String key, String contents) {
-        boolean result = false;
-
-        LOG.debug("Saving file with key {} and contents {}", key, contents);
-        String eTag = objectStorage.putObject(key, contents);
-
-        // verify is save was successful
-        int nrSaveAttempts = 1;
-        LOG.debug("Checking if file {} exists...", key);
-        result = checkIfFileExists(key);
-        while ((StringUtils.isEmpty(eTag) || !result) && (nrSaveAttempts < MAX_SAVE_ATTEMPTS)) {
-            long timeout = nrSaveAttempts * RETRY_SAVE_INTERVAL;
-            LOG.warn("Failed to save file {} to storage provider (etag = {}, siteMapCacheFileExists={}). "
-                    + "Waiting {} seconds before trying again...", key, eTag, result, (timeout / MS_PER_SEC));
-            try {
-                Thread.sleep(timeout);
-            } catch (InterruptedException e) {
-                LOG.error("Waiting period to retry saving to storage was interrupted", e);
-                Thread.currentThread().interrupt();
-            }
-
-            LOG.info("Retry saving the file...");
-            eTag = objectStorage.putObject(key, contents);
-            result = checkIfFileExists(key);
-            nrSaveAttempts++;
-        }
-        if (nrSaveAttempts >= MAX_SAVE_ATTEMPTS) {
-            LOG.error("Failed to save file {} to storage provider. Giving up because we retried it {} times.", key, nrSaveAttempts);
-        }
-
-        return result;
     }
 
-    private boolean checkIfFileExists(String id) {
-        return objectStorage.isObjectAvailable(id);
+    private static byte[] toBytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
     }
 
 }
@@ -1,30 +1,31 @@
 package eu.europeana.sitemap.service.update;
 
 
-import com.jayway.jsonpath.JsonPath;
-import eu.europeana.features.S3ObjectStorageClient;
 import eu.europeana.sitemap.SitemapType;
 import eu.europeana.sitemap.config.PortalUrl;
 import eu.europeana.sitemap.config.SitemapConfiguration;
 import eu.europeana.sitemap.exceptions.EntityQueryException;
-import eu.europeana.sitemap.exceptions.InvalidApiKeyException;
 import eu.europeana.sitemap.exceptions.SiteMapException;
+import eu.europeana.sitemap.exceptions.SiteMapNotFoundException;
 import eu.europeana.sitemap.service.ActiveDeploymentService;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpStatus;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
+import eu.europeana.sitemap.service.ManifestService;
+import eu.europeana.sitemap.service.SitemapManifest;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
-import java.net.URL;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service for updating the entity sitemap. This class gathers all the relevant entity data to add it to the sitemap
@@ -41,20 +42,34 @@ public class UpdateEntityService extends AbstractUpdateService {
     private static final int ITEMS_PER_SITEMAP_FILE = 15_000;
 
     private static final int ENTITY_QUERY_PAGE_SIZE = 100;
-    private static final String ENTITY_QUERY = "*&scope=europeana&type=agent,concept,timespan,organization&fl=id,type" + //,skos_prefLabel.*"
+    private static final String ENTITY_QUERY = "*&scope=europeana&type=%s&fl=id,type" + //,skos_prefLabel.*"
             "&pageSize=" +ENTITY_QUERY_PAGE_SIZE;
 
     private final SitemapConfiguration config;
     private final PortalUrl portalUrl;
 
-    private CloseableHttpClient httpClient = HttpClients.createDefault();
+    private final EntityApiClient entityApiClient;
 
     @Autowired
-    public UpdateEntityService(SitemapConfiguration config, S3ObjectStorageClient objectStorage, ActiveDeploymentService deploymentService,
-                               MailService mailService, PortalUrl portalUrl) {
-        super(SitemapType.ENTITY, objectStorage, deploymentService, mailService, ITEMS_PER_SITEMAP_FILE);
+    public UpdateEntityService(SitemapConfiguration config, SitemapFileSink fileSink, ActiveDeploymentService deploymentService,
+                               MailService mailService, ManifestService manifestService, PortalUrl portalUrl) {
+        super(SitemapType.ENTITY, fileSink, deploymentService, mailService, manifestService, config, ITEMS_PER_SITEMAP_FILE);
         this.config = config;
         this.portalUrl = portalUrl;
+        this.entityApiClient = new EntityApiClient(config);
+    }
+
+    /**
+     * Regenerate the sitemap files of 1 entity type only, the files of all other types are copied from the active
+     * deployment (if it has them). This is only possible if entity.types.separate is enabled.
+     * @param entityType the entity type to regenerate
+     * @throws SiteMapException when there is an error during the update process
+     */
+    public void update(String entityType) throws SiteMapException {
+        if (!config.isEntityTypesSeparate() || !config.getEntityTypes().contains(entityType)) {
+            throw new SiteMapNotFoundException("There are no separate sitemap files for entity type " + entityType);
+        }
+        update(sitemapGenerator -> generatePerType(sitemapGenerator, config.getEntityTypes(), entityType));
     }
 
     /**
@@ -62,106 +77,253 @@ public class UpdateEntityService extends AbstractUpdateService {
      * Never call this manually! It is automatically called by the UpdateAbstractService
      */
     protected void generate(SitemapGenerator sitemapGenerator) throws SiteMapException {
-        long pageNr = 1;
-        long retrieved = 0;
-        long totalEntities = -1; // we update this value after first request (and check after each new page retrieval)
-
         LOG.info("Retrieving entity data...");
-        while (retrieved < totalEntities || totalEntities < 0) {
-            String entityData = this.getEntityJson(config.getEntityApi(), ENTITY_QUERY, pageNr, config.getEntityApiKey());
-
-            EntityData[] entities = this.parseEntityData(entityData);
-            for (EntityData entity : entities) {
-                LOG.debug("Adding entity {} with type {}", entity.getId(), entity.getType());
-                String url = portalUrl.getEntityUrl("en", entity.getType(), entity.getId());
-                sitemapGenerator.addItem(url, null, null); // there's no priority or lastmodified for entities
+        List<String> types = config.getEntityTypes();
+        if (config.isEntityTypesSeparate()) {
+            generatePerType(sitemapGenerator, types, null);
+        } else {
+            generate(sitemapGenerator, String.format(Locale.ROOT, ENTITY_QUERY, String.join(",", types)));
+        }
+    }
+
+    /**
+     * Retrieve the entities of each type concurrently, and write each type to its own section of the sitemap (e.g.
+     * sitemap-entity-agent.xml?from=1&to=15000). The sections are created in the configured order of the types, so
+     * the sitemap index always lists the types in the same order.
+     * @param onlyType if not null, only this type is retrieved and the files of the other types are copied from the
+     *                 active deployment (if it has them)
+     */
+    private void generatePerType(SitemapGenerator sitemapGenerator, List<String> types, String onlyType)
+            throws SiteMapException {
+        if (onlyType != null) {
+            LOG.info("Regenerating entity type {} only", onlyType);
+        }
+        AtomicInteger threadNr = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(types.size(), runnable -> {
+            Thread t = new Thread(runnable, "entity-type-" + threadNr.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> sections = new ArrayList<>(types.size());
+            for (String type : types) {
+                SitemapGenerator section = sitemapGenerator.createSection(type);
+                List<SitemapManifest.File> previousFiles = (onlyType == null || onlyType.equals(type)
+                        ? List.of() : getPreviousFiles(type));
+                sections.add(executor.submit(() -> {
+                    if (previousFiles.isEmpty()) {
+                        generate(section, String.format(Locale.ROOT, ENTITY_QUERY, type));
+                    } else {
+                        LOG.info("Copying {} sitemap files of entity type {}", previousFiles.size(), type);
+                        previousFiles.forEach(section::copyFile);
+                    }
+                    section.finish();
+                    return null;
+                }));
             }
-            retrieved = retrieved + entities.length;
-            long newTotalEntities = this.getTotalEntitiesCount(entityData);
-            if (totalEntities > 0 && newTotalEntities != totalEntities) {
-                LOG.warn("Total number of entities has changed during update! Not all entities may be listed");
+            for (Future<?> section : sections) {
+                waitFor(section);
             }
-            totalEntities = newTotalEntities;
-            pageNr++;
+        } finally {
+            executor.shutdownNow();
         }
+    }
 
+    /**
+     * @return the files of the active deployment that list entities of the provided type, empty if there are none
+     */
+    private List<SitemapManifest.File> getPreviousFiles(String type) {
+        SitemapManifest previous = getPreviousManifest();
+        if (previous == null) {
+            return List.of();
+        }
+        return previous.getFiles().stream().filter(file -> type.equals(file.getSection())).toList();
     }
 
-    @Override
-    public String getWebsiteBaseUrl() {
-        return config.getPortalBaseUrl();
+    private void generate(SitemapGenerator sitemapGenerator, String query) throws SiteMapException {
+        if (config.isEntityApiCursor() && generateWithCursor(sitemapGenerator, query)) {
+            return;
+        }
+        generateWithPageNumbers(sitemapGenerator, query);
     }
 
     /**
-     * Send query to Entity API and retrieve data
+     * Retrieve all entities page by page with a cursor, so no entities are skipped or listed twice when entities are
+     * added or removed during the update. Each next page is requested while the current page is added to the sitemap.
+     * @return false if the Entity API doesn't support cursors, in which case nothing is added to the sitemap
      */
-    private String getEntityJson(URL entityApi, String query, long pageNr, String wsKey) throws SiteMapException {
-        String result= null;
+    private boolean generateWithCursor(SitemapGenerator sitemapGenerator, String query) throws SiteMapException {
+        String cursor = EntityApiClient.FIRST_CURSOR;
+        EntityPage page = waitFor(getEntityPage(query, cursor));
+        if (page.getNextCursor() == null && page.getEntities().size() < page.getTotal()) {
+            LOG.warn("Entity API did not return a cursor, using page numbers instead");
+            return false;
+        }
+        long retrieved = 0;
+        while (true) {
+            String nextCursor = page.getNextCursor();
+            // Solr returns the same cursor again when there are no more results
+            boolean lastPage = page.getEntities().isEmpty() || nextCursor == null || nextCursor.equals(cursor);
+            CompletableFuture<EntityPage> nextPage = (lastPage ? null : getEntityPage(query, nextCursor));
+            addEntities(sitemapGenerator, page);
+            retrieved = retrieved + page.getEntities().size();
+            if (lastPage) {
+                break;
+            }
+            cursor = nextCursor;
+            page = waitFor(nextPage);
+        }
+        LOG.info("Retrieved {} entities", retrieved);
+        return true;
+    }
 
-        StringBuilder request = new StringBuilder(entityApi.toString());
-        request.append("?query=")
-                .append(query)
-                .append("&page=")
-                .append(pageNr)
-                .append("&wskey=")
-                .append(wsKey);
+    /**
+     * Retrieve all entities by page number. The first page is retrieved on its own, because it tells us the total
+     * number of entities. The remaining pages are then retrieved concurrently (at most entity.api.concurrency requests
+     * at a time), but they are added to the sitemap in page order.
+     */
+    private void generateWithPageNumbers(SitemapGenerator sitemapGenerator, String query) throws SiteMapException {
+        EntityPage firstPage = waitFor(getEntityPage(query, 1));
+        addEntities(sitemapGenerator, firstPage);
+        long totalEntities = firstPage.getTotal();
+        long retrieved = firstPage.getEntities().size();
+        if (retrieved == 0 || retrieved >= totalEntities) {
+            return;
+        }
+        // the API may return fewer items per page than we asked for
+        long pageSize = retrieved;
+        long nrPages = (totalEntities + pageSize - 1) / pageSize;
+        LOG.info("Retrieving {} pages with {} entities...", nrPages, totalEntities);
 
+        int concurrency = config.getEntityApiConcurrency();
+        // pages are requested at most concurrency pages ahead of the page that is added to the sitemap
+        Deque<CompletableFuture<EntityPage>> pending = new ArrayDeque<>(concurrency);
         try {
-            String requestUrl = request.toString();
-            try (CloseableHttpResponse response = httpClient.execute(new HttpGet(requestUrl))) {
-                int responseCode = response.getStatusLine().getStatusCode();
-                LOG.debug("Entity query: {}, status code = {}", request, responseCode);
-                if (responseCode == HttpStatus.SC_UNAUTHORIZED) {
-                    throw new InvalidApiKeyException("API key is not valid");
-                } else if (responseCode != HttpStatus.SC_OK) {
-                    throw new EntityQueryException("Error retrieving entity data: "
-                            + response.getStatusLine().getReasonPhrase()
-                            + ". Response code "+response.getStatusLine().getStatusCode());
+            long nextPageNr = 2;
+            while (nextPageNr <= nrPages || !pending.isEmpty()) {
+                while (nextPageNr <= nrPages && pending.size() < concurrency) {
+                    pending.add(getEntityPage(query, nextPageNr++));
                 }
-
-                HttpEntity entity = response.getEntity();
-                if (entity == null) {
-                    LOG.warn("Reponse = null");
-                } else {
-                    result = EntityUtils.toString(entity);
-                    LOG.debug("Response = {}", result);
-                    EntityUtils.consume(entity); // make sure entity is consumed fully so connection can be reused
+                EntityPage page = waitFor(pending.remove());
+                addEntities(sitemapGenerator, page);
+                retrieved = retrieved + page.getEntities().size();
+                if (page.getTotal() != totalEntities) {
+                    LOG.warn("Total number of entities has changed during update! Not all entities may be listed");
+                    totalEntities = page.getTotal();
+                    nrPages = Math.max(nrPages, (totalEntities + pageSize - 1) / pageSize);
                 }
             }
-        } catch (IOException e) {
-            throw new EntityQueryException("Error retrieving entity data", e);
+            LOG.info("Retrieved {} entities", retrieved);
+        } finally {
+            pending.forEach(page -> page.cancel(true));
+        }
+    }
+
+    private void addEntities(SitemapGenerator sitemapGenerator, EntityPage page) {
+        for (EntityData entity : page.getEntities()) {
+            LOG.debug("Adding entity {} with type {}", entity.getId(), entity.getType());
+            String url = portalUrl.getEntityUrl("en", entity.getType(), entity.getId());
+            sitemapGenerator.addItem(url, null, null); // there's no priority or lastmodified for entities
         }
+    }
 
-        return result;
+    /**
+     * Retrieve one page of entities by page number (asynchronously)
+     */
+    private CompletableFuture<EntityPage> getEntityPage(String query, long pageNr) {
+        List<EntityData> entities = new ArrayList<>(ENTITY_QUERY_PAGE_SIZE);
+        return entityApiClient.getPage(query, pageNr, entities::add)
+                .thenApply(result -> new EntityPage(entities, result));
     }
 
-    private long getTotalEntitiesCount(String entityJson) {
-        return JsonPath.parse(entityJson).read("$.partOf.total", Long.class);
+    /**
+     * Retrieve one page of entities by cursor (asynchronously)
+     */
+    private CompletableFuture<EntityPage> getEntityPage(String query, String cursor) {
+        List<EntityData> entities = new ArrayList<>(ENTITY_QUERY_PAGE_SIZE);
+        return entityApiClient.getPage(query, cursor, entities::add)
+                .thenApply(result -> new EntityPage(entities, result));
     }
 
-    private EntityData[]  parseEntityData(String entityJson) {
-        return JsonPath.parse(entityJson).read("$.items[*]", EntityData[].class);
+    private static <T> T waitFor(Future<T> future) throws SiteMapException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SiteMapException siteMapException) {
+                throw siteMapException;
+            }
+            throw new EntityQueryException("Error retrieving entity data", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EntityQueryException("Interrupted while retrieving entity data", e);
+        }
+    }
+
+    @Override
+    public String getWebsiteBaseUrl() {
+        return config.getPortalBaseUrl();
+    }
+
+    /**
+     * One page of Entity API results
+     */
+    private static final class EntityPage {
+
+        private final List<EntityData> entities;
+        private final EntityResponseParser.Result result;
+
+        EntityPage(List<EntityData> entities, EntityResponseParser.Result result) {
+            this.entities = entities;
+            this.result = result;
+        }
+
+        /**
+         * @return entities on this page
+         */
+        List<EntityData> getEntities() {
+            return entities;
+        }
+
+        /**
+         * @return total number of entities (on all pages)
+         */
+        long getTotal() {
+            return result.getTotal();
+        }
+
+        /**
+         * @return cursor of the next page, null if not available
+         */
+        String getNextCursor() {
+            return result.getNextCursor();
+        }
     }
 
     /**
      * Class that contains all entity fields we specified in the query
      */
-    public static class EntityData extends HashMap<String, Object> {
+    public static class EntityData {
 
-        private static final long serialVersionUID = 9157945603571553860L;
+        private final String id;
+        private final String type;
+
+        public EntityData(String id, String type) {
+            this.id = id;
+            this.type = type;
+        }
 
         /**
          * @return the entity id (url with data.europeana.eu as FQDN)
          */
         public String getId() {
-            return (String) this.get("id");
+            return id;
         }
 
         /**
          * @return the type of Entity (agent or concept)
          */
         public String getType() {
-            return (String) this.get("type");
+            return type;
         }
     }
 }
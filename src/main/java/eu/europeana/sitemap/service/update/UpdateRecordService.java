@@ -1,28 +1,53 @@
 package eu.europeana.sitemap.service.update;
 
 
+import com.mongodb.BasicDBObject;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
-import eu.europeana.features.S3ObjectStorageClient;
 import eu.europeana.sitemap.Constants;
 import eu.europeana.sitemap.SitemapType;
 import eu.europeana.sitemap.config.PortalUrl;
 import eu.europeana.sitemap.config.SitemapConfiguration;
+import eu.europeana.sitemap.exceptions.SiteMapException;
 import eu.europeana.sitemap.mongo.MongoProvider;
+import eu.europeana.sitemap.mongo.RecordData;
 import eu.europeana.sitemap.service.ActiveDeploymentService;
+import eu.europeana.sitemap.service.ManifestService;
+import eu.europeana.sitemap.service.SitemapManifest;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PreDestroy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service for updating the record sitemap. The primary responsibility of this class is gathering record information
  * and adding each record to the sitemap. The rest of the update process is handled by the underlying abstract service.
  *
+ * In ordered mode records are read in order of their about field (using the about index, so without an in-memory
+ * sort) and a manifest listing the key range and hash of each file is saved with each deployment. The next update
+ * starts new files at the same keys as before where possible, so files keep the same records between updates.
+ * In incremental mode (which implies ordered mode) the next update only regenerates the files that contain records
+ * that were updated (or created) since the previous update; all other files are copied from the active deployment.
+ * In both modes a checkpoint is saved every so many files, so an update that doesn't finish (e.g. because the
+ * application is stopped) can be continued by the next update after the last record of the checkpoint.
+ *
  * Created by ymamakis on 11/16/15.
  * Major refactoring by Patrick Ehlert on February 2019 and June 2024
  */
@@ -31,17 +56,33 @@ public class UpdateRecordService extends AbstractUpdateService {
 
     private static final Logger LOG = LogManager.getLogger(UpdateRecordService.class);
 
+    private static final int SAMPLES_PER_PARTITION = 100;
+    private static final String PARTITION_NAME = "p%02d";
+    // records updated shortly before the previous update started are included as well, in case clocks differ
+    private static final long UPDATED_MARGIN_MS = TimeUnit.HOURS.toMillis(1);
+    // files of a previous update that are less than half full are merged with the next file
+    private static final long MIN_ITEMS_AT_BOUNDARY = Constants.ITEMS_PER_SITEMAP_FILE / 2;
+
     private final SitemapConfiguration config;
     private final PortalUrl portalUrl;
     private final MongoProvider mongoProvider;
+    private final PrefetchMetrics prefetchMetrics;
+    private final AtomicInteger prefetchThreadNr = new AtomicInteger(0);
+
+    private long generationStartTime;
+    private long lastFullRunTime;
+    private boolean incrementalRun;
 
     @Autowired
-    public UpdateRecordService(S3ObjectStorageClient objectStorage, ActiveDeploymentService deploymentService,
-                               MailService mailService, PortalUrl portalUrl, SitemapConfiguration config) {
-        super(SitemapType.RECORD, objectStorage, deploymentService, mailService, Constants.ITEMS_PER_SITEMAP_FILE);
+    public UpdateRecordService(SitemapFileSink fileSink, ActiveDeploymentService deploymentService,
+                               MailService mailService, PortalUrl portalUrl, SitemapConfiguration config,
+                               ManifestService manifestService, MeterRegistry meterRegistry) {
+        super(SitemapType.RECORD, fileSink, deploymentService, mailService, manifestService, config,
+                Constants.ITEMS_PER_SITEMAP_FILE);
         this.config = config;
         this.portalUrl = portalUrl;
         this.mongoProvider = config.mongoProvider();
+        this.prefetchMetrics = new PrefetchMetrics(meterRegistry, SitemapType.RECORD.toString());
     }
 
     /**
@@ -49,23 +90,445 @@ public class UpdateRecordService extends AbstractUpdateService {
      * Never call this manually! It is automatically called by the UpdateAbstractService
      */
     @Override
-    protected void generate(SitemapGenerator sitemapGenerator) {
-        MongoCursor<Document> cursor = getRecordData();
-        while (cursor.hasNext()) {
-            Document doc = cursor.next();
-            // gather the required data
-            String about = doc.get(Constants.ABOUT).toString();
-            int contentTier = Integer.parseInt(doc.get(Constants.CONTENT_TIER).toString());
-            String metaDataTier = doc.get(Constants.METADATA_TIER).toString();
-            Object timestampUpdated = doc.get(Constants.LASTUPDATED);
+    protected void generate(SitemapGenerator sitemapGenerator) throws SiteMapException {
+        generationStartTime = System.currentTimeMillis();
+        lastFullRunTime = generationStartTime;
+        incrementalRun = false;
+        int nrPartitions = config.getRecordPartitions();
+        if (!isOrdered()) {
+            if (nrPartitions > 1) {
+                generatePartitioned(sitemapGenerator, getPartitionSplitPoints(nrPartitions, Constants.ID, ObjectId.class),
+                        Constants.ID, false, List.of());
+            } else {
+                addRecords(sitemapGenerator, Constants.ID, null, null, false, List.of(), false);
+            }
+            return;
+        }
+
+        SitemapManifest previous = getPreviousOrderedManifest();
+        List<String> boundaryKeys = (previous == null ? List.of() : previous.getFiles().stream()
+                .map(SitemapManifest.File::getFirstKey).toList());
+        SitemapManifest checkpoint = getResumedCheckpoint();
+        if (checkpoint != null) {
+            // continue in the same mode as the interrupted update
+            lastFullRunTime = checkpoint.getLastFullRun();
+            String resumeKey = getResumeKey(checkpoint);
+            if (checkpoint.isIncremental()) {
+                generateIncremental(sitemapGenerator, previous, boundaryKeys, resumeKey);
+            } else {
+                addRecords(sitemapGenerator, Constants.ABOUT, resumeKey, null, true, boundaryKeys, true);
+            }
+        } else if (config.isRecordIncremental() && canReuseFiles(previous)) {
+            if (nrPartitions > 1) {
+                LOG.warn("Incremental record update, ignoring record.partitions setting");
+            }
+            generateIncremental(sitemapGenerator, previous, boundaryKeys, null);
+        } else if (nrPartitions > 1) {
+            generatePartitioned(sitemapGenerator, getOrderedSplitPoints(nrPartitions, previous), Constants.ABOUT, true,
+                    boundaryKeys);
+        } else {
+            addRecords(sitemapGenerator, Constants.ABOUT, null, null, true, boundaryKeys, false);
+        }
+    }
+
+    private boolean isOrdered() {
+        return config.isRecordOrdered() || config.isRecordIncremental();
+    }
+
+    /**
+     * Checkpoints are only saved in ordered mode, when records are read with a single query (or a series of queries
+     * in incremental mode). Partitioned updates don't save checkpoints because their files are written in sections.
+     */
+    @Override
+    protected int getCheckpointInterval() {
+        return (isOrdered() ? config.getRecordCheckpointInterval() : 0);
+    }
+
+    @Override
+    protected boolean canResume(SitemapManifest checkpoint) {
+        // an incremental update copies files from the active deployment, so we need its manifest as well
+        return isOrdered() && Constants.ABOUT.equals(checkpoint.getOrder())
+                && getRecordFilter().equals(checkpoint.getFilter())
+                && checkpoint.getFiles().stream().allMatch(file -> file.getSection() == null)
+                && (!checkpoint.isIncremental() || getPreviousOrderedManifest() != null);
+    }
+
+    /**
+     * @return key of the last record in the checkpoint, generation continues with the record after it
+     */
+    private static String getResumeKey(SitemapManifest checkpoint) {
+        List<SitemapManifest.File> files = checkpoint.getFiles();
+        return files.get(files.size() - 1).getLastKey();
+    }
+
+    /**
+     * Regenerate the files that contain updated records and copy all other files, based on the manifest of the active
+     * deployment. Consecutive files that need to be regenerated are read with 1 query.
+     * @param resumeKey if not null, all records up to and including this key were already generated by an
+     *                  update that didn't finish
+     */
+    private void generateIncremental(SitemapGenerator sitemapGenerator, SitemapManifest previous,
+                                     List<String> boundaryKeys, String resumeKey) {
+        lastFullRunTime = previous.getLastFullRun();
+        incrementalRun = true;
+        List<SitemapManifest.File> files = previous.getFiles();
+        boolean[] changed = getChangedFiles(files, previous.getStarted() - UPDATED_MARGIN_MS);
+        int nrRegenerated = 0;
+        int nrCopied = 0;
+        for (IncrementalStep step : planIncremental(files, changed, resumeKey)) {
+            if (step.getCopy() != null) {
+                sitemapGenerator.copyFile(step.getCopy());
+                nrCopied++;
+            } else {
+                addRecords(sitemapGenerator, Constants.ABOUT, step.getFromKey(), step.getToKey(), true, boundaryKeys,
+                        step.isExcludeFromKey());
+                sitemapGenerator.finishCurrentFile();
+                nrRegenerated += step.getNrFiles();
+            }
+        }
+        LOG.info("Regenerated {} and copied {} record sitemap files", nrRegenerated, nrCopied);
+    }
+
+    /**
+     * Determine which files of the previous update are copied and which ranges of records are read again. Each range
+     * replaces a run of consecutive changed files; the first and last range also get all records before/after them
+     * (e.g. records that were added before the first key of the previous update).
+     * @param files files of the previous update, in order of their keys
+     * @param changed for each file whether it contains changed records
+     * @param resumeKey if not null, all records up to and including this key were already generated by an update that
+     *                  didn't finish, so files and ranges before it are skipped
+     * @return the steps of the update, in order
+     */
+    static List<IncrementalStep> planIncremental(List<SitemapManifest.File> files, boolean[] changed,
+                                                 String resumeKey) {
+        boolean[] regenerate = changed.clone();
+        if (resumeKey != null) {
+            // the interrupted update may have stopped halfway a file, the rest of that file needs to be regenerated
+            int resumeIndex = getFileIndex(files, resumeKey);
+            regenerate[resumeIndex] = regenerate[resumeIndex]
+                    || files.get(resumeIndex).getLastKey().compareTo(resumeKey) > 0;
+        }
+        List<IncrementalStep> result = new ArrayList<>();
+        int i = 0;
+        while (i < files.size()) {
+            if (!regenerate[i]) {
+                if (resumeKey == null || files.get(i).getLastKey().compareTo(resumeKey) > 0) {
+                    result.add(new IncrementalStep(files.get(i)));
+                }
+                i++;
+                continue;
+            }
+            int last = i;
+            while (last + 1 < files.size() && regenerate[last + 1]) {
+                last++;
+            }
+            String fromKey = (i == 0 ? null : files.get(i).getFirstKey());
+            String toKey = (last == files.size() - 1 ? null : files.get(last + 1).getFirstKey());
+            boolean resumed = resumeKey != null && (fromKey == null || fromKey.compareTo(resumeKey) <= 0);
+            if (!resumed) {
+                result.add(new IncrementalStep(fromKey, toKey, false, last - i + 1));
+            } else if (toKey == null || toKey.compareTo(resumeKey) > 0) {
+                result.add(new IncrementalStep(resumeKey, toKey, true, last - i + 1));
+            }
+            i = last + 1;
+        }
+        return result;
+    }
+
+    /**
+     * @return the manifest of the active deployment, or null if there is none or its records were not ordered
+     */
+    private SitemapManifest getPreviousOrderedManifest() {
+        SitemapManifest result = getPreviousManifest();
+        if (result == null || !Constants.ABOUT.equals(result.getOrder()) || result.getFiles().isEmpty()) {
+            LOG.info("No manifest of previous ordered record sitemap update available");
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * @return description of the content and metadata tiers of the records that are included in the sitemap
+     */
+    private String getRecordFilter() {
+        return "contentTier=" + config.getRecordContentTier() + ";metadataTier=" + config.getRecordMetadataTier();
+    }
+
+    /**
+     * Check if the files of the previous update can be reused for an incremental update
+     * @param previous manifest of the previous update, can be null
+     * @return true if the files can be reused, false if all files should be regenerated
+     */
+    private boolean canReuseFiles(SitemapManifest previous) {
+        if (previous == null) {
+            return false;
+        }
+        if (previous.isGzip() != config.isGenerateGzip()) {
+            LOG.info("Gzip setting changed since previous record sitemap update, regenerating all files");
+            return false;
+        }
+        if (!getRecordFilter().equals(previous.getFilter())) {
+            LOG.info("Record filters changed since previous record sitemap update (was {}, now {}), regenerating all "
+                    + "files", previous.getFilter(), getRecordFilter());
+            return false;
+        }
+        long fullRunInterval = TimeUnit.DAYS.toMillis(config.getRecordIncrementalFullRunDays());
+        if (generationStartTime - previous.getLastFullRun() >= fullRunInterval) {
+            LOG.info("Last full record sitemap update was more than {} days ago, regenerating all files",
+                    config.getRecordIncrementalFullRunDays());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Determine which files contain records that were updated (or created) since the provided time.
+     * @param files files of the previous update, in order of their keys
+     * @param since time in ms since epoch
+     * @return array with for each file whether it needs to be regenerated
+     */
+    private boolean[] getChangedFiles(List<SitemapManifest.File> files, long since) {
+        boolean[] result = new boolean[files.size()];
+        long nrUpdated = 0;
+        LOG.info("Retrieving records updated since {}...", new Date(since));
+        if (!mongoProvider.hasIndex(Constants.LASTUPDATED)) {
+            LOG.warn("Record collection has no index on {}, retrieving updated records requires a collection scan",
+                    Constants.LASTUPDATED);
+        }
+        try (MongoCursor<RecordData> cursor = mongoProvider.getRecordDataCollection()
+                .find(new BasicDBObject(Constants.LASTUPDATED, new BasicDBObject(Constants.GTE, new Date(since))))
+                .projection(new BasicDBObject(Constants.ABOUT, 1L))
+                .batchSize(Constants.ITEMS_PER_SITEMAP_FILE)
+                .cursor()) {
+            while (cursor.hasNext()) {
+                result[getFileIndex(files, cursor.next().getAbout())] = true;
+                nrUpdated++;
+            }
+        }
+        LOG.info("Found {} updated records", nrUpdated);
+        return result;
+    }
+
+    /**
+     * Find the file to which a record belongs, i.e. the last file with a first key that is not greater than the
+     * record's key. Keys before the first file belong to the first file.
+     * @param files files in order of their keys
+     * @param key key (about) of the record
+     * @return index of the file
+     */
+    static int getFileIndex(List<SitemapManifest.File> files, String key) {
+        int low = 0;
+        int high = files.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (files.get(mid).getFirstKey().compareTo(key) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * In ordered mode, record the order, the last full run and whether this update is incremental in the manifest, so
+     * the next update can reuse the files (or resume the update in the same mode)
+     */
+    @Override
+    protected void completeManifest(SitemapManifest manifest) {
+        if (isOrdered()) {
+            manifest.setOrder(Constants.ABOUT);
+            manifest.setFilter(getRecordFilter());
+            manifest.setLastFullRun(lastFullRunTime);
+            manifest.setIncremental(incrementalRun);
+        }
+    }
+
+    /**
+     * Read a range of records and add them to the sitemap
+     * @param sitemapGenerator generator (or section) to which records are added
+     * @param keyField field on which the range of records is selected (and optionally sorted)
+     * @param fromKey first key to retrieve (inclusive), null to start at the first record
+     * @param toKey last key to retrieve (exclusive), null to end at the last record
+     * @param ordered if true, records are read in order of the key field
+     * @param boundaryKeys first keys of the files of the previous update (only used when records are ordered)
+     * @param excludeFromKey if true, the record with the first key is not added (e.g. because it was added already)
+     */
+    private void addRecords(SitemapGenerator sitemapGenerator, String keyField, Object fromKey, Object toKey,
+                            boolean ordered, List<String> boundaryKeys, boolean excludeFromKey) {
+        MongoCursor<RecordData> cursor = getRecordData(keyField, fromKey, toKey, ordered);
+        Object skipKey = (excludeFromKey ? fromKey : null);
+        int prefetchSize = config.getRecordPrefetchSize();
+        if (prefetchSize > 0) {
+            // the cursor is closed by the prefetch thread
+            try (PrefetchIterator<RecordData> records = new PrefetchIterator<>(cursor, prefetchSize,
+                    "record-prefetch-" + prefetchThreadNr.incrementAndGet(), prefetchMetrics)) {
+                addRecords(sitemapGenerator, records, new FileBoundaries(boundaryKeys), skipKey);
+            }
+        } else {
+            try (cursor) {
+                addRecords(sitemapGenerator, cursor, new FileBoundaries(boundaryKeys), skipKey);
+            }
+        }
+    }
+
+    /**
+     * Start a new file where a file started in the previous update, unless the current file is less than half full (so
+     * small files are merged with the next file over time)
+     * @param boundaries first keys of the files of the previous update, checked in order
+     * @param key key of the item that is about to be added
+     * @param nrItemsInCurrentFile number of items in the file that is being generated
+     * @return true if the item should start a new file
+     */
+    static boolean isNewFile(FileBoundaries boundaries, String key, long nrItemsInCurrentFile) {
+        // always check the boundaries, so they keep track of the current key
+        return boundaries.isCrossed(key) && nrItemsInCurrentFile >= MIN_ITEMS_AT_BOUNDARY;
+    }
+
+    private void addRecords(SitemapGenerator sitemapGenerator, Iterator<RecordData> records, FileBoundaries boundaries,
+                            Object skipKey) {
+        String recordUrlPrefix = portalUrl.getRecordUrlPrefix();
+        while (records.hasNext()) {
+            RecordData record = records.next();
+            String about = record.getAbout();
+            if (about.equals(skipKey)) {
+                continue;
+            }
+            if (isNewFile(boundaries, about, sitemapGenerator.getNrItemsInCurrentFile())) {
+                sitemapGenerator.finishCurrentFile();
+            }
+            int contentTier = (record.getContentTier() == RecordData.NO_CONTENT_TIER
+                    ? SitemapGenerator.NO_PRIORITY : record.getContentTier());
             // very old records do not have a timestampUpdated or timestampCreated field
-            Date dateUpdated = (timestampUpdated == null ? null : (Date) timestampUpdated);
+            long lastUpdated = (record.getLastUpdated() == RecordData.NO_LAST_UPDATED
+                    ? SitemapGenerator.NO_LAST_MODIFIED : record.getLastUpdated());
+
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Adding record {}, contentTier = {}, metadataTier = {} , updated = {}", recordUrlPrefix + about,
+                        contentTier, record.getMetadataTier(),
+                        (lastUpdated == SitemapGenerator.NO_LAST_MODIFIED ? null : new Date(lastUpdated)));
+            }
+            sitemapGenerator.addItem(recordUrlPrefix, about, contentTier, lastUpdated);
+        }
+    }
+
+    /**
+     * Split the record collection into key ranges and read each range concurrently with its own cursor. Each range
+     * is written to a separate section of the sitemap, so the sitemap index lists the files in key order.
+     * @param splitPoints keys at which the collection is split, in order
+     * @param keyField field on which the collection is split
+     * @param ordered if true, records in each range are read in order of the key field
+     * @param boundaryKeys first keys of the files of the previous update (only used when records are ordered)
+     */
+    private void generatePartitioned(SitemapGenerator sitemapGenerator, List<?> splitPoints, String keyField,
+                                     boolean ordered, List<String> boundaryKeys) throws SiteMapException {
+        int nrRanges = splitPoints.size() + 1;
+        LOG.info("Reading records in {} partitions...", nrRanges);
+
+        AtomicInteger threadNr = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(nrRanges, runnable -> {
+            Thread t = new Thread(runnable, "record-partition-" + threadNr.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> partitions = new ArrayList<>(nrRanges);
+            for (int i = 0; i < nrRanges; i++) {
+                Object fromKey = (i == 0 ? null : splitPoints.get(i - 1));
+                Object toKey = (i == nrRanges - 1 ? null : splitPoints.get(i));
+                // sections are created here (in order) so the index order doesn't depend on which partition finishes first
+                SitemapGenerator section = sitemapGenerator.createSection(String.format(Locale.ROOT, PARTITION_NAME, i + 1));
+                partitions.add(executor.submit(() -> {
+                    addRecords(section, keyField, fromKey, toKey, ordered, boundaryKeys, false);
+                    section.finish();
+                }));
+            }
+            for (Future<?> partition : partitions) {
+                partition.get();
+            }
+        } catch (ExecutionException e) {
+            throw new SiteMapException("Error generating record sitemap partition", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SiteMapException("Interrupted while generating record sitemap partitions", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Determine the about values at which the record collection is split for an ordered update. If possible the
+     * split points of the previous update are reused, so the sections contain the same records as before.
+     * @param nrPartitions desired number of partitions
+     * @param previous manifest of the previous update, can be null
+     * @return sorted list of split points
+     */
+    private List<String> getOrderedSplitPoints(int nrPartitions, SitemapManifest previous) {
+        if (previous != null) {
+            List<String> result = getSectionSplitPoints(previous.getFiles());
+            if (result.size() == nrPartitions - 1) {
+                LOG.debug("Reusing partition split points {}", result);
+                return result;
+            }
+        }
+        return getPartitionSplitPoints(nrPartitions, Constants.ABOUT, String.class);
+    }
+
+    /**
+     * @param files files of a previous update, in order
+     * @return the first key of each section except the first, empty if the files are not in sections
+     */
+    static List<String> getSectionSplitPoints(List<SitemapManifest.File> files) {
+        List<String> result = new ArrayList<>();
+        String section = null;
+        for (SitemapManifest.File file : files) {
+            if (file.getSection() != null && !file.getSection().equals(section)) {
+                // the first section starts at the first record, so that's not a split point
+                if (section != null) {
+                    result.add(file.getFirstKey());
+                }
+                section = file.getSection();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Determine the values at which the record collection is split, based on a random sample of the key field
+     * @param nrPartitions desired number of partitions
+     * @param keyField field on which the collection is split
+     * @param keyClass type of the key field
+     * @return sorted list of split points (at most nrPartitions - 1), empty if the collection can't be split
+     */
+    private <T extends Comparable<T>> List<T> getPartitionSplitPoints(int nrPartitions, String keyField, Class<T> keyClass) {
+        MongoCollection<Document> collection = mongoProvider.getCollection();
+        List<T> sample = new ArrayList<>();
+        collection.aggregate(List.of(
+                new BasicDBObject(Constants.SAMPLE, new BasicDBObject("size", nrPartitions * SAMPLES_PER_PARTITION)),
+                new BasicDBObject(Constants.PROJECT, new BasicDBObject(keyField, 1L))))
+                .forEach(doc -> sample.add(doc.get(keyField, keyClass)));
+        Collections.sort(sample);
+        List<T> result = getSplitPoints(sample, nrPartitions);
+        LOG.debug("Partition split points are {}", result);
+        return result;
+    }
 
-            String url = portalUrl.getRecordUrl(about);
-            LOG.trace("Adding record {}, contentTier = {}, metadataTier = {} , updated = {}", url, contentTier, metaDataTier, dateUpdated);
-            sitemapGenerator.addItem(url, UpdateRecordServiceUtils.getPriorityForTiers(contentTier), dateUpdated);
+    /**
+     * Pick split points at equal distances in a sorted sample of keys. Duplicate split points are left out, so
+     * there are fewer partitions if the sample contains many equal keys.
+     * @param sortedSample sample of the key field, in order
+     * @param nrPartitions desired number of partitions
+     * @return sorted list of unique split points (at most nrPartitions - 1), empty if the sample is empty
+     */
+    static <T extends Comparable<T>> List<T> getSplitPoints(List<T> sortedSample, int nrPartitions) {
+        List<T> result = new ArrayList<>();
+        for (int i = 1; i < nrPartitions && !sortedSample.isEmpty(); i++) {
+            T splitPoint = sortedSample.get(i * sortedSample.size() / nrPartitions);
+            if (result.isEmpty() || result.get(result.size() - 1).compareTo(splitPoint) < 0) {
+                result.add(splitPoint);
+            }
         }
-        cursor.close();
+        return result;
     }
 
     @Override
@@ -76,13 +539,18 @@ public class UpdateRecordService extends AbstractUpdateService {
     /**
      * Gets the record data based on contentTier, metadataTier value
      * Note: Don't pass value of the filter (in property file), we do not want to add
-     * @return
+     * @param keyField field on which the range of records is selected (and optionally sorted)
+     * @param fromKey first key to retrieve (inclusive), null to start at the first record
+     * @param toKey last key to retrieve (exclusive), null to end at the last record
+     * @param sortByKey if true, records are returned in order of the key field
+     * @return cursor with the record data
      */
-    private MongoCursor<Document> getRecordData() {
-        MongoCollection<Document> collection = mongoProvider.getCollection();
+    private MongoCursor<RecordData> getRecordData(String keyField, Object fromKey, Object toKey, boolean sortByKey) {
+        MongoCollection<RecordData> collection = mongoProvider.getRecordDataCollection();
         LOG.info("Starting record query...");
-        MongoCursor<Document> cursor = collection
-                .aggregate(UpdateRecordServiceUtils.getPipeline(config.getRecordContentTier(), config.getRecordMetadataTier()))
+        MongoCursor<RecordData> cursor = collection
+                .aggregate(UpdateRecordServiceUtils.getPipeline(config.getRecordContentTier(), config.getRecordMetadataTier(),
+                        keyField, fromKey, toKey, sortByKey))
                 .batchSize(Constants.ITEMS_PER_SITEMAP_FILE)
                 .cursor();
         LOG.info("Query finished. Retrieving records...");
@@ -96,4 +564,69 @@ public class UpdateRecordService extends AbstractUpdateService {
         }
     }
 
+    /**
+     * Part of an incremental update: either a file of the previous update that is copied, or a range of records that
+     * is read again (and replaces 1 or more files of the previous update)
+     */
+    static final class IncrementalStep {
+
+        private final SitemapManifest.File copy;
+        private final String fromKey;
+        private final String toKey;
+        private final boolean excludeFromKey;
+        private final int nrFiles;
+
+        IncrementalStep(SitemapManifest.File copy) {
+            this(copy, null, null, false, 1);
+        }
+
+        IncrementalStep(String fromKey, String toKey, boolean excludeFromKey, int nrFiles) {
+            this(null, fromKey, toKey, excludeFromKey, nrFiles);
+        }
+
+        private IncrementalStep(SitemapManifest.File copy, String fromKey, String toKey, boolean excludeFromKey,
+                                int nrFiles) {
+            this.copy = copy;
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+            this.excludeFromKey = excludeFromKey;
+            this.nrFiles = nrFiles;
+        }
+
+        /**
+         * @return the file to copy, null if records are read
+         */
+        SitemapManifest.File getCopy() {
+            return copy;
+        }
+
+        /**
+         * @return first key of the records to read (inclusive), null to start at the first record
+         */
+        String getFromKey() {
+            return fromKey;
+        }
+
+        /**
+         * @return last key of the records to read (exclusive), null to end at the last record
+         */
+        String getToKey() {
+            return toKey;
+        }
+
+        /**
+         * @return true if the record with the first key was already added (by an update that didn't finish)
+         */
+        boolean isExcludeFromKey() {
+            return excludeFromKey;
+        }
+
+        /**
+         * @return the number of files of the previous update that are replaced (or copied)
+         */
+        int getNrFiles() {
+            return nrFiles;
+        }
+    }
+
 }
@@ -5,6 +5,7 @@ import eu.europeana.sitemap.Constants;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -19,6 +20,13 @@ public final class UpdateRecordServiceUtils {
 
     private static final Logger LOG = LogManager.getLogger(UpdateRecordServiceUtils.class);
 
+    private static final int MAX_CONTENT_TIER = 4;
+    private static final byte[][] PRIORITY_BYTES = new byte[MAX_CONTENT_TIER + 1][];
+    static {
+        for (int tier = 0; tier <= MAX_CONTENT_TIER; tier++) {
+            PRIORITY_BYTES[tier] = getPriorityForTiers(tier).getBytes(StandardCharsets.UTF_8);
+        }
+    }
 
     private UpdateRecordServiceUtils() {
         // empty constructor to prevent initialization
@@ -37,6 +45,19 @@ public final class UpdateRecordServiceUtils {
        return String.valueOf(priority);
     }
 
+    /**
+     * Same as getPriorityForTiers, but returns the priority as UTF-8 encoded bytes. For valid content tiers a
+     * precomputed value is returned, so no new objects are created
+     * @param contentTier contentTier to use for calculating priority
+     * @return UTF-8 encoded priority, do not modify the returned array!
+     */
+    public static byte[] getPriorityBytesForTiers(int contentTier) {
+        if (contentTier >= 0 && contentTier <= MAX_CONTENT_TIER) {
+            return PRIORITY_BYTES[contentTier];
+        }
+        return getPriorityForTiers(contentTier).getBytes(StandardCharsets.UTF_8);
+    }
+
     /**
      * Returns the aggregation pipeline : [
      *  {$project: {
@@ -92,6 +113,55 @@ public final class UpdateRecordServiceUtils {
         return Arrays.asList(getTiersIndividually, getTierValues, matchCriteria);
     }
 
+    /**
+     * Returns the aggregation pipeline for a range of records (see getPipeline(String, String)). The range is
+     * selected with a $match stage on _id that is added at the start of the pipeline, so it can use the _id index
+     * {$match: {_id: {$gte: <fromId>, $lt: <toId>}}}
+     *
+     * @param contentTier contentTier values to be included
+     * @param metadataTier metadataTier values to be included
+     * @param fromId first _id of the range (inclusive), null to start at the first record
+     * @param toId last _id of the range (exclusive), null to end at the last record
+     * @return List<BasicDBObject>
+     */
+    public static List<BasicDBObject> getPipeline(String contentTier, String metadataTier, Object fromId, Object toId) {
+        return getPipeline(contentTier, metadataTier, Constants.ID, fromId, toId, false);
+    }
+
+    /**
+     * Returns the aggregation pipeline for a range of records (see getPipeline(String, String)), selected on the
+     * provided key field. Optionally records are sorted on the key field. Both stages are added at the start of the
+     * pipeline so they can use an index on the key field (and there's no in-memory sort)
+     * {$match: {<keyField>: {$gte: <fromKey>, $lt: <toKey>}}}, {$sort: {<keyField>: 1}}
+     *
+     * @param contentTier contentTier values to be included
+     * @param metadataTier metadataTier values to be included
+     * @param keyField field that determines the range (e.g. _id or about)
+     * @param fromKey first key of the range (inclusive), null to start at the first record
+     * @param toKey last key of the range (exclusive), null to end at the last record
+     * @param sortByKey if true records are returned in order of the key field
+     * @return List<BasicDBObject>
+     */
+    public static List<BasicDBObject> getPipeline(String contentTier, String metadataTier, String keyField,
+                                                  Object fromKey, Object toKey, boolean sortByKey) {
+        BasicDBObject keyRange = new BasicDBObject();
+        if (fromKey != null) {
+            keyRange.append(Constants.GTE, fromKey);
+        }
+        if (toKey != null) {
+            keyRange.append(Constants.LT, toKey);
+        }
+        List<BasicDBObject> result = new ArrayList<>();
+        if (!keyRange.isEmpty()) {
+            result.add(new BasicDBObject(Constants.MATCH, new BasicDBObject(keyField, keyRange)));
+        }
+        if (sortByKey) {
+            result.add(new BasicDBObject(Constants.SORT, new BasicDBObject(keyField, 1L)));
+        }
+        result.addAll(getPipeline(contentTier, metadataTier));
+        return result;
+    }
+
     /**
      * Returns the basic fields for projection
      * @return
@@ -0,0 +1,121 @@
+package eu.europeana.sitemap.service.update;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered writer that encodes text as UTF-8 directly into a reusable byte buffer. Unlike an OutputStreamWriter this
+ * doesn't create any objects per write, so it can be used for writing large numbers of sitemap items without putting
+ * pressure on the garbage collector.
+ *
+ * This class is not thread-safe.
+ */
+final class Utf8ByteWriter implements Closeable {
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int length;
+
+    /**
+     * Create a new writer
+     * @param out stream to which the encoded bytes are written when the buffer is full
+     * @param buffer buffer to use (at least 4 bytes). A buffer can be reused for a new writer once the previous
+     *               writer is closed
+     */
+    Utf8ByteWriter(OutputStream out, byte[] buffer) {
+        this.out = out;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Write bytes that are already encoded (e.g. precomputed xml tags)
+     * @param bytes UTF-8 encoded bytes
+     * @return this writer
+     * @throws IOException when there is a problem flushing the buffer
+     */
+    Utf8ByteWriter write(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - length) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return this;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+        return this;
+    }
+
+    /**
+     * Encode and write text
+     * @param text text to write
+     * @return this writer
+     * @throws IOException when there is a problem flushing the buffer
+     */
+    Utf8ByteWriter write(CharSequence text) throws IOException {
+        int textLength = text.length();
+        for (int i = 0; i < textLength; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                ensureCapacity(1);
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                ensureCapacity(2);
+                buffer[length++] = (byte) (0xC0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < textLength && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                ensureCapacity(4);
+                buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, same replacement as the standard UTF-8 encoder
+                ensureCapacity(1);
+                buffer[length++] = (byte) '?';
+            } else {
+                ensureCapacity(3);
+                buffer[length++] = (byte) (0xE0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Write all buffered data to the underlying stream (without flushing or closing that stream)
+     * @throws IOException when there is a problem writing the data
+     */
+    void flush() throws IOException {
+        flushBuffer();
+    }
+
+    private void ensureCapacity(int nrBytes) throws IOException {
+        if (buffer.length - length < nrBytes) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (length > 0) {
+            out.write(buffer, 0, length);
+            length = 0;
+        }
+    }
+
+    /**
+     * Write all buffered data and close the underlying stream
+     * @throws IOException when there is a problem writing or closing the stream
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+}
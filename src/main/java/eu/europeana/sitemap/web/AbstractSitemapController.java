@@ -19,27 +19,55 @@ package eu.europeana.sitemap.web;
 
 import eu.europeana.sitemap.SitemapType;
 import eu.europeana.sitemap.StorageFileName;
+import eu.europeana.sitemap.config.SitemapConfiguration;
 import eu.europeana.sitemap.exceptions.SiteMapNotFoundException;
 import eu.europeana.sitemap.service.ActiveDeploymentService;
 import eu.europeana.sitemap.service.Deployment;
+import eu.europeana.sitemap.service.ReadSitemapService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Abstract class that provides the basic controller functionality for handling retrieval requests for
  * the various sitemap types
+ *
+ * Index files, and sitemap files requested without their current version, can be cached for a short time only (as
+ * configured). The contents of a sitemap file requested with its current version (as listed in a versioned index) never
+ * change, so those responses are marked as immutable.
  */
 public abstract class AbstractSitemapController {
 
+    private static final Logger LOG = LogManager.getLogger(AbstractSitemapController.class);
+
+    /** Path part for requesting files of a section, e.g. sitemap-record-p01.xml **/
+    protected static final String SECTION_PATH = "-{section:[a-z0-9]+}";
+    /** Request parameter with the version of a sitemap file **/
+    protected static final String VERSION_PARAM = "v";
+
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+
     private SitemapType sitemapType;
     private ActiveDeploymentService activeDeployment;
     private SitemapFileController readController;
+    private ReadSitemapService readService;
+    private CacheControl defaultCacheControl;
 
 
-    protected AbstractSitemapController(SitemapType sitemapType, ActiveDeploymentService activeDeployment, SitemapFileController readController) {
+    protected AbstractSitemapController(SitemapType sitemapType, ActiveDeploymentService activeDeployment,
+                                        SitemapFileController readController, ReadSitemapService readService,
+                                        SitemapConfiguration config) {
         this.sitemapType = sitemapType;
         this.activeDeployment = activeDeployment;
         this.readController = readController;
+        this.readService = readService;
+        if (config.getCacheControlMaxAge() > 0) {
+            this.defaultCacheControl = CacheControl.maxAge(config.getCacheControlMaxAge(), TimeUnit.SECONDS).cachePublic();
+        }
     }
 
     /**
@@ -49,25 +77,57 @@ public abstract class AbstractSitemapController {
      * @return contents of sitemap index file
      */
     public ResponseEntity<InputStreamResource> getSitemapIndex() throws SiteMapNotFoundException {
-        Deployment active = activeDeployment.getActiveDeployment(sitemapType);
+        Deployment active = activeDeployment.getCachedActiveDeployment(sitemapType);
         String fileName = StorageFileName.getSitemapIndexFileName(sitemapType, active);
-        return readController.fileXml(fileName);
+        return readController.fileXml(fileName, null, defaultCacheControl);
     }
 
     /**
      * Return a sitemap file. Note that the to and from are fixed values, a list of all files with to/from values
-     * can be found in the sitemap index file
+     * can be found in the sitemap index file.
+     * If the requested file isn't available in the requested format (e.g. a crawler requests a .xml file from an old
+     * index while the active deployment contains .xml.gz files) the file is returned in the other format.
+     * If redirects are enabled the client is redirected to a url from which it can download the file directly.
+     * Redirects are never cached, because the file they point to is replaced by a next deployment.
      *
+     * @param section  name of the section the file belongs to, null if the sitemap has no sections
      * @param from     start index
      * @param to       end index
+     * @param gzip     true if a gzip-compressed (.xml.gz) file is requested
+     * @param version  version of the file (as listed in a versioned index), can be null
+     * @param acceptEncoding Accept-Encoding header of the request, can be null
      * @throws SiteMapNotFoundException if the sitemap file wasn't found
      * @return contents of sitemap file
      */
-    public ResponseEntity<InputStreamResource> getSitemapFile(String from, String to) throws SiteMapNotFoundException {
-        Deployment active = activeDeployment.getActiveDeployment(sitemapType);
+    public ResponseEntity<InputStreamResource> getSitemapFile(String section, String from, String to, boolean gzip,
+                                                              String version, String acceptEncoding)
+            throws SiteMapNotFoundException {
+        Deployment active = activeDeployment.getCachedActiveDeployment(sitemapType);
         String appendix = "?from=" + from + "&to=" + to;
-        String fileName = StorageFileName.getSitemapFileName(sitemapType, active, appendix);
-        return readController.fileXml(fileName);
+        String fileName = StorageFileName.getSitemapFileName(sitemapType, active, section, appendix, gzip);
+        try {
+            return getFile(active, fileName, version, acceptEncoding);
+        } catch (SiteMapNotFoundException e) {
+            String otherFileName = StorageFileName.getSitemapFileName(sitemapType, active, section, appendix, !gzip);
+            LOG.debug("File {} not found, trying {}", fileName, otherFileName);
+            try {
+                return getFile(active, otherFileName, version, acceptEncoding);
+            } catch (SiteMapNotFoundException e2) {
+                throw e;
+            }
+        }
+    }
+
+    private ResponseEntity<InputStreamResource> getFile(Deployment active, String fileName, String version,
+                                                        String acceptEncoding) throws SiteMapNotFoundException {
+        ResponseEntity<InputStreamResource> redirect = readController.redirectToFile(fileName, acceptEncoding);
+        if (redirect != null) {
+            return redirect;
+        }
+        // a file requested with an old version is served with its current contents, but those shouldn't be cached long
+        boolean currentVersion = version != null
+                && version.equals(readService.getFileVersion(sitemapType, active, fileName));
+        return readController.fileXml(fileName, acceptEncoding, currentVersion ? IMMUTABLE : defaultCacheControl);
     }
 
 }
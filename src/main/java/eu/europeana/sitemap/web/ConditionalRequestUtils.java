@@ -0,0 +1,70 @@
+package eu.europeana.sitemap.web;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Utility class to evaluate conditional GET and HEAD requests (If-None-Match and If-Modified-Since headers)
+ */
+public final class ConditionalRequestUtils {
+
+    private static final String WEAK_PREFIX = "W/";
+    private static final String ANY = "*";
+    private static final long MS_PER_SEC = 1000;
+
+    private ConditionalRequestUtils() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * Checks if the client already has the current version of a file. As specified in RFC 9110 the If-Modified-Since
+     * header is ignored when the request has an If-None-Match header.
+     * @param request the request to check
+     * @param eTag current ETag of the file, with or without quotes
+     * @param lastModified time the file was last modified, in milliseconds since epoch
+     * @return true if the file wasn't modified so a 304 response can be returned, otherwise false
+     */
+    public static boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return matchesETag(ifNoneMatch, eTag);
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException e) {
+            // invalid dates should be ignored
+            return false;
+        }
+        // http dates have a precision of seconds
+        return ifModifiedSince >= 0 && lastModified / MS_PER_SEC <= ifModifiedSince / MS_PER_SEC;
+    }
+
+    /**
+     * If-None-Match uses weak comparison, so W/"x" matches "x"
+     */
+    private static boolean matchesETag(String ifNoneMatch, String eTag) {
+        String quotedETag = quote(eTag);
+        for (String requested : ifNoneMatch.split(",")) {
+            String value = requested.trim();
+            if (value.startsWith(WEAK_PREFIX)) {
+                value = value.substring(WEAK_PREFIX.length());
+            }
+            if (ANY.equals(value) || quotedETag.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param eTag ETag, with or without quotes
+     * @return ETag surrounded by quotes
+     */
+    public static String quote(String eTag) {
+        if (eTag.startsWith("\"") && eTag.endsWith("\"") && eTag.length() > 1) {
+            return eTag;
+        }
+        return '"' + eTag + '"';
+    }
+}
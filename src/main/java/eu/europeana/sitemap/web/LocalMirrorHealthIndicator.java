@@ -0,0 +1,35 @@
+package eu.europeana.sitemap.web;
+
+import eu.europeana.sitemap.service.LocalMirrorService;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports whether the files of all active deployments are mirrored to local disk (see LocalMirrorService). While a
+ * mirror is being copied the status is out of service; files are then still served, but from S3.
+ * The status is available at /actuator/health/mirror.
+ */
+@Component
+public class LocalMirrorHealthIndicator implements HealthIndicator {
+
+    private static final String ENABLED = "enabled";
+    private static final String DEPLOYMENTS = "deployments";
+
+    private final LocalMirrorService mirrorService;
+
+    public LocalMirrorHealthIndicator(LocalMirrorService mirrorService) {
+        this.mirrorService = mirrorService;
+    }
+
+    @Override
+    public Health health() {
+        if (!mirrorService.isEnabled()) {
+            return Health.up().withDetail(ENABLED, false).build();
+        }
+        Health.Builder result = mirrorService.isComplete() ? Health.up() : Health.outOfService();
+        return result.withDetail(ENABLED, true)
+                .withDetail(DEPLOYMENTS, mirrorService.getMirroredDeployments())
+                .build();
+    }
+}
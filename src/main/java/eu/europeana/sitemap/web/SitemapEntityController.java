@@ -23,11 +23,15 @@ import eu.europeana.sitemap.config.SitemapConfiguration;
 import eu.europeana.sitemap.exceptions.SiteMapException;
 import eu.europeana.sitemap.exceptions.SiteMapNotFoundException;
 import eu.europeana.sitemap.service.ActiveDeploymentService;
+import eu.europeana.sitemap.service.ReadSitemapService;
 import eu.europeana.sitemap.service.update.UpdateEntityService;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -50,8 +54,9 @@ public class SitemapEntityController extends AbstractSitemapController {
     private UpdateEntityService updateService;
 
     public SitemapEntityController(ActiveDeploymentService activeDeployment, SitemapFileController readController,
-                                   UpdateEntityService updateService, SitemapConfiguration config) {
-        super(SitemapType.ENTITY, activeDeployment, readController);
+                                   ReadSitemapService readService, UpdateEntityService updateService,
+                                   SitemapConfiguration config) {
+        super(SitemapType.ENTITY, activeDeployment, readController, readService, config);
         this.config = config;
         this.updateService = updateService;
     }
@@ -66,26 +71,73 @@ public class SitemapEntityController extends AbstractSitemapController {
     }
 
     /**
-     * @see AbstractSitemapController#getSitemapFile(String, String)
+     * @see AbstractSitemapController#getSitemapFile(String, String, String, boolean, String, String)
      */
     @GetMapping(value = Constants.SITEMAP_ENTITY_FILENAME_BASE + Constants.XML_EXTENSION)
     public ResponseEntity<InputStreamResource> getEntitySitemapFile(@RequestParam(value = "from") String from,
-                                       @RequestParam(value = "to") String to) throws SiteMapNotFoundException {
-        return super.getSitemapFile(from, to);
+                                       @RequestParam(value = "to") String to,
+                                       @RequestParam(value = VERSION_PARAM, required = false) String version,
+                                       @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws SiteMapNotFoundException {
+        return super.getSitemapFile(null, from, to, false, version, acceptEncoding);
+    }
+
+    /**
+     * @see AbstractSitemapController#getSitemapFile(String, String, String, boolean, String, String)
+     */
+    @GetMapping(value = Constants.SITEMAP_ENTITY_FILENAME_BASE + Constants.XML_EXTENSION + Constants.GZIP_EXTENSION)
+    public ResponseEntity<InputStreamResource> getEntitySitemapFileGzip(@RequestParam(value = "from") String from,
+                                       @RequestParam(value = "to") String to,
+                                       @RequestParam(value = VERSION_PARAM, required = false) String version,
+                                       @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws SiteMapNotFoundException {
+        return super.getSitemapFile(null, from, to, true, version, acceptEncoding);
+    }
+
+    /**
+     * @see AbstractSitemapController#getSitemapFile(String, String, String, boolean, String, String)
+     */
+    @GetMapping(value = Constants.SITEMAP_ENTITY_FILENAME_BASE + SECTION_PATH + Constants.XML_EXTENSION)
+    public ResponseEntity<InputStreamResource> getEntitySitemapSectionFile(@PathVariable(value = "section") String section,
+                                       @RequestParam(value = "from") String from,
+                                       @RequestParam(value = "to") String to,
+                                       @RequestParam(value = VERSION_PARAM, required = false) String version,
+                                       @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws SiteMapNotFoundException {
+        return super.getSitemapFile(section, from, to, false, version, acceptEncoding);
+    }
+
+    /**
+     * @see AbstractSitemapController#getSitemapFile(String, String, String, boolean, String, String)
+     */
+    @GetMapping(value = Constants.SITEMAP_ENTITY_FILENAME_BASE + SECTION_PATH + Constants.XML_EXTENSION + Constants.GZIP_EXTENSION)
+    public ResponseEntity<InputStreamResource> getEntitySitemapSectionFileGzip(@PathVariable(value = "section") String section,
+                                       @RequestParam(value = "from") String from,
+                                       @RequestParam(value = "to") String to,
+                                       @RequestParam(value = VERSION_PARAM, required = false) String version,
+                                       @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws SiteMapNotFoundException {
+        return super.getSitemapFile(section, from, to, true, version, acceptEncoding);
     }
 
     /**
      * Start the sitemap update process for entities
      * @param wskey apikey that verify access to the update procedure
+     * @param type optional, only regenerate the sitemap files of this entity type (requires entity.types.separate)
      * @param response automatically added to method to set response status
      * @return finished message
      */
     @GetMapping(value = "update", produces = MediaType.TEXT_PLAIN_VALUE)
     public String update(@RequestParam(value = "wskey") String wskey,
+                         @RequestParam(value = "type", required = false) String type,
                          HttpServletResponse response) throws SiteMapException {
         if (AdminUtils.verifyKey(config.getAdminKey(), wskey)) {
             response.setStatus(HttpServletResponse.SC_ACCEPTED);
-            updateService.update();
+            if (type == null) {
+                updateService.update();
+            } else {
+                updateService.update(type);
+            }
             return "Entity sitemap update process is done";
         }
         return null;
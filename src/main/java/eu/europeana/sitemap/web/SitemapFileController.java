@@ -1,21 +1,40 @@
 package eu.europeana.sitemap.web;
 
+import eu.europeana.sitemap.StorageFileName;
 import eu.europeana.sitemap.exceptions.SiteMapNotFoundException;
+import eu.europeana.sitemap.service.LocalMirrorService;
 import eu.europeana.sitemap.service.ReadSitemapService;
+import eu.europeana.sitemap.service.RedirectUrlService;
+import eu.europeana.sitemap.service.SitemapFileMetadata;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.constraints.Pattern;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
 /**
  * Generic functionality for reading sitemap files (for testing and debugging)
  *
@@ -30,12 +49,29 @@ public class SitemapFileController {
 
     private static final String FILENAME_REGEX = "^[a-zA-Z0-9_=&\\-\\.\\?]*$";
     private static final String INVALID_FILENAME_MSG = "Illegal file name";
+    private static final String GZIP_ENCODING = "gzip";
+    /** Decompressed files are a different representation than what's stored, so they get a different ETag **/
+    private static final String DECOMPRESSED_ETAG_SUFFIX = "-identity";
+
+    private static final String GET_METHOD = "GET";
+    private static final String HEAD_METHOD = "HEAD";
+
+    // request attributes with which Tomcat sends a file directly from disk (see Tomcat's DefaultServlet)
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
 
     protected final ReadSitemapService service;
+    private final LocalMirrorService mirrorService;
+    private final RedirectUrlService redirectService;
 
     @Autowired
-    public SitemapFileController(ReadSitemapService service) {
+    public SitemapFileController(ReadSitemapService service, LocalMirrorService mirrorService,
+                                 RedirectUrlService redirectService) {
         this.service = service;
+        this.mirrorService = mirrorService;
+        this.redirectService = redirectService;
     }
 
     /**
@@ -71,25 +107,176 @@ public class SitemapFileController {
         if (fileName == null || fileName.isEmpty()) {
             throw new IllegalArgumentException("Please provide a file name");
         }
-        InputStreamResource result = new InputStreamResource(service.getFileAsStream(fileName));
-        return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN).body(result); // if we don't set content-type gzip will not work!
+        return getFile(fileName, MediaType.TEXT_PLAIN, null, null);
     }
 
     /**
      * Returns the contents of a particular file (in text/xml format)
      * @param fileName name of the requested file
+     * @param acceptEncoding Accept-Encoding header of the request, can be null
      * @return contents of the requested file
      * @throws SiteMapNotFoundException when the requested file is not found
      */
     @GetMapping(value = {"file", "file.xml"}, produces = MediaType.TEXT_XML_VALUE)
     public ResponseEntity<InputStreamResource> fileXml(@RequestParam(value = "name", defaultValue = "")
-                           @Pattern(regexp = FILENAME_REGEX, message = INVALID_FILENAME_MSG) String fileName) throws SiteMapNotFoundException {
+                           @Pattern(regexp = FILENAME_REGEX, message = INVALID_FILENAME_MSG) String fileName,
+                           @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws SiteMapNotFoundException {
         LOG.debug("Retrieving xml file {} ", fileName);
         if (fileName == null || fileName.isEmpty()) {
             throw new IllegalArgumentException("Please provide a file name");
         }
-        InputStreamResource result = new InputStreamResource(service.getFileAsStream(fileName));
-        return ResponseEntity.ok().contentType(MediaType.TEXT_XML).body(result); // if we don't set content-type gzip will not work!
+        return fileXml(fileName, acceptEncoding, null);
+    }
+
+    /**
+     * Returns the contents of a particular file (in text/xml format) with a Cache-Control header
+     * @param fileName name of the requested file
+     * @param acceptEncoding Accept-Encoding header of the request, can be null
+     * @param cacheControl value of the Cache-Control header, if null no header is sent
+     * @return contents of the requested file
+     * @throws SiteMapNotFoundException when the requested file is not found
+     */
+    public ResponseEntity<InputStreamResource> fileXml(String fileName, String acceptEncoding, CacheControl cacheControl)
+            throws SiteMapNotFoundException {
+        return getFile(fileName, MediaType.TEXT_XML, acceptEncoding, cacheControl);
+    }
+
+    /**
+     * Returns a redirect to a url from which the client can download a file directly (if enabled). Clients that don't
+     * accept gzip are not redirected to gzip-compressed files, as those have to be decompressed for them.
+     * @param fileName name of the requested file
+     * @param acceptEncoding Accept-Encoding header of the request, can be null
+     * @return redirect response, or null if the file should be sent directly
+     * @throws SiteMapNotFoundException when the requested file is not found
+     */
+    public ResponseEntity<InputStreamResource> redirectToFile(String fileName, String acceptEncoding)
+            throws SiteMapNotFoundException {
+        boolean gzipFile = StorageFileName.isGzipFileName(fileName);
+        if (!redirectService.isEnabled() || (gzipFile && !acceptsGzip(acceptEncoding))) {
+            return null;
+        }
+        // check that the file exists, so callers can fall back to another file
+        SitemapFileMetadata metadata = service.getFileMetadata(fileName);
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.FOUND)
+                .location(redirectService.getUrl(fileName, metadata.getETag(), gzipFile));
+        if (gzipFile) {
+            response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        return response.build();
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        return acceptEncoding != null && acceptEncoding.contains(GZIP_ENCODING);
+    }
+
+    /**
+     * Gzip-compressed files are sent as they are stored with a Content-Encoding header, so Tomcat won't compress
+     * them again. Only if the client doesn't accept gzip (or for debugging purposes) we decompress on the fly.
+     *
+     * All responses have an ETag and Last-Modified header based on the stored file's metadata, and the provided
+     * Cache-Control header (if any). Conditional requests for a file the client already has, and HEAD requests, are
+     * answered using only that metadata.
+     *
+     * If the file is mirrored to local disk we read it from there instead of from storage. When the file can be sent
+     * as it is (so we don't need to decompress it and Tomcat doesn't need to compress it) we let Tomcat send it
+     * directly from disk.
+     */
+    private ResponseEntity<InputStreamResource> getFile(String fileName, MediaType mediaType, String acceptEncoding,
+                                                        CacheControl cacheControl) throws SiteMapNotFoundException {
+        boolean acceptsGzip = acceptsGzip(acceptEncoding);
+        boolean gzipFile = StorageFileName.isGzipFileName(fileName);
+        SitemapFileMetadata metadata = service.getFileMetadata(fileName);
+        String eTag = ConditionalRequestUtils.quote(gzipFile && !acceptsGzip
+                ? metadata.getETag() + DECOMPRESSED_ETAG_SUFFIX
+                : metadata.getETag());
+        HttpServletRequest request = getCurrentRequest();
+        boolean notModified = request != null
+                && ConditionalRequestUtils.isNotModified(request, eTag, metadata.getLastModified());
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(notModified ? HttpStatus.NOT_MODIFIED : HttpStatus.OK)
+                .eTag(eTag)
+                .lastModified(metadata.getLastModified());
+        if (gzipFile) {
+            response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (cacheControl != null) {
+            response.cacheControl(cacheControl);
+        }
+        if (notModified) {
+            return response.build();
+        }
+        // if we don't set content-type gzip will not work!
+        response.contentType(mediaType);
+        if (gzipFile && acceptsGzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, GZIP_ENCODING);
+        }
+        if (request != null && HEAD_METHOD.equals(request.getMethod())) {
+            // we only know the length if we send the file as it's stored
+            if (gzipFile == acceptsGzip) {
+                response.contentLength(metadata.getSize());
+            }
+            return response.build();
+        }
+
+        Path mirroredFile = mirrorService.getFile(fileName);
+        if (mirroredFile != null && gzipFile == acceptsGzip && sendFile(request, mirroredFile, response)) {
+            return response.build();
+        }
+        InputStream stream = (mirroredFile == null ? service.getFileAsStream(fileName) : openMirroredFile(mirroredFile, fileName));
+        if (gzipFile && !acceptsGzip) {
+            try {
+                stream = new GZIPInputStream(stream);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error decompressing file " + fileName, e);
+            }
+        }
+        return response.body(new InputStreamResource(stream));
+    }
 
+    /**
+     * Tell Tomcat to send the file after the response headers (the body is left empty), if Tomcat supports that.
+     * @return true if Tomcat will send the file, otherwise false
+     */
+    private boolean sendFile(HttpServletRequest request, Path file, ResponseEntity.BodyBuilder response) {
+        if (request == null || !GET_METHOD.equals(request.getMethod())
+                || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            return false;
+        }
+        try {
+            long size = Files.size(file);
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, 0L);
+            request.setAttribute(SENDFILE_END_ATTR, size);
+            response.contentLength(size);
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Error reading size of mirrored file {}", file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Files are also requested via the record and entity controllers, so we look up the request instead of having it
+     * passed as a parameter
+     * @return the request that is being handled, or null if there is none
+     */
+    private static HttpServletRequest getCurrentRequest() {
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            return attributes.getRequest();
+        }
+        return null;
+    }
+
+    private InputStream openMirroredFile(Path file, String fileName) throws SiteMapNotFoundException {
+        try {
+            return Files.newInputStream(file);
+        } catch (NoSuchFileException e) {
+            // mirror was replaced in the meantime
+            LOG.debug("Mirrored file {} was deleted, reading from storage", file);
+            return service.getFileAsStream(fileName);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading mirrored file " + file, e);
+        }
     }
 }
@@ -23,12 +23,16 @@ import eu.europeana.sitemap.config.SitemapConfiguration;
 import eu.europeana.sitemap.exceptions.SiteMapException;
 import eu.europeana.sitemap.exceptions.SiteMapNotFoundException;
 import eu.europeana.sitemap.service.ActiveDeploymentService;
+import eu.europeana.sitemap.service.ReadSitemapService;
 import eu.europeana.sitemap.service.update.UpdateRecordService;
 import eu.europeana.sitemap.service.update.UpdateService;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -49,8 +53,9 @@ public class SitemapRecordController extends AbstractSitemapController {
     private UpdateService updateService;
 
     public SitemapRecordController(ActiveDeploymentService activeDeployment, SitemapFileController readController,
-                                   UpdateRecordService updateService, SitemapConfiguration config) {
-        super(SitemapType.RECORD, activeDeployment, readController);
+                                   ReadSitemapService readService, UpdateRecordService updateService,
+                                   SitemapConfiguration config) {
+        super(SitemapType.RECORD, activeDeployment, readController, readService, config);
         this.config = config;
         this.updateService = updateService;
     }
@@ -65,12 +70,53 @@ public class SitemapRecordController extends AbstractSitemapController {
     }
 
     /**
-     * @see AbstractSitemapController#getSitemapFile(String, String)
+     * @see AbstractSitemapController#getSitemapFile(String, String, String, boolean, String, String)
      */
     @GetMapping(value = Constants.SITEMAP_RECORD_FILENAME_BASE + Constants.XML_EXTENSION)
     public ResponseEntity<InputStreamResource> getRecordSitemapFile(@RequestParam(value = "from") String from,
-                                       @RequestParam(value = "to") String to) throws SiteMapNotFoundException {
-        return super.getSitemapFile(from, to);
+                                       @RequestParam(value = "to") String to,
+                                       @RequestParam(value = VERSION_PARAM, required = false) String version,
+                                       @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws SiteMapNotFoundException {
+        return super.getSitemapFile(null, from, to, false, version, acceptEncoding);
+    }
+
+    /**
+     * @see AbstractSitemapController#getSitemapFile(String, String, String, boolean, String, String)
+     */
+    @GetMapping(value = Constants.SITEMAP_RECORD_FILENAME_BASE + Constants.XML_EXTENSION + Constants.GZIP_EXTENSION)
+    public ResponseEntity<InputStreamResource> getRecordSitemapFileGzip(@RequestParam(value = "from") String from,
+                                       @RequestParam(value = "to") String to,
+                                       @RequestParam(value = VERSION_PARAM, required = false) String version,
+                                       @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws SiteMapNotFoundException {
+        return super.getSitemapFile(null, from, to, true, version, acceptEncoding);
+    }
+
+    /**
+     * @see AbstractSitemapController#getSitemapFile(String, String, String, boolean, String, String)
+     */
+    @GetMapping(value = Constants.SITEMAP_RECORD_FILENAME_BASE + SECTION_PATH + Constants.XML_EXTENSION)
+    public ResponseEntity<InputStreamResource> getRecordSitemapSectionFile(@PathVariable(value = "section") String section,
+                                       @RequestParam(value = "from") String from,
+                                       @RequestParam(value = "to") String to,
+                                       @RequestParam(value = VERSION_PARAM, required = false) String version,
+                                       @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws SiteMapNotFoundException {
+        return super.getSitemapFile(section, from, to, false, version, acceptEncoding);
+    }
+
+    /**
+     * @see AbstractSitemapController#getSitemapFile(String, String, String, boolean, String, String)
+     */
+    @GetMapping(value = Constants.SITEMAP_RECORD_FILENAME_BASE + SECTION_PATH + Constants.XML_EXTENSION + Constants.GZIP_EXTENSION)
+    public ResponseEntity<InputStreamResource> getRecordSitemapSectionFileGzip(@PathVariable(value = "section") String section,
+                                       @RequestParam(value = "from") String from,
+                                       @RequestParam(value = "to") String to,
+                                       @RequestParam(value = VERSION_PARAM, required = false) String version,
+                                       @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws SiteMapNotFoundException {
+        return super.getSitemapFile(section, from, to, true, version, acceptEncoding);
     }
 
     /**
@@ -1,14 +1,27 @@
 package eu.europeana.sitemap;
 
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import eu.europeana.features.S3ObjectStorageClient;
+import eu.europeana.sitemap.config.SitemapConfiguration;
+import eu.europeana.sitemap.s3.S3Provider;
 import eu.europeana.sitemap.service.ActiveDeploymentService;
 import eu.europeana.sitemap.service.Deployment;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Tests the ActiveDeploymentService
@@ -20,6 +33,10 @@ import static org.mockito.Mockito.mock;
 public class ActiveDeploymentServiceTest {
 
     private static S3ObjectStorageClient mockStorage = mock(S3ObjectStorageClient.class);
+    private static AmazonS3 mockS3 = mock(AmazonS3.class);
+    private static S3Provider s3Provider;
+    // by default the active deployment is not cached
+    private static SitemapConfiguration config = mock(SitemapConfiguration.class);
 
     /**
      * Setup mock objectstorage
@@ -27,6 +44,8 @@ public class ActiveDeploymentServiceTest {
     @BeforeAll
     public static void setup() {
         mockStorage = MockObjectStorage.setup(mockStorage);
+        mockS3 = MockObjectStorage.setupS3(mockS3);
+        s3Provider = new S3Provider(mockS3, "test-bucket");
     }
 
     /**
@@ -35,11 +54,12 @@ public class ActiveDeploymentServiceTest {
     @BeforeEach
     public void init() {
         MockObjectStorage.clear();
+        clearInvocations(mockS3);
     }
 
     @Test
     public void testActiveInactive() {
-        ActiveDeploymentService ass = new ActiveDeploymentService(mockStorage);
+        ActiveDeploymentService ass = new ActiveDeploymentService(mockStorage, s3Provider, config);
         // default green is first active when initializing
         assertEquals(Deployment.GREEN, ass.getActiveDeployment(SitemapType.RECORD));
         assertEquals(Deployment.BLUE, ass.getInactiveDeployment(SitemapType.RECORD));
@@ -47,7 +67,7 @@ public class ActiveDeploymentServiceTest {
 
     @Test
     public void testSwitch() {
-        ActiveDeploymentService ass = new ActiveDeploymentService(mockStorage);
+        ActiveDeploymentService ass = new ActiveDeploymentService(mockStorage, s3Provider, config);
         Deployment active = ass.getActiveDeployment(SitemapType.ENTITY);
         if (Deployment.GREEN.equals(active)) {
             assertEquals(Deployment.BLUE, ass.switchDeployment(SitemapType.ENTITY));
@@ -60,7 +80,7 @@ public class ActiveDeploymentServiceTest {
 
     @Test
     public void testDeleteInactive() {
-        ActiveDeploymentService ass = new ActiveDeploymentService(mockStorage);
+        ActiveDeploymentService ass = new ActiveDeploymentService(mockStorage, s3Provider, config);
 
         // files to delete
         String deleteFile1 = StorageFileName.getSitemapFileName(SitemapType.ENTITY, Deployment.BLUE, "1");
@@ -85,4 +105,143 @@ public class ActiveDeploymentServiceTest {
         assertTrue(mockStorage.isObjectAvailable(keepFile2));
     }
 
+    /**
+     * Test if missing files and files with a different size are reported when verifying the inactive deployment
+     */
+    @Test
+    public void testVerifyInactive() {
+        ActiveDeploymentService ass = new ActiveDeploymentService(mockStorage, s3Provider, config);
+        String file1 = StorageFileName.getSitemapFileName(SitemapType.ENTITY, Deployment.BLUE, "?from=1&to=2");
+        String file2 = StorageFileName.getSitemapFileName(SitemapType.ENTITY, Deployment.BLUE, "?from=3&to=4");
+        String file3 = StorageFileName.getSitemapFileName(SitemapType.ENTITY, Deployment.BLUE, "?from=5&to=6");
+        mockStorage.putObject(file1, "abc");
+        mockStorage.putObject(file2, "def");
+
+        assertTrue(ass.verifyInactiveFiles(SitemapType.ENTITY, Map.of(file1, 3L, file2, 0L)).isEmpty());
+        List<String> problems = ass.verifyInactiveFiles(SitemapType.ENTITY, Map.of(file1, 3L, file2, 4L, file3, 3L));
+        assertEquals(2, problems.size());
+        assertTrue(problems.contains("File " + file2 + " has size 3 instead of 4"));
+        assertTrue(problems.contains("File " + file3 + " is missing"));
+        // files of the active deployment don't count
+        mockStorage.putObject(StorageFileName.getSitemapFileName(SitemapType.ENTITY, Deployment.GREEN, "?from=5&to=6"), "x");
+        assertEquals(2, ass.verifyInactiveFiles(SitemapType.ENTITY, Map.of(file1, 3L, file2, 4L, file3, 3L)).size());
+    }
+
+    /**
+     * Test if more than 1000 files are deleted in multiple batches
+     */
+    @Test
+    public void testDeleteInactiveBatches() {
+        ActiveDeploymentService ass = new ActiveDeploymentService(mockStorage, s3Provider, config);
+        for (int i = 0; i < 2500; i++) {
+            mockStorage.putObject(StorageFileName.getSitemapFileName(SitemapType.RECORD, Deployment.BLUE,
+                    "?from=" + i), "x");
+        }
+        String keepFile = StorageFileName.getSitemapFileName(SitemapType.RECORD, Deployment.GREEN, "1");
+        mockStorage.putObject(keepFile, "a");
+
+        assertEquals(2500, ass.deleteInactiveFiles(SitemapType.RECORD));
+        verify(mockS3, times(3)).deleteObjects(any(DeleteObjectsRequest.class));
+        assertEquals(1, mockStorage.listAll(null).getKeyCount());
+        assertTrue(mockStorage.isObjectAvailable(keepFile));
+        assertEquals(0, ass.deleteInactiveFiles(SitemapType.RECORD));
+        ass.shutdown();
+    }
+
+    /**
+     * Test if the cached active deployment is updated when switching, but not when the active file is changed by
+     * another instance (until the cached value is revalidated)
+     */
+    @Test
+    public void testCachedActiveDeployment() {
+        SitemapConfiguration cacheConfig = mock(SitemapConfiguration.class);
+        when(cacheConfig.getDeploymentCacheStaleness()).thenReturn(60);
+        ActiveDeploymentService ass = new ActiveDeploymentService(mockStorage, s3Provider, cacheConfig);
+        assertEquals(Deployment.GREEN, ass.getCachedActiveDeployment(SitemapType.RECORD));
+        assertEquals(Deployment.BLUE, ass.switchDeployment(SitemapType.RECORD));
+        assertEquals(Deployment.BLUE, ass.getCachedActiveDeployment(SitemapType.RECORD));
+
+        mockStorage.putObject(StorageFileName.getActiveDeploymentFileName(SitemapType.RECORD), Deployment.GREEN.toString());
+        assertEquals(Deployment.BLUE, ass.getCachedActiveDeployment(SitemapType.RECORD));
+        assertEquals(Deployment.GREEN, ass.getActiveDeployment(SitemapType.RECORD));
+        assertEquals(Deployment.GREEN, ass.getCachedActiveDeployment(SitemapType.RECORD));
+        ass.shutdown();
+    }
+
+    /**
+     * Test that the previous deployment is not deleted while another instance may still serve it from its cache
+     */
+    @Test
+    public void testDeleteAfterSwitchWithStaleCache() {
+        SitemapConfiguration cacheConfig = mock(SitemapConfiguration.class);
+        when(cacheConfig.getDeploymentCacheStaleness()).thenReturn(1);
+        ActiveDeploymentService webServer = new ActiveDeploymentService(mockStorage, s3Provider, cacheConfig);
+        ActiveDeploymentService updater = new ActiveDeploymentService(mockStorage, s3Provider, cacheConfig);
+        assertEquals(Deployment.GREEN, webServer.getCachedActiveDeployment(SitemapType.RECORD));
+        String greenFile = StorageFileName.getSitemapFileName(SitemapType.RECORD, Deployment.GREEN, "?from=1&to=2");
+        String blueFile = StorageFileName.getSitemapFileName(SitemapType.RECORD, Deployment.BLUE, "?from=1&to=2");
+        mockStorage.putObject(greenFile, "a");
+        mockStorage.putObject(blueFile, "b");
+
+        long switched = System.currentTimeMillis();
+        assertEquals(Deployment.BLUE, updater.switchDeployment(SitemapType.RECORD));
+        // the web server still serves green from its cache
+        assertEquals(Deployment.GREEN, webServer.getCachedActiveDeployment(SitemapType.RECORD));
+        assertTrue(mockStorage.isObjectAvailable(greenFile));
+
+        // a next update right away has to wait until the cached value of the web server is outdated
+        assertEquals(1, updater.deleteInactiveFiles(SitemapType.RECORD));
+        assertTrue(System.currentTimeMillis() - switched >= 1000, "Deleted files before cache could be revalidated");
+        assertFalse(mockStorage.isObjectAvailable(greenFile));
+        assertTrue(mockStorage.isObjectAvailable(blueFile));
+        webServer.shutdown();
+        updater.shutdown();
+    }
+
+    /**
+     * Test if switch listeners are notified when this instance switches, or when we notice another instance did
+     */
+    @Test
+    public void testSwitchListener() {
+        ActiveDeploymentService ass = new ActiveDeploymentService(mockStorage, s3Provider, config);
+        List<SitemapType> switched = new ArrayList<>();
+        ass.addSwitchListener(switched::add);
+        assertEquals(Deployment.GREEN, ass.getActiveDeployment(SitemapType.RECORD));
+        assertTrue(switched.isEmpty());
+
+        assertEquals(Deployment.BLUE, ass.switchDeployment(SitemapType.RECORD));
+        assertEquals(List.of(SitemapType.RECORD), switched);
+
+        mockStorage.putObject(StorageFileName.getActiveDeploymentFileName(SitemapType.RECORD), Deployment.GREEN.toString());
+        assertEquals(Deployment.GREEN, ass.getActiveDeployment(SitemapType.RECORD));
+        assertEquals(List.of(SitemapType.RECORD, SitemapType.RECORD), switched);
+        ass.shutdown();
+    }
+
+    /**
+     * Test if switch listeners are notified when another instance switched twice, so the active deployment is the same
+     * as before but its files are not
+     */
+    @Test
+    public void testSwitchListenerDoubleSwitch() throws InterruptedException {
+        ActiveDeploymentService webServer = new ActiveDeploymentService(mockStorage, s3Provider, config);
+        ActiveDeploymentService updater = new ActiveDeploymentService(mockStorage, s3Provider, config);
+        List<SitemapType> switched = new ArrayList<>();
+        webServer.addSwitchListener(switched::add);
+        assertEquals(Deployment.GREEN, webServer.getActiveDeployment(SitemapType.ENTITY));
+        assertEquals(Deployment.GREEN, webServer.getActiveDeployment(SitemapType.ENTITY));
+        assertTrue(switched.isEmpty(), "Reading the active file again is not a switch");
+
+        // make sure each switch has a different last modified time
+        Thread.sleep(5);
+        assertEquals(Deployment.BLUE, updater.switchDeployment(SitemapType.ENTITY));
+        Thread.sleep(5);
+        assertEquals(Deployment.GREEN, updater.switchDeployment(SitemapType.ENTITY));
+
+        assertEquals(Deployment.GREEN, webServer.getActiveDeployment(SitemapType.ENTITY));
+        assertEquals(List.of(SitemapType.ENTITY), switched);
+        webServer.shutdown();
+        updater.shutdown();
+    }
+
 }
@@ -24,6 +24,7 @@ public class MockActiveDeployment {
 
     public static ActiveDeploymentService setup(ActiveDeploymentService mockActiveDeployment) {
         when(mockActiveDeployment.getActiveDeployment(any())).thenAnswer((Answer<Deployment>) invocation -> active);
+        when(mockActiveDeployment.getCachedActiveDeployment(any())).thenAnswer((Answer<Deployment>) invocation -> active);
         when(mockActiveDeployment.getInactiveDeployment(any())).thenAnswer((Answer<Deployment>) invocation -> {
             if (Deployment.GREEN.equals(active)) {
                 return Deployment.BLUE;
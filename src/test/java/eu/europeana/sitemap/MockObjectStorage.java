@@ -1,6 +1,15 @@
 package eu.europeana.sitemap;
 
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
 import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import eu.europeana.features.S3ObjectStorageClient;
@@ -10,6 +19,7 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.mockito.Mockito.*;
 
@@ -18,7 +28,8 @@ import static org.mockito.Mockito.*;
  */
 public class MockObjectStorage {
 
-    private static final Map<String, S3Object> storageMap = new HashMap<>();
+    // files may be saved by multiple upload threads at the same time
+    private static final Map<String, S3Object> storageMap = new ConcurrentHashMap<>();
 
     public static S3ObjectStorageClient setup(S3ObjectStorageClient mockStorage) {
         when(mockStorage.listAll(any())).thenAnswer((Answer<ListObjectsV2Result>) invocation ->
@@ -32,7 +43,10 @@ public class MockObjectStorage {
             String fileName = (String) args[0];
             String contents = (String) args[1];
             S3Object file = new S3Object();
-            file.setObjectContent(new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8)));
+            byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+            file.setObjectContent(new ByteArrayInputStream(bytes));
+            file.getObjectMetadata().setContentLength(bytes.length);
+            file.getObjectMetadata().setLastModified(new Date());
             storageMap.put(fileName, file);
             return fileName;
         });
@@ -65,6 +79,80 @@ public class MockObjectStorage {
         return mockStorage;
     }
 
+    /**
+     * Mock the S3 client operations used for listing, copying and deleting files, using the same storage as the mocked
+     * object storage library
+     */
+    public static AmazonS3 setupS3(AmazonS3 mockS3) {
+        when(mockS3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer((Answer<ListObjectsV2Result>) invocation -> {
+            ListObjectsV2Request request = invocation.getArgument(0);
+            // continuation token is the last key of the previous page
+            List<String> keys = storageMap.keySet().stream()
+                    .filter(key -> request.getPrefix() == null || key.startsWith(request.getPrefix()))
+                    .filter(key -> request.getContinuationToken() == null || key.compareTo(request.getContinuationToken()) > 0)
+                    .sorted()
+                    .toList();
+            ListObjectsV2Result result = new ListObjectsV2Result();
+            for (String key : keys.subList(0, Math.min(keys.size(), request.getMaxKeys()))) {
+                S3ObjectSummary summary = new S3ObjectSummary();
+                summary.setKey(key);
+                summary.setSize(storageMap.get(key).getObjectMetadata().getContentLength());
+                result.getObjectSummaries().add(summary);
+            }
+            result.setKeyCount(result.getObjectSummaries().size());
+            result.setTruncated(keys.size() > request.getMaxKeys());
+            if (result.isTruncated()) {
+                result.setNextContinuationToken(keys.get(request.getMaxKeys() - 1));
+            }
+            return result;
+        });
+        when(mockS3.copyObject(any(CopyObjectRequest.class))).thenAnswer((Answer<CopyObjectResult>) invocation -> {
+            CopyObjectRequest request = invocation.getArgument(0);
+            S3Object source = storageMap.get(request.getSourceKey());
+            if (source == null) {
+                throw new AmazonS3Exception("File " + request.getSourceKey() + " not found");
+            }
+            // the contents of a file can be read only once, so we save the source again as well
+            byte[] bytes = source.getObjectContent().readAllBytes();
+            storageMap.put(request.getSourceKey(), copyOf(source, bytes));
+            storageMap.put(request.getDestinationKey(), copyOf(source, bytes));
+            return new CopyObjectResult();
+        });
+        when(mockS3.getObjectMetadata(anyString(), anyString())).thenAnswer((Answer<ObjectMetadata>) invocation -> {
+            S3Object file = storageMap.get(invocation.<String>getArgument(1));
+            if (file == null) {
+                throw new AmazonS3Exception("File " + invocation.getArgument(1) + " not found");
+            }
+            return file.getObjectMetadata();
+        });
+        when(mockS3.putObject(anyString(), anyString(), anyString())).thenAnswer((Answer<PutObjectResult>) invocation ->
+                save(invocation.getArgument(1), invocation.<String>getArgument(2).getBytes(StandardCharsets.UTF_8)));
+        when(mockS3.putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class)))
+                .thenAnswer((Answer<PutObjectResult>) invocation ->
+                        save(invocation.getArgument(1), invocation.<InputStream>getArgument(2).readAllBytes()));
+        when(mockS3.deleteObjects(any(DeleteObjectsRequest.class))).thenAnswer((Answer<DeleteObjectsResult>) invocation -> {
+            DeleteObjectsRequest request = invocation.getArgument(0);
+            request.getKeys().forEach(key -> storageMap.remove(key.getKey()));
+            return new DeleteObjectsResult(List.of());
+        });
+        return mockS3;
+    }
+
+    private static PutObjectResult save(String fileName, byte[] bytes) {
+        storageMap.put(fileName, copyOf(null, bytes));
+        PutObjectResult result = new PutObjectResult();
+        result.setETag(fileName);
+        return result;
+    }
+
+    private static S3Object copyOf(S3Object source, byte[] bytes) {
+        S3Object result = new S3Object();
+        result.setObjectContent(new ByteArrayInputStream(bytes));
+        result.getObjectMetadata().setContentLength(bytes.length);
+        result.getObjectMetadata().setLastModified(new Date());
+        return result;
+    }
+
     /**
      * Empty the mock storage
      */
@@ -24,6 +24,15 @@ public class StorageFileNameTest {
                 StorageFileName.getSitemapFileName(SitemapType.ENTITY, Deployment.BLUE, null));
     }
 
+    @Test
+    public void testGetSitemapSectionFileName() {
+        String appendix = "?from=1&to=20";
+        assertEquals("sitemap-record-blue-p01.xml?from=1&to=20",
+                StorageFileName.getSitemapFileName(SitemapType.RECORD, Deployment.BLUE, "p01", appendix, false));
+        assertEquals("sitemap-record-green-p02.xml.gz?from=1&to=20",
+                StorageFileName.getSitemapFileName(SitemapType.RECORD, Deployment.GREEN, "p02", appendix, true));
+    }
+
     @Test
     public void testGetActiveDeploymentFileName() {
         assertEquals("sitemap-record-active.txt", StorageFileName.getActiveDeploymentFileName(SitemapType.RECORD));
@@ -0,0 +1,99 @@
+package eu.europeana.sitemap.mongo;
+
+import eu.europeana.sitemap.Constants;
+import org.bson.BsonBinaryReader;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro benchmark comparing the cost of decoding a record (as returned by the record sitemap query) into a Document
+ * and extracting the sitemap data from it, with decoding it using the RecordDataCodec. Run the main method and compare
+ * the average time and gc.alloc.rate.norm values (bytes allocated per record) of both benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordDataCodecBenchmark {
+
+    private static final int NR_RECORDS = 1024;
+    private static final long START_DATE = 1_500_000_000_000L;
+
+    private final byte[][] records = new byte[NR_RECORDS][];
+    private final DecoderContext decoderContext = DecoderContext.builder().build();
+    private final DocumentCodec documentCodec = new DocumentCodec();
+    private final RecordDataCodec recordDataCodec = new RecordDataCodec();
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        for (int i = 0; i < NR_RECORDS; i++) {
+            records[i] = RecordDataCodecTest.toBson(new Document(Constants.ID, new ObjectId())
+                    .append(Constants.ABOUT, "/2048128/item_" + i + "_" + Integer.toHexString(i * 31))
+                    .append(Constants.LASTUPDATED, new Date(START_DATE + i * 1000L))
+                    .append(Constants.CONTENT_TIER, String.valueOf(2 + i % 3))
+                    .append(Constants.METADATA_TIER, String.valueOf((char) ('A' + i % 3))));
+        }
+    }
+
+    private BsonBinaryReader nextReader() {
+        return new BsonBinaryReader(ByteBuffer.wrap(records[counter++ & (NR_RECORDS - 1)]));
+    }
+
+    /**
+     * The way records were read before
+     */
+    @Benchmark
+    public void decodeDocument(Blackhole blackhole) {
+        try (BsonBinaryReader reader = nextReader()) {
+            Document doc = documentCodec.decode(reader, decoderContext);
+            blackhole.consume(doc.get(Constants.ABOUT).toString());
+            blackhole.consume(Integer.parseInt(doc.get(Constants.CONTENT_TIER).toString()));
+            blackhole.consume(doc.get(Constants.METADATA_TIER));
+            Object timestampUpdated = doc.get(Constants.LASTUPDATED);
+            blackhole.consume(timestampUpdated == null ? Long.MIN_VALUE : ((Date) timestampUpdated).getTime());
+        }
+    }
+
+    @Benchmark
+    public void decodeRecordData(Blackhole blackhole) {
+        try (BsonBinaryReader reader = nextReader()) {
+            RecordData record = recordDataCodec.decode(reader, decoderContext);
+            blackhole.consume(record.getAbout());
+            blackhole.consume(record.getContentTier());
+            blackhole.consume(record.getMetadataTier());
+            blackhole.consume(record.getLastUpdated());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RecordDataCodecBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
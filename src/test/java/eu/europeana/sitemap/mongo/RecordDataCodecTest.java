@@ -0,0 +1,72 @@
+package eu.europeana.sitemap.mongo;
+
+import eu.europeana.sitemap.Constants;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests the RecordDataCodec class
+ * @see RecordDataCodec
+ */
+public class RecordDataCodecTest {
+
+    /**
+     * Encode a document the way mongo returns it
+     */
+    static byte[] toBson(Document document) {
+        try (BasicOutputBuffer buffer = new BasicOutputBuffer();
+             BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            new DocumentCodec().encode(writer, document, EncoderContext.builder().build());
+            writer.flush();
+            return buffer.toByteArray();
+        }
+    }
+
+    private static RecordData decode(byte[] bson) {
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bson))) {
+            return new RecordDataCodec().decode(reader, DecoderContext.builder().build());
+        }
+    }
+
+    @Test
+    public void testDecode() {
+        Document document = new Document(Constants.ID, new ObjectId())
+                .append(Constants.ABOUT, "/123/abc")
+                .append(Constants.LASTUPDATED, new Date(1_500_000_000_000L))
+                .append(Constants.CONTENT_TIER, "3")
+                .append(Constants.METADATA_TIER, "B")
+                .append("other", new Document("nested", "value"));
+
+        RecordData record = decode(toBson(document));
+        assertEquals("/123/abc", record.getAbout());
+        assertEquals(3, record.getContentTier());
+        assertEquals("B", record.getMetadataTier());
+        assertEquals(1_500_000_000_000L, record.getLastUpdated());
+    }
+
+    @Test
+    public void testDecodeMissingFields() {
+        Document document = new Document(Constants.ID, new ObjectId())
+                .append(Constants.ABOUT, "/123/abc")
+                .append(Constants.CONTENT_TIER, "unknown");
+
+        RecordData record = decode(toBson(document));
+        assertEquals("/123/abc", record.getAbout());
+        assertEquals(RecordData.NO_CONTENT_TIER, record.getContentTier());
+        assertNull(record.getMetadataTier());
+        assertEquals(RecordData.NO_LAST_UPDATED, record.getLastUpdated());
+    }
+}
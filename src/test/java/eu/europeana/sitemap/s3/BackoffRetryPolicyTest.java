@@ -0,0 +1,110 @@
+package eu.europeana.sitemap.s3;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the BackoffRetryPolicy
+ * @see BackoffRetryPolicy
+ */
+public class BackoffRetryPolicyTest {
+
+    private static final String RESULT = "etag";
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    /**
+     * Operation that fails the provided number of times before it succeeds
+     */
+    private RetryPolicy.StorageOperation<String> failing(int nrFailures, RuntimeException error) {
+        return () -> {
+            if (attempts.incrementAndGet() <= nrFailures) {
+                throw error;
+            }
+            return RESULT;
+        };
+    }
+
+    private static AmazonServiceException serviceException(int statusCode) {
+        AmazonServiceException result = new AmazonServiceException("error " + statusCode);
+        result.setStatusCode(statusCode);
+        return result;
+    }
+
+    @Test
+    public void testRetrySucceeds() throws IOException {
+        RetryPolicy policy = new BackoffRetryPolicy(3, 1, 5, 0, 0, 0);
+        assertEquals(RESULT, policy.execute("test", failing(2, new SdkClientException("connection reset"))));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testGiveUp() {
+        RetryPolicy policy = new BackoffRetryPolicy(3, 1, 5, 0, 0, 0);
+        IOException e = assertThrows(IOException.class, () -> policy.execute("test", failing(5, serviceException(503))));
+        assertEquals(3, attempts.get());
+        assertTrue(e.getCause() instanceof AmazonServiceException);
+    }
+
+    /**
+     * Errors that won't go away by retrying (e.g. file not found) should fail right away
+     */
+    @Test
+    public void testNotRetryable() {
+        RetryPolicy policy = new BackoffRetryPolicy(3, 1, 5, 0, 0, 0);
+        assertThrows(IOException.class, () -> policy.execute("test", failing(1, serviceException(404))));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void testThrottlingRetried() throws IOException {
+        RetryPolicy policy = new BackoffRetryPolicy(3, 1, 5, 0, 0, 0);
+        AmazonServiceException slowDown = serviceException(429);
+        slowDown.setErrorCode("SlowDown");
+        assertEquals(RESULT, policy.execute("test", failing(1, slowDown)));
+        assertEquals(2, attempts.get());
+    }
+
+    /**
+     * Test that all operations fail right away when the circuit breaker is open, and are tried again afterwards
+     */
+    @Test
+    public void testCircuitBreaker() throws IOException, InterruptedException {
+        RetryPolicy policy = new BackoffRetryPolicy(2, 1, 5, 3, 200, 0);
+        assertThrows(IOException.class, () -> policy.execute("test", failing(2, serviceException(500))));
+        // third failure in a row opens the circuit
+        assertThrows(IOException.class, () -> policy.execute("test", failing(3, serviceException(500))));
+        assertEquals(3, attempts.get());
+        assertThrows(IOException.class, () -> policy.execute("test", failing(0, null)));
+        assertEquals(3, attempts.get());
+
+        Thread.sleep(250);
+        assertEquals(RESULT, policy.execute("test", failing(0, null)));
+        assertEquals(4, attempts.get());
+    }
+
+    /**
+     * Test that all operations fail right away when the error budget is used up, until a new run starts
+     */
+    @Test
+    public void testErrorBudget() throws IOException {
+        RetryPolicy policy = new BackoffRetryPolicy(5, 1, 5, 0, 0, 2);
+        policy.startRun();
+        // 3 failures exceed the budget, so the operation isn't tried again
+        assertThrows(IOException.class, () -> policy.execute("test", failing(4, serviceException(500))));
+        assertEquals(3, attempts.get());
+        assertThrows(IOException.class, () -> policy.execute("test", failing(0, null)));
+        assertEquals(3, attempts.get());
+
+        policy.startRun();
+        assertEquals(RESULT, policy.execute("test", failing(0, null)));
+    }
+}
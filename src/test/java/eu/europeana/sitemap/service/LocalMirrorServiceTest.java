@@ -0,0 +1,122 @@
+package eu.europeana.sitemap.service;
+
+import com.amazonaws.services.s3.AmazonS3;
+import eu.europeana.features.S3ObjectStorageClient;
+import eu.europeana.sitemap.MockObjectStorage;
+import eu.europeana.sitemap.SitemapType;
+import eu.europeana.sitemap.StorageFileName;
+import eu.europeana.sitemap.config.SitemapConfiguration;
+import eu.europeana.sitemap.s3.S3Provider;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the LocalMirrorService
+ * @see LocalMirrorService
+ */
+public class LocalMirrorServiceTest {
+
+    private static final String RECORD_FILE_APPENDIX = "?from=1&to=100";
+    private static final long TIMEOUT_MS = 10_000;
+
+    private static S3ObjectStorageClient mockStorage = mock(S3ObjectStorageClient.class);
+    private static S3Provider s3Provider;
+
+    private Path mirrorDirectory;
+    private ActiveDeploymentService deploymentService;
+    private LocalMirrorService mirrorService;
+
+    @BeforeAll
+    public static void setup() {
+        mockStorage = MockObjectStorage.setup(mockStorage);
+        s3Provider = new S3Provider(MockObjectStorage.setupS3(mock(AmazonS3.class)), "test-bucket");
+    }
+
+    @BeforeEach
+    public void init() throws IOException {
+        MockObjectStorage.clear();
+        mirrorDirectory = Files.createTempDirectory("sitemap-mirror-test");
+        SitemapConfiguration config = mock(SitemapConfiguration.class);
+        when(config.getMirrorDirectory()).thenReturn(mirrorDirectory.toString());
+        deploymentService = new ActiveDeploymentService(mockStorage, s3Provider, config);
+        mirrorService = new LocalMirrorService(mockStorage, s3Provider, deploymentService, config);
+    }
+
+    @AfterEach
+    public void cleanup() throws IOException {
+        mirrorService.shutdown();
+        deploymentService.shutdown();
+        FileUtils.deleteDirectory(mirrorDirectory.toFile());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() - start < TIMEOUT_MS, "Timeout waiting for mirror");
+            Thread.sleep(10);
+        }
+    }
+
+    private static String saveFile(Deployment deployment, String contents) {
+        String fileName = StorageFileName.getSitemapFileName(SitemapType.RECORD, deployment, RECORD_FILE_APPENDIX);
+        mockStorage.putObject(fileName, contents);
+        return fileName;
+    }
+
+    /**
+     * Test that the files of the active deployment are mirrored, and mirrored again after a switch
+     */
+    @Test
+    public void testMirror() throws IOException, InterruptedException {
+        assertTrue(mirrorService.isEnabled());
+        String greenFile = saveFile(Deployment.GREEN, "green");
+        String blueFile = saveFile(Deployment.BLUE, "blue");
+        mockStorage.putObject(StorageFileName.getManifestFileName(SitemapType.RECORD, Deployment.GREEN), "{}");
+
+        mirrorService.startMirroring();
+        waitFor(mirrorService::isComplete);
+        Path mirrored = mirrorService.getFile(greenFile);
+        assertNotNull(mirrored);
+        assertEquals("green", Files.readString(mirrored, StandardCharsets.UTF_8));
+        assertNull(mirrorService.getFile(blueFile));
+        assertNull(mirrorService.getFile(StorageFileName.getManifestFileName(SitemapType.RECORD, Deployment.GREEN)));
+
+        assertEquals(Deployment.BLUE, deploymentService.switchDeployment(SitemapType.RECORD));
+        assertNull(mirrorService.getFile(greenFile));
+        waitFor(mirrorService::isComplete);
+        assertEquals(Deployment.BLUE, mirrorService.getMirroredDeployments().get(SitemapType.RECORD));
+        mirrored = mirrorService.getFile(blueFile);
+        assertNotNull(mirrored);
+        assertEquals("blue", Files.readString(mirrored, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test that nothing is mirrored if no directory is configured
+     */
+    @Test
+    public void testDisabled() {
+        LocalMirrorService disabled = new LocalMirrorService(mockStorage, s3Provider, deploymentService,
+                mock(SitemapConfiguration.class));
+        assertFalse(disabled.isEnabled());
+        assertFalse(disabled.isComplete());
+        assertNull(disabled.getFile(saveFile(Deployment.GREEN, "green")));
+        disabled.shutdown();
+    }
+}
@@ -0,0 +1,100 @@
+package eu.europeana.sitemap.service;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
+import eu.europeana.sitemap.config.SitemapConfiguration;
+import eu.europeana.sitemap.s3.S3Provider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the RedirectUrlService
+ * @see RedirectUrlService
+ */
+public class RedirectUrlServiceTest {
+
+    private static final String FILE_NAME = "sitemap-record-blue.xml?from=1&to=100";
+    private static final String GZIP_FILE_NAME = "sitemap-record-blue.xml.gz?from=1&to=100";
+    private static final String ETAG = "6f8db599de986fab7a21625b7916589c";
+
+    private final List<GeneratePresignedUrlRequest> presignRequests = new ArrayList<>();
+    private S3Provider s3Provider;
+    private SitemapConfiguration config;
+
+    @BeforeEach
+    public void init() {
+        AmazonS3 mockS3 = mock(AmazonS3.class);
+        when(mockS3.generatePresignedUrl(any(GeneratePresignedUrlRequest.class))).thenAnswer((Answer<URL>) invocation -> {
+            GeneratePresignedUrlRequest request = invocation.getArgument(0);
+            presignRequests.add(request);
+            return new URL("https://s3.example.org/test-bucket/" + presignRequests.size());
+        });
+        s3Provider = new S3Provider(mockS3, "test-bucket");
+        config = mock(SitemapConfiguration.class);
+        when(config.isRedirectEnabled()).thenReturn(true);
+        when(config.getRedirectUrlExpiry()).thenReturn(900);
+    }
+
+    private RedirectUrlService createService() {
+        return new RedirectUrlService(s3Provider, mock(ActiveDeploymentService.class), config);
+    }
+
+    /**
+     * Test that presigned urls are reused and that gzip files get a Content-Encoding override
+     */
+    @Test
+    public void testPresignedUrl() {
+        RedirectUrlService service = createService();
+        assertTrue(service.isEnabled());
+        URI url = service.getUrl(FILE_NAME, ETAG, false);
+        assertEquals(url, service.getUrl(FILE_NAME, ETAG, false));
+        assertEquals(1, presignRequests.size());
+        assertEquals(FILE_NAME, presignRequests.get(0).getKey());
+        assertNull(presignRequests.get(0).getResponseHeaders());
+
+        assertNotEquals(url, service.getUrl(GZIP_FILE_NAME, ETAG, true));
+        assertEquals(2, presignRequests.size());
+        assertEquals("gzip", presignRequests.get(1).getResponseHeaders().getContentEncoding());
+    }
+
+    /**
+     * Test that presigned urls are generated again shortly before they expire
+     */
+    @Test
+    public void testPresignedUrlExpiry() throws InterruptedException {
+        when(config.getRedirectUrlExpiry()).thenReturn(1);
+        RedirectUrlService service = createService();
+        URI url = service.getUrl(FILE_NAME, ETAG, false);
+        Thread.sleep(800);
+        assertNotEquals(url, service.getUrl(FILE_NAME, ETAG, false));
+        assertEquals(2, presignRequests.size());
+    }
+
+    /**
+     * Test that CDN urls are generated without presigning, and change when the contents of a file change
+     */
+    @Test
+    public void testCdnUrl() {
+        when(config.getRedirectCdnUrl()).thenReturn("https://cdn.example.org/sitemaps/");
+        RedirectUrlService service = createService();
+        assertEquals(URI.create("https://cdn.example.org/sitemaps/sitemap-record-blue.xml%3Ffrom%3D1%26to%3D100?v=" + ETAG),
+                service.getUrl(FILE_NAME, ETAG, false));
+        assertNotEquals(service.getUrl(FILE_NAME, ETAG, false),
+                service.getUrl(FILE_NAME, "3858f62230ac3c915f300c664312c63f-2", false));
+        assertTrue(presignRequests.isEmpty());
+    }
+}
@@ -0,0 +1,153 @@
+package eu.europeana.sitemap.service;
+
+import eu.europeana.sitemap.exceptions.SiteMapNotFoundException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the SitemapFileCache class
+ * @see SitemapFileCache
+ */
+public class SitemapFileCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicInteger nrLoads = new AtomicInteger();
+
+    private byte[] load(String fileName) {
+        nrLoads.incrementAndGet();
+        return fileName.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private double getCount(String result) {
+        return registry.get("cache.gets").tag("result", result).counter().count();
+    }
+
+    /**
+     * Test that files are loaded once and then served from the cache
+     */
+    @Test
+    public void testHitAndMiss() throws SiteMapNotFoundException {
+        SitemapFileCache cache = new SitemapFileCache(1000, registry);
+
+        assertArrayEquals("file1".getBytes(StandardCharsets.UTF_8), cache.get("file1", this::load));
+        assertArrayEquals("file1".getBytes(StandardCharsets.UTF_8), cache.get("file1", this::load));
+        assertEquals(1, nrLoads.get());
+        assertEquals(1, getCount("hit"));
+        assertEquals(1, getCount("miss"));
+        assertEquals(5, cache.getSizeBytes());
+    }
+
+    /**
+     * Test that the least recently used files are evicted when the cache is full
+     */
+    @Test
+    public void testEviction() throws SiteMapNotFoundException {
+        SitemapFileCache cache = new SitemapFileCache(10, registry);
+        cache.get("file1", this::load);
+        cache.get("file2", this::load);
+        cache.get("file1", this::load); // file2 is now least recently used
+        cache.get("file3", this::load);
+
+        assertEquals(2, cache.getNrFiles());
+        assertEquals(10, cache.getSizeBytes());
+        assertEquals(1, registry.get("cache.evictions").counter().count());
+        cache.get("file1", this::load);
+        assertEquals(3, nrLoads.get());
+        cache.get("file2", this::load);
+        assertEquals(4, nrLoads.get());
+
+        // files larger than the cache are served but not cached
+        cache.get("a-very-large-file", this::load);
+        cache.get("a-very-large-file", this::load);
+        assertEquals(6, nrLoads.get());
+    }
+
+    /**
+     * Test that a file that isn't found is not cached
+     */
+    @Test
+    public void testNotFound() {
+        SitemapFileCache cache = new SitemapFileCache(1000, registry);
+        SitemapFileCache.Loader notFound = fileName -> {
+            nrLoads.incrementAndGet();
+            throw new SiteMapNotFoundException("File " + fileName + " not found!");
+        };
+        assertThrows(SiteMapNotFoundException.class, () -> cache.get("file1", notFound));
+        assertThrows(SiteMapNotFoundException.class, () -> cache.get("file1", notFound));
+        assertEquals(2, nrLoads.get());
+        assertEquals(0, cache.getNrFiles());
+    }
+
+    /**
+     * Test that concurrent requests for the same file result in a single load
+     */
+    @Test
+    public void testSingleLoad() throws Exception {
+        SitemapFileCache cache = new SitemapFileCache(1000, registry);
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+        SitemapFileCache.Loader slowLoader = fileName -> {
+            loadStarted.countDown();
+            try {
+                releaseLoad.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return load(fileName);
+        };
+
+        int nrRequests = 5;
+        ExecutorService executor = Executors.newFixedThreadPool(nrRequests);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.get("file1", slowLoader)));
+            assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+            for (int i = 1; i < nrRequests; i++) {
+                results.add(executor.submit(() -> cache.get("file1", slowLoader)));
+            }
+            // give the other requests some time to start waiting for the load
+            Thread.sleep(200);
+            releaseLoad.countDown();
+
+            for (Future<byte[]> result : results) {
+                assertArrayEquals("file1".getBytes(StandardCharsets.UTF_8), result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, nrLoads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Test that invalidating removes only the files with the provided prefix
+     */
+    @Test
+    public void testInvalidate() throws SiteMapNotFoundException {
+        SitemapFileCache cache = new SitemapFileCache(1000, registry);
+        cache.get("sitemap-record-blue-1.xml", this::load);
+        cache.get("sitemap-record-index-blue.xml", this::load);
+        cache.get("sitemap-entity-green-1.xml", this::load);
+
+        cache.invalidate("sitemap-record-");
+        assertEquals(1, cache.getNrFiles());
+        assertEquals("sitemap-entity-green-1.xml".length(), cache.getSizeBytes());
+        cache.get("sitemap-record-blue-1.xml", this::load);
+        cache.get("sitemap-entity-green-1.xml", this::load);
+        assertEquals(4, nrLoads.get());
+    }
+}
@@ -0,0 +1,84 @@
+package eu.europeana.sitemap.service.update;
+
+import com.jayway.jsonpath.JsonPath;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro benchmark comparing the previous way of parsing an Entity API response (reading it into a String and parsing
+ * it twice with JsonPath) with the streaming EntityResponseParser, using the recorded response in
+ * dummy_search_result.json. Run the main method and compare the average time and the gc.alloc.rate.norm values
+ * (bytes allocated per page) of both benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityResponseParserBenchmark {
+
+    private byte[] response;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        try (InputStream in = Thread.currentThread().getContextClassLoader()
+                .getResourceAsStream("dummy_search_result.json")) {
+            response = IOUtils.toByteArray(in);
+        }
+    }
+
+    @Benchmark
+    public void parseJsonPath(Blackhole blackhole) {
+        String json = new String(response, StandardCharsets.UTF_8);
+        for (MapEntityData entity : JsonPath.parse(json).read("$.items[*]", MapEntityData[].class)) {
+            blackhole.consume(entity.get("id"));
+            blackhole.consume(entity.get("type"));
+        }
+        blackhole.consume(JsonPath.parse(json).read("$.partOf.total", Long.class));
+    }
+
+    @Benchmark
+    public void parseStreaming(Blackhole blackhole) throws IOException {
+        blackhole.consume(EntityResponseParser.parse(new ByteArrayInputStream(response), entity -> {
+            blackhole.consume(entity.getId());
+            blackhole.consume(entity.getType());
+        }));
+    }
+
+    /**
+     * Entity data as it was read previously, with all fields of an item in a map
+     */
+    public static class MapEntityData extends HashMap<String, Object> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EntityResponseParserBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
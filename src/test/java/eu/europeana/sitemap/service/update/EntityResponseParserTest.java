@@ -0,0 +1,71 @@
+package eu.europeana.sitemap.service.update;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the EntityResponseParser
+ * @see EntityResponseParser
+ */
+public class EntityResponseParserTest {
+
+    private final List<UpdateEntityService.EntityData> entities = new ArrayList<>();
+
+    private EntityResponseParser.Result parse(String json) throws IOException {
+        return EntityResponseParser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), entities::add);
+    }
+
+    /**
+     * Test that the total and the id and type of all items are read, but not the (nested) fields with the same name
+     */
+    @Test
+    public void testParseResponse() throws IOException {
+        try (InputStream response = Thread.currentThread().getContextClassLoader()
+                .getResourceAsStream("dummy_search_result.json")) {
+            EntityResponseParser.Result result = EntityResponseParser.parse(response, entities::add);
+            assertEquals(20, result.getTotal());
+            assertNull(result.getNextCursor());
+        }
+        assertEquals(20, entities.size());
+        assertEquals("http://data.europeana.eu/agent/base/34712", entities.get(0).getId());
+        assertEquals("Agent", entities.get(0).getType());
+        assertEquals("http://data.europeana.eu/concept/base/518", entities.get(10).getId());
+        assertEquals("Concept", entities.get(10).getType());
+    }
+
+    @Test
+    public void testSkipInvalidItems() throws IOException {
+        assertEquals(3, parse("{\"items\":[null, {\"id\":\"http://data.europeana.eu/agent/base/1\"}, "
+                + "{\"type\":\"Agent\",\"id\":\"http://data.europeana.eu/agent/base/2\",\"extra\":[1,{\"id\":\"x\"}]}],"
+                + "\"partOf\":{\"type\":\"ResultList\",\"total\":3}}").getTotal());
+        assertEquals(1, entities.size());
+        assertEquals("http://data.europeana.eu/agent/base/2", entities.get(0).getId());
+    }
+
+    @Test
+    public void testNextCursor() throws IOException {
+        EntityResponseParser.Result result = parse("{\"partOf\":{\"total\":1},\"nextCursor\":\"AoE/ABC=\","
+                + "\"items\":[{\"id\":\"http://data.europeana.eu/agent/base/1\",\"type\":\"Agent\"}]}");
+        assertEquals(1, result.getTotal());
+        assertEquals("AoE/ABC=", result.getNextCursor());
+        assertEquals(1, entities.size());
+    }
+
+    @Test
+    public void testNoTotal() {
+        assertThrows(IOException.class, () -> parse("{\"total\":2,\"items\":[]}"));
+        assertThrows(IOException.class, () -> parse("[]"));
+        assertTrue(entities.isEmpty());
+    }
+}
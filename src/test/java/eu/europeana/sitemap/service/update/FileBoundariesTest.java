@@ -0,0 +1,35 @@
+package eu.europeana.sitemap.service.update;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the FileBoundaries class
+ * @see FileBoundaries
+ */
+public class FileBoundariesTest {
+
+    @Test
+    public void testIsCrossed() {
+        FileBoundaries boundaries = new FileBoundaries(List.of("/1/a", "/2/a", "/3/a", "/3/b"));
+        assertTrue(boundaries.isCrossed("/1/a"));
+        assertFalse(boundaries.isCrossed("/1/b"));
+        assertFalse(boundaries.isCrossed("/1/c"));
+        // the boundary key itself no longer exists
+        assertTrue(boundaries.isCrossed("/2/b"));
+        assertFalse(boundaries.isCrossed("/2/c"));
+        // several boundaries at once
+        assertTrue(boundaries.isCrossed("/4/a"));
+        assertFalse(boundaries.isCrossed("/5/a"));
+    }
+
+    @Test
+    public void testNoBoundaries() {
+        FileBoundaries boundaries = new FileBoundaries(List.of());
+        assertFalse(boundaries.isCrossed("/1/a"));
+    }
+}
@@ -0,0 +1,99 @@
+package eu.europeana.sitemap.service.update;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import eu.europeana.sitemap.s3.S3Provider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests the MultipartUploadSink class
+ * @see MultipartUploadSink
+ */
+public class MultipartUploadSinkTest {
+
+    private static final String BUCKET = "test-bucket";
+    private static final int PART_SIZE = MultipartUploadSink.MIN_PART_SIZE;
+
+    private AmazonS3 mockS3;
+    private ByteArrayOutputStream uploaded;
+
+    @BeforeEach
+    public void setup() {
+        mockS3 = mock(AmazonS3.class);
+        uploaded = new ByteArrayOutputStream();
+
+        InitiateMultipartUploadResult initResult = new InitiateMultipartUploadResult();
+        initResult.setUploadId("upload1");
+        when(mockS3.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenReturn(initResult);
+        when(mockS3.uploadPart(any(UploadPartRequest.class))).thenAnswer((Answer<UploadPartResult>) invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            uploaded.write(request.getInputStream().readAllBytes());
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("etag" + request.getPartNumber());
+            return result;
+        });
+        when(mockS3.putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class))).thenAnswer(invocation -> {
+            InputStream in = invocation.getArgument(2);
+            uploaded.write(in.readAllBytes());
+            return null;
+        });
+    }
+
+    /**
+     * Test if a file larger than 1 part is uploaded in multiple parts and renamed to its final name
+     */
+    @Test
+    public void testMultipartUpload() throws IOException {
+        MultipartUploadSink sink = new MultipartUploadSink(new S3Provider(mockS3, BUCKET), PART_SIZE);
+        byte[] data = new byte[PART_SIZE * 2 + 100];
+        Arrays.fill(data, (byte) 'x');
+
+        SitemapFileOutput out = sink.open("provisional");
+        out.write(data, 0, data.length);
+        out.setFileName("final");
+        out.close();
+
+        verify(mockS3, times(3)).uploadPart(any(UploadPartRequest.class));
+        verify(mockS3).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        verify(mockS3).copyObject(any(CopyObjectRequest.class));
+        verify(mockS3).deleteObject(BUCKET, "provisional");
+        assertArrayEquals(data, uploaded.toByteArray());
+    }
+
+    /**
+     * Test if a small file is saved with a single put request
+     */
+    @Test
+    public void testSinglePartUpload() throws IOException {
+        MultipartUploadSink sink = new MultipartUploadSink(new S3Provider(mockS3, BUCKET), PART_SIZE);
+        byte[] data = "<urlset></urlset>".getBytes();
+
+        SitemapFileOutput out = sink.open("provisional");
+        out.write(data);
+        out.setFileName("final");
+        out.close();
+
+        verify(mockS3, never()).initiateMultipartUpload(any(InitiateMultipartUploadRequest.class));
+        verify(mockS3).putObject(eq(BUCKET), eq("final"), any(InputStream.class), any(ObjectMetadata.class));
+        assertEquals("final", out.getFileName());
+        assertArrayEquals(data, uploaded.toByteArray());
+    }
+}
@@ -0,0 +1,121 @@
+package eu.europeana.sitemap.service.update;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the PrefetchIterator class
+ * @see PrefetchIterator
+ */
+public class PrefetchIteratorTest {
+
+    private final PrefetchMetrics metrics = new PrefetchMetrics(new SimpleMeterRegistry(), "test");
+
+    /**
+     * Source that counts to a maximum and keeps track of whether it's closed
+     */
+    private static final class CountingSource implements Iterator<Integer>, AutoCloseable {
+        private final int max;
+        private final int failAt;
+        private final Error failWith;
+        private int current;
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        private CountingSource(int max, int failAt) {
+            this(max, failAt, null);
+        }
+
+        private CountingSource(int max, int failAt, Error failWith) {
+            this.max = max;
+            this.failAt = failAt;
+            this.failWith = failWith;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return current < max;
+        }
+
+        @Override
+        public Integer next() {
+            current++;
+            if (current == failAt && failWith != null) {
+                throw failWith;
+            }
+            if (current == failAt) {
+                throw new IllegalStateException("Test error");
+            }
+            return current;
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    @Test
+    public void testAllItemsInOrder() throws InterruptedException {
+        CountingSource source = new CountingSource(1000, -1);
+        List<Integer> result = new ArrayList<>();
+        try (PrefetchIterator<Integer> iterator = new PrefetchIterator<>(source, 10, "test-prefetch", metrics)) {
+            while (iterator.hasNext()) {
+                result.add(iterator.next());
+            }
+            assertFalse(iterator.hasNext());
+            assertThrows(NoSuchElementException.class, iterator::next);
+        }
+        assertEquals(IntStream.rangeClosed(1, 1000).boxed().toList(), result);
+        assertTrue(source.closed.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSourceError() {
+        CountingSource source = new CountingSource(1000, 500);
+        try (PrefetchIterator<Integer> iterator = new PrefetchIterator<>(source, 10, "test-prefetch", metrics)) {
+            for (int i = 1; i < 500; i++) {
+                assertEquals(Integer.valueOf(i), iterator.next());
+            }
+            assertThrows(IllegalStateException.class, iterator::hasNext);
+        }
+    }
+
+    /**
+     * Test that an Error in the source (e.g. OutOfMemoryError) isn't reported as the end of the items
+     */
+    @Test
+    public void testSourceFatalError() {
+        Error error = new OutOfMemoryError("Test error");
+        CountingSource source = new CountingSource(1000, 500, error);
+        try (PrefetchIterator<Integer> iterator = new PrefetchIterator<>(source, 10, "test-prefetch", metrics)) {
+            for (int i = 1; i < 500; i++) {
+                assertEquals(Integer.valueOf(i), iterator.next());
+            }
+            IllegalStateException e = assertThrows(IllegalStateException.class, iterator::hasNext);
+            assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void testCloseEarly() throws InterruptedException {
+        CountingSource source = new CountingSource(Integer.MAX_VALUE, -1);
+        try (PrefetchIterator<Integer> iterator = new PrefetchIterator<>(source, 10, "test-prefetch", metrics)) {
+            assertEquals(Integer.valueOf(1), iterator.next());
+        }
+        assertTrue(source.closed.await(1, TimeUnit.SECONDS));
+    }
+}
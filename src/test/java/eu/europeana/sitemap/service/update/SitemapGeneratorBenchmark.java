@@ -0,0 +1,96 @@
+package eu.europeana.sitemap.service.update;
+
+import eu.europeana.sitemap.SitemapType;
+import eu.europeana.sitemap.service.Deployment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro benchmark comparing the 2 ways of adding items to a sitemap. Generated files are discarded, so only the
+ * encoding of items is measured. Run the main method (or use the JMH gc profiler) and compare the
+ * gc.alloc.rate.norm values (bytes allocated per item) of both benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SitemapGeneratorBenchmark {
+
+    private static final String PORTAL_BASE_URL = "https://www.europeana.eu";
+    private static final String RECORD_URL_PREFIX = PORTAL_BASE_URL + "/item";
+    private static final int NR_IDS = 1024;
+    private static final long START_DATE = 1_500_000_000_000L;
+    private static final long MS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final String[] ids = new String[NR_IDS];
+    private SitemapGenerator generator;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        for (int i = 0; i < NR_IDS; i++) {
+            ids[i] = "/2048128/item_" + i + "_" + Integer.toHexString(i * 31);
+        }
+        SitemapFileSink discardingSink = new SitemapFileSink() {
+            @Override
+            public SitemapFileOutput open(String fileName) {
+                return new SitemapFileOutput(fileName) {
+                    @Override
+                    public void write(int b) {
+                        // discard
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        // discard
+                    }
+                };
+            }
+
+            @Override
+            public void copy(String sourceFileName, String targetFileName) {
+                // discard
+            }
+        };
+        generator = new SitemapGenerator(SitemapType.RECORD, discardingSink);
+        generator.init(Deployment.BLUE, PORTAL_BASE_URL, 45_000);
+    }
+
+    @Benchmark
+    public void addItemStrings() {
+        int i = counter++ & (NR_IDS - 1);
+        generator.addItem(RECORD_URL_PREFIX + ids[i], UpdateRecordServiceUtils.getPriorityForTiers(i % 5),
+                new Date(START_DATE + i * MS_PER_DAY));
+    }
+
+    @Benchmark
+    public void addItemEncoded() {
+        int i = counter++ & (NR_IDS - 1);
+        generator.addItem(RECORD_URL_PREFIX, ids[i], i % 5, START_DATE + i * MS_PER_DAY);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SitemapGeneratorBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -1,17 +1,34 @@
 package eu.europeana.sitemap.service.update;
 
+import com.amazonaws.services.s3.AmazonS3;
 import eu.europeana.features.S3ObjectStorageClient;
 import eu.europeana.sitemap.MockObjectStorage;
 import eu.europeana.sitemap.SitemapType;
 import eu.europeana.sitemap.XmlUtils;
+import eu.europeana.sitemap.s3.RetryPolicy;
+import eu.europeana.sitemap.s3.S3Provider;
 import eu.europeana.sitemap.service.Deployment;
+import eu.europeana.sitemap.service.SitemapManifest;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.mockito.Mockito.mock;
@@ -76,14 +93,16 @@ public class SitemapGeneratorTest {
         assertTrue(expectIndexFileName, mockStorage.isObjectAvailable(expectIndexFileName));
         assertTrue(expectSitemapFileName1, mockStorage.isObjectAvailable(expectSitemapFileName1));
         assertTrue(expectSitemapFileName2, mockStorage.isObjectAvailable(expectSitemapFileName2));
+        assertEquals("Index file size", (long) mockStorage.getObjectContent(expectIndexFileName).length,
+                generator.getIndexSize());
 
         // check if index refers to the generated files
         String indexContent =  XmlUtils.harmonizeXml(new String(mockStorage.getObjectContent(expectIndexFileName)));
         assertEquals("Index file should only contain 2 references to sitemap files", 2, StringUtils.countMatches(indexContent, "<sitemap>"));
         String expectFileInIndex1 = websiteBaseUrl + "/" + fileName + ".xml?from=1&amp;to=3";
         String expectFileInIndex2 = websiteBaseUrl + "/" + fileName + ".xml?from=4&amp;to=5";
-        assertTrue("Contains file1", indexContent.contains("<sitemap><loc>" + expectFileInIndex1 + "</loc></sitemap>"));
-        assertTrue("Contains file2", indexContent.contains("<sitemap><loc>" + expectFileInIndex2 + "</loc></sitemap>"));
+        assertTrue("Contains file1", indexContent.contains("<sitemap><loc>" + expectFileInIndex1 + "</loc><lastmod>"));
+        assertTrue("Contains file2", indexContent.contains("<sitemap><loc>" + expectFileInIndex2 + "</loc><lastmod>"));
 
         // check sitemap file 1 contents
         String sitemap1Content = XmlUtils.harmonizeXml(new String(mockStorage.getObjectContent(expectSitemapFileName1)));
@@ -102,6 +121,402 @@ public class SitemapGeneratorTest {
         }
     }
 
+    /**
+     * Test if all files are saved when they are uploaded in the background
+     */
+    @Test
+    public void testGeneratorAsyncUploads() {
+        String websiteBaseUrl = "https://www.europeana.eu";
+        int itemsPerSitemap = 2;
+        int nrItems = 11;
+        try (AsyncFileSink asyncSink = new AsyncFileSink(new BufferedFileSink(mockStorage), 3)) {
+            SitemapGenerator generator = new SitemapGenerator(SitemapType.RECORD, asyncSink);
+            generator.init(Deployment.GREEN, websiteBaseUrl, itemsPerSitemap);
+            for (int i = 1; i <= nrItems; i++) {
+                generator.addItem(websiteBaseUrl + "/item/" + i + ".html", null, null);
+            }
+            generator.finish();
+        }
+
+        String indexContent = XmlUtils.harmonizeXml(new String(mockStorage.getObjectContent("sitemap-record-green-index.xml")));
+        assertEquals("Index file should contain 6 references to sitemap files", 6, StringUtils.countMatches(indexContent, "<sitemap>"));
+        for (int from = 1; from <= nrItems; from = from + itemsPerSitemap) {
+            String fileName = "sitemap-record-green.xml?from=" + from + "&to=" + Math.min(from + itemsPerSitemap - 1, nrItems);
+            assertTrue(fileName, mockStorage.isObjectAvailable(fileName));
+        }
+    }
+
+    /**
+     * Test if the parts of a file are written by the upload threads when the underlying sink saves files in parts
+     */
+    @Test
+    public void testGeneratorAsyncPartUploads() {
+        String websiteBaseUrl = "https://www.europeana.eu";
+        int partSize = 100;
+        Map<String, String> savedFiles = new ConcurrentHashMap<>();
+        List<String> writingThreads = new CopyOnWriteArrayList<>();
+        SitemapFileSink partSink = new SitemapFileSink() {
+            @Override
+            public SitemapFileOutput open(String fileName) {
+                return new SitemapFileOutput(fileName) {
+                    private final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+
+                    @Override
+                    public void write(int b) {
+                        writingThreads.add(Thread.currentThread().getName());
+                        contents.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        writingThreads.add(Thread.currentThread().getName());
+                        contents.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() {
+                        savedFiles.put(getFileName(), contents.toString(StandardCharsets.UTF_8));
+                    }
+                };
+            }
+
+            @Override
+            public int getPartSize() {
+                return partSize;
+            }
+
+            @Override
+            public void copy(String sourceFileName, String targetFileName) {
+                savedFiles.put(targetFileName, savedFiles.get(sourceFileName));
+            }
+        };
+
+        try (AsyncFileSink asyncSink = new AsyncFileSink(partSink, 2)) {
+            SitemapGenerator generator = new SitemapGenerator(SitemapType.RECORD, asyncSink);
+            generator.init(Deployment.GREEN, websiteBaseUrl, 5);
+            for (int i = 1; i <= 7; i++) {
+                generator.addItem(websiteBaseUrl + "/item/" + i + ".html", null, null);
+            }
+            generator.finish();
+        }
+
+        assertFalse(writingThreads.contains(Thread.currentThread().getName()));
+        String sitemap1Content = savedFiles.get("sitemap-record-green.xml?from=1&to=5");
+        assertTrue("Sitemap file 1 should be saved under its final name", sitemap1Content != null);
+        assertTrue("Sitemap file 1 should be larger than 1 part", sitemap1Content.length() > partSize);
+        assertEquals("Sitemap file 1 should contain 5 items", 5, StringUtils.countMatches(sitemap1Content, "<url>"));
+        assertTrue("Sitemap file 1 should be complete", sitemap1Content.endsWith("</urlset>"));
+        String sitemap2Content = savedFiles.get("sitemap-record-green.xml?from=6&to=7");
+        assertEquals("Sitemap file 2 should contain 2 items", 2, StringUtils.countMatches(sitemap2Content, "<url>"));
+    }
+
+    /**
+     * Test if sitemap files are gzip-compressed and listed as .xml.gz files in the (uncompressed) index
+     */
+    @Test
+    public void testGeneratorGzip() throws IOException {
+        String websiteBaseUrl = "https://www.europeana.eu";
+        Map<String, byte[]> savedFiles = new HashMap<>();
+        SitemapFileSink binarySink = new SitemapFileSink() {
+            @Override
+            public SitemapFileOutput open(String fileName) {
+                return new SitemapFileOutput(fileName) {
+                    private final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+
+                    @Override
+                    public void write(int b) {
+                        contents.write(b);
+                    }
+
+                    @Override
+                    public void close() {
+                        savedFiles.put(getFileName(), contents.toByteArray());
+                    }
+                };
+            }
+
+            @Override
+            public void copy(String sourceFileName, String targetFileName) {
+                savedFiles.put(targetFileName, savedFiles.get(sourceFileName));
+            }
+        };
+
+        SitemapGenerator generator = new SitemapGenerator(SitemapType.RECORD, binarySink, true);
+        generator.init(Deployment.BLUE, websiteBaseUrl, 3);
+        for (int i = 1; i <= 4; i++) {
+            generator.addItem(websiteBaseUrl + "/item/" + i + ".html", null, null);
+        }
+        generator.finish();
+
+        String indexContent = XmlUtils.harmonizeXml(new String(savedFiles.get("sitemap-record-blue-index.xml"), StandardCharsets.UTF_8));
+        assertTrue("Contains file1", indexContent.contains("<loc>" + websiteBaseUrl + "/sitemap-record.xml.gz?from=1&amp;to=3</loc>"));
+        assertTrue("Contains file2", indexContent.contains("<loc>" + websiteBaseUrl + "/sitemap-record.xml.gz?from=4&amp;to=4</loc>"));
+
+        byte[] compressed = savedFiles.get("sitemap-record-blue.xml.gz?from=1&to=3");
+        assertTrue("Sitemap file 1 should be saved", compressed != null);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            String sitemap1Content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            assertEquals("Sitemap file 1 should contain 3 items", 3, StringUtils.countMatches(sitemap1Content, "<url>"));
+            assertTrue("Sitemap file 1 should be complete", sitemap1Content.endsWith("</urlset>"));
+        }
+    }
+
+    /**
+     * Test if adding items with a url prefix, tier code and timestamp results in the same file as adding them as
+     * strings and dates
+     */
+    @Test
+    public void testGeneratorItemEncoding() {
+        String websiteBaseUrl = "https://www.europeana.eu";
+        String urlPrefix = websiteBaseUrl + "/item";
+        String[] ids = {"/1/abc", "/2/d\u00e9f", "/3/\u6f22\u5b57", "/4/\uD83D\uDE00"};
+        long[] timestamps = {0L, 1_500_000_000_000L, 1_500_000_000_001L, SitemapGenerator.NO_LAST_MODIFIED};
+
+        SitemapGenerator generator1 = new SitemapGenerator(SitemapType.RECORD, mockStorage);
+        generator1.init(Deployment.BLUE, websiteBaseUrl, 10);
+        SitemapGenerator generator2 = new SitemapGenerator(SitemapType.RECORD, mockStorage);
+        generator2.init(Deployment.GREEN, websiteBaseUrl, 10);
+        for (int i = 0; i < ids.length; i++) {
+            long timestamp = timestamps[i];
+            generator1.addItem(urlPrefix + ids[i], UpdateRecordServiceUtils.getPriorityForTiers(i + 1),
+                    (timestamp == SitemapGenerator.NO_LAST_MODIFIED ? null : new Date(timestamp)));
+            generator2.addItem(urlPrefix, ids[i], i + 1, timestamp);
+        }
+        generator2.addItem(urlPrefix, "/5/no-priority", SitemapGenerator.NO_PRIORITY, SitemapGenerator.NO_LAST_MODIFIED);
+        generator1.addItem(urlPrefix + "/5/no-priority", null, null);
+        generator1.finish();
+        generator2.finish();
+
+        String sitemap1 = new String(mockStorage.getObjectContent("sitemap-record-blue.xml?from=1&to=5"), StandardCharsets.UTF_8);
+        String sitemap2 = new String(mockStorage.getObjectContent("sitemap-record-green.xml?from=1&to=5"), StandardCharsets.UTF_8);
+        assertEquals("Sitemap files should be the same", sitemap1, sitemap2);
+        assertTrue("Sitemap file should contain special characters", sitemap2.contains("/4/\uD83D\uDE00</loc>"));
+    }
+
+    /**
+     * Test if the index lists the files of all sections in the order the sections were created
+     */
+    @Test
+    public void testGeneratorSections() throws InterruptedException {
+        String websiteBaseUrl = "https://www.europeana.eu";
+        SitemapGenerator generator = new SitemapGenerator(SitemapType.RECORD, mockStorage);
+        generator.init(Deployment.BLUE, websiteBaseUrl, 2);
+        SitemapGenerator section1 = generator.createSection("p01");
+        SitemapGenerator section2 = generator.createSection("p02");
+
+        // generate section 2 first, in a different thread
+        Thread thread = new Thread(() -> {
+            for (int i = 1; i <= 3; i++) {
+                section2.addItem(websiteBaseUrl + "/item/b" + i, null, null);
+            }
+            section2.finish();
+        });
+        thread.start();
+        thread.join();
+        section1.addItem(websiteBaseUrl + "/item/a1", null, null);
+        Assertions.assertThrows(IllegalStateException.class, generator::finish);
+        section1.finish();
+        generator.finish();
+
+        assertTrue("p01 file", mockStorage.isObjectAvailable("sitemap-record-blue-p01.xml?from=1&to=1"));
+        assertTrue("p02 file 1", mockStorage.isObjectAvailable("sitemap-record-blue-p02.xml?from=1&to=2"));
+        assertTrue("p02 file 2", mockStorage.isObjectAvailable("sitemap-record-blue-p02.xml?from=3&to=3"));
+        String indexContent = XmlUtils.harmonizeXml(new String(mockStorage.getObjectContent("sitemap-record-blue-index.xml")));
+        String file1 = websiteBaseUrl + "/sitemap-record-p01.xml?from=1&amp;to=1";
+        String file2 = websiteBaseUrl + "/sitemap-record-p02.xml?from=1&amp;to=2";
+        String file3 = websiteBaseUrl + "/sitemap-record-p02.xml?from=3&amp;to=3";
+        assertTrue("Index should list section files in order", indexContent.indexOf(file1) >= 0
+                && indexContent.indexOf(file1) < indexContent.indexOf(file2)
+                && indexContent.indexOf(file2) < indexContent.indexOf(file3));
+    }
+
+    /**
+     * Test if the generator keeps track of the keys and hash of each file and if files can be reused by a next generator
+     */
+    @Test
+    public void testGeneratorCopyFile() {
+        String websiteBaseUrl = "https://www.europeana.eu";
+        String urlPrefix = websiteBaseUrl + "/item";
+        SitemapGenerator generator1 = new SitemapGenerator(SitemapType.RECORD, mockStorage);
+        generator1.init(Deployment.BLUE, websiteBaseUrl, 2);
+        for (String id : new String[]{"/1/a", "/1/b", "/2/a", "/2/b", "/3/a"}) {
+            generator1.addItem(urlPrefix, id, 2, SitemapGenerator.NO_LAST_MODIFIED);
+        }
+        generator1.finish();
+        List<SitemapManifest.File> files1 = generator1.getFiles();
+        assertEquals("Number of files", 3, files1.size());
+        assertEquals("First key", "/2/a", files1.get(1).getFirstKey());
+        assertEquals("Last key", "/2/b", files1.get(1).getLastKey());
+        assertEquals("Number of items", 1L, files1.get(2).getNrItems());
+        // note that the mock storage returns the contents of a file only once, so we save it again after reading
+        byte[] lastFileContent = mockStorage.getObjectContent("sitemap-record-blue.xml?from=5&to=5");
+        mockStorage.putObject("sitemap-record-blue.xml?from=5&to=5", new String(lastFileContent, StandardCharsets.UTF_8));
+        assertEquals("Stored size", (long) lastFileContent.length, files1.get(2).getSize());
+
+        // reuse the first and last file, regenerate the middle one with 1 item less
+        SitemapGenerator generator2 = new SitemapGenerator(SitemapType.RECORD, mockStorage);
+        generator2.init(Deployment.GREEN, websiteBaseUrl, 2);
+        generator2.copyFile(files1.get(0));
+        generator2.addItem(urlPrefix, "/2/a", 2, SitemapGenerator.NO_LAST_MODIFIED);
+        generator2.finishCurrentFile();
+        generator2.copyFile(files1.get(2));
+        generator2.finish();
+        List<SitemapManifest.File> files2 = generator2.getFiles();
+
+        assertEquals("Number of files", 3, files2.size());
+        assertEquals("Copied file hash", files1.get(0).getHash(), files2.get(0).getHash());
+        assertFalse(files1.get(1).getHash().equals(files2.get(1).getHash()));
+        assertEquals("Copied file name", "sitemap-record-green.xml?from=4&to=4", files2.get(2).getName());
+        assertEquals("Copied file size", files1.get(2).getSize(), files2.get(2).getSize());
+        assertTrue("Copied file contents", Arrays.equals(lastFileContent,
+                mockStorage.getObjectContent("sitemap-record-green.xml?from=4&to=4")));
+        String indexContent = new String(mockStorage.getObjectContent("sitemap-record-green-index.xml"));
+        assertTrue("Index should list copied file", indexContent.contains("sitemap-record.xml?from=4&amp;to=4"));
+    }
+
+    /**
+     * Test if the index lists files with their version when versioned urls are enabled, and if files with the same
+     * contents keep the same url
+     */
+    @Test
+    public void testGeneratorVersionedUrls() {
+        String websiteBaseUrl = "https://www.europeana.eu";
+        String urlPrefix = websiteBaseUrl + "/item";
+        SitemapGenerator generator = new SitemapGenerator(SitemapType.RECORD, mockStorage);
+        generator.init(Deployment.BLUE, websiteBaseUrl, 2);
+        generator.setVersionedUrls(true);
+        SitemapGenerator section = generator.createSection("p01");
+        for (String id : new String[]{"/1/a", "/1/b", "/2/a"}) {
+            section.addItem(urlPrefix, id, 2, SitemapGenerator.NO_LAST_MODIFIED);
+        }
+        section.finish();
+        generator.finish();
+        List<SitemapManifest.File> files = generator.getFiles();
+        assertEquals("Number of files", 2, files.size());
+        assertEquals("Version length", 16, files.get(0).getVersion().length());
+        assertTrue("Version is start of hash", files.get(0).getHash().startsWith(files.get(0).getVersion()));
+        assertEquals("File name has no version", "sitemap-record-blue-p01.xml?from=1&to=2", files.get(0).getName());
+
+        String indexContent = new String(mockStorage.getObjectContent("sitemap-record-blue-index.xml"));
+        assertTrue("Index should list file 1 with version", indexContent.contains(
+                "sitemap-record-p01.xml?from=1&amp;to=2&amp;v=" + files.get(0).getVersion() + "</loc>"));
+        assertTrue("Index should list file 2 with version", indexContent.contains(
+                "sitemap-record-p01.xml?from=3&amp;to=3&amp;v=" + files.get(1).getVersion() + "</loc>"));
+
+        // a copied file keeps its version
+        SitemapGenerator generator2 = new SitemapGenerator(SitemapType.RECORD, mockStorage);
+        generator2.init(Deployment.GREEN, websiteBaseUrl, 2);
+        generator2.setVersionedUrls(true);
+        generator2.copyFile(files.get(0));
+        generator2.finish();
+        String indexContent2 = new String(mockStorage.getObjectContent("sitemap-record-green-index.xml"));
+        assertTrue("Index should list copied file with version", indexContent2.contains(
+                "sitemap-record.xml?from=1&amp;to=2&amp;v=" + files.get(0).getVersion() + "</loc>"));
+    }
+
+    /**
+     * Test if a checkpoint is saved after each file and if a next generator can continue after the checkpoint
+     */
+    @Test
+    public void testGeneratorResume() {
+        String websiteBaseUrl = "https://www.europeana.eu";
+        String urlPrefix = websiteBaseUrl + "/item";
+        List<List<SitemapManifest.File>> checkpoints = new ArrayList<>();
+        SitemapGenerator generator1 = new SitemapGenerator(SitemapType.RECORD, mockStorage);
+        generator1.init(Deployment.BLUE, websiteBaseUrl, 2);
+        generator1.setCheckpointHandler(1, checkpoints::add);
+        // generator1 is interrupted halfway the second file
+        for (String id : new String[]{"/1/a", "/1/b", "/2/a"}) {
+            generator1.addItem(urlPrefix, id, 2, SitemapGenerator.NO_LAST_MODIFIED);
+        }
+        assertEquals("Number of checkpoints", 1, checkpoints.size());
+        assertEquals("Last key in checkpoint", "/1/b", checkpoints.get(0).get(0).getLastKey());
+
+        SitemapManifest checkpoint = new SitemapManifest();
+        checkpoint.setDeployment(Deployment.BLUE);
+        checkpoint.setFiles(checkpoints.get(0));
+        SitemapGenerator generator2 = new SitemapGenerator(SitemapType.RECORD, mockStorage);
+        generator2.init(Deployment.BLUE, websiteBaseUrl, 2);
+        generator2.resume(checkpoint);
+        for (String id : new String[]{"/2/a", "/2/b", "/3/a"}) {
+            generator2.addItem(urlPrefix, id, 2, SitemapGenerator.NO_LAST_MODIFIED);
+        }
+        generator2.finish();
+        List<SitemapManifest.File> files = generator2.getFiles();
+
+        assertEquals("Number of files", 3, files.size());
+        assertEquals("Resumed file name", "sitemap-record-blue.xml?from=1&to=2", files.get(0).getName());
+        assertEquals("New file name", "sitemap-record-blue.xml?from=3&to=4", files.get(1).getName());
+        String indexContent = new String(mockStorage.getObjectContent("sitemap-record-blue-index.xml"));
+        assertTrue("Index should list resumed file", indexContent.contains("sitemap-record.xml?from=1&amp;to=2"));
+        assertTrue("Index should list last file", indexContent.contains("sitemap-record.xml?from=5&amp;to=5"));
+    }
+
+    /**
+     * Test if a file that is the same as in the previous generation keeps its lastmod and is copied instead of uploaded
+     */
+    @Test
+    public void testGeneratorUnchangedFile() {
+        String websiteBaseUrl = "https://www.europeana.eu";
+        String urlPrefix = websiteBaseUrl + "/item";
+        SitemapGenerator generator1 = new SitemapGenerator(SitemapType.RECORD, mockStorage);
+        generator1.init(Deployment.BLUE, websiteBaseUrl, 2);
+        generator1.addItem(urlPrefix, "/1/a", 2, SitemapGenerator.NO_LAST_MODIFIED);
+        generator1.addItem(urlPrefix, "/1/b", 2, SitemapGenerator.NO_LAST_MODIFIED);
+        generator1.addItem(urlPrefix, "/2/a", 2, SitemapGenerator.NO_LAST_MODIFIED);
+        generator1.finish();
+        SitemapManifest previous = new SitemapManifest();
+        previous.setFiles(generator1.getFiles());
+        long previousLastModified = 1_500_000_000_000L;
+        previous.getFiles().forEach(file -> file.setLastModified(previousLastModified));
+
+        S3Provider s3 = new S3Provider(MockObjectStorage.setupS3(mock(AmazonS3.class)), "test-bucket");
+        SitemapGenerator generator2 = new SitemapGenerator(SitemapType.RECORD, new BufferedFileSink(mockStorage, s3,
+                RetryPolicy.NONE) {
+            @Override
+            public SitemapFileOutput open(String fileName) {
+                SitemapFileOutput result = super.open(fileName);
+                return (fileName.contains("index") ? result : new SitemapFileOutput(fileName) {
+                    @Override
+                    public void setFileName(String fileName) {
+                        result.setFileName(fileName);
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        result.write(b);
+                    }
+
+                    @Override
+                    public boolean discard() {
+                        return result.discard();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        assertFalse(result.getFileName().endsWith("from=1&to=2"), "Unchanged file should not be uploaded");
+                        result.close();
+                    }
+                });
+            }
+        });
+        generator2.init(Deployment.GREEN, websiteBaseUrl, 2);
+        generator2.setPreviousManifest(previous);
+        generator2.addItem(urlPrefix, "/1/a", 2, SitemapGenerator.NO_LAST_MODIFIED);
+        generator2.addItem(urlPrefix, "/1/b", 2, SitemapGenerator.NO_LAST_MODIFIED);
+        generator2.addItem(urlPrefix, "/2/b", 2, SitemapGenerator.NO_LAST_MODIFIED);
+        generator2.finish();
+        List<SitemapManifest.File> files = generator2.getFiles();
+
+        assertEquals("Unchanged file lastmod", previousLastModified, files.get(0).getLastModified());
+        assertTrue("Changed file lastmod", files.get(1).getLastModified() > previousLastModified);
+        assertTrue("Unchanged file copied", mockStorage.isObjectAvailable("sitemap-record-green.xml?from=1&to=2"));
+        String indexContent = XmlUtils.harmonizeXml(new String(mockStorage.getObjectContent("sitemap-record-green-index.xml")));
+        assertTrue("Index lastmod", indexContent.contains("<lastmod>2017-07-14T02:40:00Z</lastmod>"));
+        // without direct access to the bucket copying is more expensive than saving, so files are never discarded
+        assertFalse(new BufferedFileSink(mockStorage).open("sitemap-record-blue.xml").discard(), "Discarded file");
+    }
+
     @Test
     public void testGenerateNotStarted1() {
         SitemapGenerator generator = new SitemapGenerator(SitemapType.RECORD, mockStorage);
@@ -1,7 +1,9 @@
 package eu.europeana.sitemap.service.update;
 
+import com.amazonaws.services.s3.AmazonS3;
 import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
 import com.github.tomakehurst.wiremock.junit5.WireMockTest;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
 import eu.europeana.features.S3ObjectStorageClient;
 import eu.europeana.sitemap.MockActiveDeployment;
 import eu.europeana.sitemap.MockObjectStorage;
@@ -9,8 +11,11 @@ import eu.europeana.sitemap.XmlUtils;
 import eu.europeana.sitemap.config.PortalUrl;
 import eu.europeana.sitemap.config.SitemapConfiguration;
 import eu.europeana.sitemap.exceptions.SiteMapException;
+import eu.europeana.sitemap.exceptions.SiteMapNotFoundException;
+import eu.europeana.sitemap.s3.S3Provider;
 import eu.europeana.sitemap.mongo.MongoProvider;
 import eu.europeana.sitemap.service.ActiveDeploymentService;
+import eu.europeana.sitemap.service.ManifestService;
 import eu.europeana.sitemap.service.ReadSitemapServiceImpl;
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
@@ -29,6 +34,9 @@ import java.net.URL;
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 import static org.springframework.test.util.AssertionErrors.assertTrue;
 
 
@@ -41,7 +49,7 @@ import static org.springframework.test.util.AssertionErrors.assertTrue;
  */
 @WireMockTest(httpsEnabled = true)
 @TestPropertySource("classpath:sitemap-test.properties")
-@SpringBootTest(classes = {UpdateEntityService.class, SitemapConfiguration.class, PortalUrl.class})
+@SpringBootTest(classes = {UpdateEntityService.class, ManifestService.class, SitemapConfiguration.class, PortalUrl.class})
 public class SitemapUpdateEntityServiceTest {
 
     private static final String PORTAL_BASE_URL = "https://www-test.eanadev.org";
@@ -55,6 +63,8 @@ public class SitemapUpdateEntityServiceTest {
     @MockBean
     private S3ObjectStorageClient mockStorage;
     @MockBean
+    private S3Provider mockS3Provider;
+    @MockBean
     private ActiveDeploymentService mockDeployment;
     @MockBean
     private ReadSitemapServiceImpl mockReadSitemap;
@@ -76,6 +86,10 @@ public class SitemapUpdateEntityServiceTest {
 
         // note that the mocks are not connected to each other, so MockActiveDeployment does not use MockObjectStorage for example
         mockStorage = MockObjectStorage.setup(mockStorage);
+        AmazonS3 mockS3 = MockObjectStorage.setupS3(mock(AmazonS3.class));
+        when(mockS3Provider.getClient()).thenReturn(mockS3);
+        when(mockS3Provider.getClientWithoutRetries()).thenReturn(mockS3);
+        when(mockS3Provider.getBucket()).thenReturn("test-bucket");
         mockDeployment = MockActiveDeployment.setup(mockDeployment);
         setupEntityApiMock();
     }
@@ -134,6 +148,203 @@ public class SitemapUpdateEntityServiceTest {
 
     }
 
+    private static String getEntityPageJson(long total, int... ids) {
+        StringBuilder items = new StringBuilder();
+        for (int id : ids) {
+            items.append(items.isEmpty() ? "" : ",")
+                    .append("{\"id\":\"http://data.europeana.eu/agent/base/").append(id).append("\",\"type\":\"Agent\"}");
+        }
+        return "{\"type\":\"ResultPage\",\"partOf\":{\"type\":\"ResultList\",\"total\":" + total + "},"
+                + "\"items\":[" + items + "]}";
+    }
+
+    private void stubEntityPage(int pageNr, int delayMs, String body) {
+        wmExtension.stubFor(get(urlPathMatching("/entity/search"))
+                .withQueryParam("wskey", equalTo(TEST_WSKEY))
+                .withQueryParam("page", equalTo(String.valueOf(pageNr)))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(delayMs)
+                        .withHeader("Content-Type", "application/json;charset=UTF-8")
+                        .withBody(body)));
+    }
+
+    /**
+     * Test that pages that are retrieved concurrently are still added in page order
+     */
+    @Test
+    public void testConcurrentPages() throws SiteMapException {
+        configuration.setEntityApi(getMockEntityApiUrl());
+        configuration.setEntityApiKey(TEST_WSKEY);
+        stubEntityPage(1, 0, getEntityPageJson(7, 1, 2));
+        stubEntityPage(2, 500, getEntityPageJson(7, 3, 4));
+        stubEntityPage(3, 200, getEntityPageJson(7, 5, 6));
+        stubEntityPage(4, 0, getEntityPageJson(7, 7));
+
+        entityService.update();
+
+        String generatedSitemap = XmlUtils.harmonizeXml(new String(
+                mockStorage.getObjectContent("sitemap-entity-blue.xml?from=1&to=7")));
+        int previous = -1;
+        for (int id = 1; id <= 7; id++) {
+            int position = generatedSitemap.indexOf("/en/collections/person/" + id + "</loc>");
+            assertTrue("Entity " + id + " not found in expected position in sitemap file:\n" + generatedSitemap,
+                    position > previous);
+            previous = position;
+        }
+        wmExtension.verify(4, getRequestedFor(urlPathMatching("/entity/search")));
+    }
+
+    private void stubEntityCursorPage(String cursor, String body) {
+        wmExtension.stubFor(get(urlPathMatching("/entity/search"))
+                .withQueryParam("wskey", equalTo(TEST_WSKEY))
+                .withQueryParam("cursor", equalTo(cursor))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json;charset=UTF-8")
+                        .withBody(body)));
+    }
+
+    private static String withNextCursor(String pageJson, String nextCursor) {
+        return pageJson.replaceFirst("\\{", "{\"nextCursor\":\"" + nextCursor + "\",");
+    }
+
+    /**
+     * Test that all pages are retrieved with a cursor, until the Entity API returns the same cursor again
+     */
+    @Test
+    public void testCursorPages() throws SiteMapException {
+        configuration.setEntityApi(getMockEntityApiUrl());
+        configuration.setEntityApiKey(TEST_WSKEY);
+        configuration.setEntityApiCursor(true);
+        try {
+            stubEntityCursorPage("*", withNextCursor(getEntityPageJson(5, 1, 2), "AoE/1="));
+            // an entity was added since the first page, so the total changes
+            stubEntityCursorPage("AoE/1=", withNextCursor(getEntityPageJson(6, 3, 4), "AoE/2="));
+            stubEntityCursorPage("AoE/2=", withNextCursor(getEntityPageJson(6, 5, 6), "AoE/2="));
+
+            entityService.update();
 
+            String generatedSitemap = XmlUtils.harmonizeXml(new String(
+                    mockStorage.getObjectContent("sitemap-entity-blue.xml?from=1&to=6")));
+            assertTrue("Entity 6 not found in sitemap file:\n" + generatedSitemap,
+                    generatedSitemap.contains("/en/collections/person/6</loc>"));
+            wmExtension.verify(3, getRequestedFor(urlPathMatching("/entity/search")));
+            wmExtension.verify(0, getRequestedFor(urlPathMatching("/entity/search")).withQueryParam("page", matching(".*")));
+        } finally {
+            configuration.setEntityApiCursor(false);
+        }
+    }
+
+    /**
+     * Test that page numbers are used when the Entity API doesn't return a cursor
+     */
+    @Test
+    public void testCursorNotSupported() throws SiteMapException {
+        configuration.setEntityApi(getMockEntityApiUrl());
+        configuration.setEntityApiKey(TEST_WSKEY);
+        configuration.setEntityApiCursor(true);
+        try {
+            stubEntityCursorPage("*", getEntityPageJson(4, 1, 2));
+            stubEntityPage(1, 0, getEntityPageJson(4, 1, 2));
+            stubEntityPage(2, 0, getEntityPageJson(4, 3, 4));
+
+            entityService.update();
+
+            String generatedSitemap = XmlUtils.harmonizeXml(new String(
+                    mockStorage.getObjectContent("sitemap-entity-blue.xml?from=1&to=4")));
+            assertTrue("Entity 4 not found in sitemap file:\n" + generatedSitemap,
+                    generatedSitemap.contains("/en/collections/person/4</loc>"));
+        } finally {
+            configuration.setEntityApiCursor(false);
+        }
+    }
+
+    /**
+     * Test that a page is requested again when the Entity API returns a server error
+     */
+    @Test
+    public void testRetryPage() throws SiteMapException {
+        configuration.setEntityApi(getMockEntityApiUrl());
+        configuration.setEntityApiKey(TEST_WSKEY);
+        stubEntityPage(1, 0, getEntityPageJson(4, 1, 2));
+        wmExtension.stubFor(get(urlPathMatching("/entity/search"))
+                .withQueryParam("page", equalTo("2"))
+                .inScenario("retry")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse().withStatus(503))
+                .willSetStateTo("failed once"));
+        wmExtension.stubFor(get(urlPathMatching("/entity/search"))
+                .withQueryParam("page", equalTo("2"))
+                .inScenario("retry")
+                .whenScenarioStateIs("failed once")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json;charset=UTF-8")
+                        .withBody(getEntityPageJson(4, 3, 4))));
+
+        entityService.update();
+
+        String generatedSitemap = XmlUtils.harmonizeXml(new String(
+                mockStorage.getObjectContent("sitemap-entity-blue.xml?from=1&to=4")));
+        assertTrue("Entity 4 not found in sitemap file:\n" + generatedSitemap,
+                generatedSitemap.contains("/en/collections/person/4</loc>"));
+        wmExtension.verify(3, getRequestedFor(urlPathMatching("/entity/search")));
+    }
+
+    /**
+     * Test that each entity type is retrieved with its own query and written to its own sitemap files, which are all
+     * listed in the index (in the configured order of the types)
+     */
+    @Test
+    public void testSeparateTypes() throws SiteMapException {
+        configuration.setEntityApi(getMockEntityApiUrl());
+        configuration.setEntityApiKey(TEST_WSKEY);
+        configuration.setEntityTypes("agent", "concept");
+        configuration.setEntityTypesSeparate(true);
+        try {
+            for (String type : new String[]{"agent", "concept"}) {
+                String body = ("agent".equals(type) ? getEntityPageJson(3, 1, 2, 3) : getEntityPageJson(2, 4, 5));
+                wmExtension.stubFor(get(urlPathMatching("/entity/search"))
+                        .withQueryParam("wskey", equalTo(TEST_WSKEY))
+                        .withQueryParam("type", equalTo(type))
+                        .willReturn(aResponse()
+                                .withStatus(200)
+                                .withHeader("Content-Type", "application/json;charset=UTF-8")
+                                .withBody(body)));
+            }
+
+            entityService.update();
+
+            String agentSitemap = XmlUtils.harmonizeXml(new String(
+                    mockStorage.getObjectContent("sitemap-entity-blue-agent.xml?from=1&to=3")));
+            assertTrue("Entity 3 not found in agent sitemap file:\n" + agentSitemap,
+                    agentSitemap.contains("/en/collections/person/3</loc>"));
+            String conceptSitemap = XmlUtils.harmonizeXml(new String(
+                    mockStorage.getObjectContent("sitemap-entity-blue-concept.xml?from=1&to=2")));
+            assertTrue("Entity 5 not found in concept sitemap file:\n" + conceptSitemap,
+                    conceptSitemap.contains("/en/collections/person/5</loc>"));
+
+            String generatedIndex = XmlUtils.harmonizeXml(new String(
+                    mockStorage.getObjectContent("sitemap-entity-blue-index.xml")));
+            String agentFile = PORTAL_BASE_URL + "/sitemap-entity-agent.xml?from=1&amp;to=3";
+            String conceptFile = PORTAL_BASE_URL + "/sitemap-entity-concept.xml?from=1&amp;to=2";
+            assertTrue("Index should list the files of all types in order:\n" + generatedIndex,
+                    generatedIndex.indexOf(agentFile) >= 0
+                            && generatedIndex.indexOf(agentFile) < generatedIndex.indexOf(conceptFile));
+            wmExtension.verify(2, getRequestedFor(urlPathMatching("/entity/search")));
+        } finally {
+            configuration.setEntityTypes("agent", "concept", "timespan", "organization");
+            configuration.setEntityTypesSeparate(false);
+        }
+    }
+
+    /**
+     * Test that a single entity type can't be regenerated when types are not separate
+     */
+    @Test
+    public void testUpdateTypeNotSeparate() {
+        assertThrows(SiteMapNotFoundException.class, () -> entityService.update("agent"));
+    }
 
 }
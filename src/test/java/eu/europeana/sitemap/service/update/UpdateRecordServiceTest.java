@@ -0,0 +1,151 @@
+package eu.europeana.sitemap.service.update;
+
+import eu.europeana.sitemap.Constants;
+import eu.europeana.sitemap.service.SitemapManifest;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the parts of the UpdateRecordService that don't need a database
+ * @see UpdateRecordService
+ */
+public class UpdateRecordServiceTest {
+
+    private static final List<SitemapManifest.File> FILES = List.of(
+            file("f1", "/1/a", "/1/z"),
+            file("f2", "/2/a", "/2/z"),
+            file("f3", "/3/a", "/3/z"),
+            file("f4", "/4/a", "/4/z"));
+
+    private static SitemapManifest.File file(String name, String firstKey, String lastKey) {
+        return new SitemapManifest.File(name, null, 1, 10, firstKey, lastKey, "hash-" + name, 0);
+    }
+
+    private static boolean[] changed(int... indexes) {
+        boolean[] result = new boolean[FILES.size()];
+        for (int index : indexes) {
+            result[index] = true;
+        }
+        return result;
+    }
+
+    /**
+     * @return short description of each step, so we can compare a plan with 1 assert
+     */
+    private static List<String> plan(boolean[] changed, String resumeKey) {
+        return UpdateRecordService.planIncremental(FILES, changed, resumeKey).stream()
+                .map(step -> step.getCopy() != null
+                        ? "copy " + step.getCopy().getName()
+                        : "read " + step.getFromKey() + ".." + step.getToKey() + (step.isExcludeFromKey() ? " excl" : "")
+                        + " (" + step.getNrFiles() + ")")
+                .toList();
+    }
+
+    @Test
+    public void testGetFileIndex() {
+        // keys before the first file belong to the first file
+        assertEquals(0, UpdateRecordService.getFileIndex(FILES, "/0/a"));
+        assertEquals(0, UpdateRecordService.getFileIndex(FILES, "/1/a"));
+        assertEquals(0, UpdateRecordService.getFileIndex(FILES, "/1/m"));
+        assertEquals(1, UpdateRecordService.getFileIndex(FILES, "/2/a"));
+        // keys between the last key of a file and the first key of the next file belong to the first file
+        assertEquals(1, UpdateRecordService.getFileIndex(FILES, "/2/zz"));
+        assertEquals(1, UpdateRecordService.getFileIndex(FILES, "/3/0"));
+        assertEquals(2, UpdateRecordService.getFileIndex(FILES, "/3/a"));
+        assertEquals(3, UpdateRecordService.getFileIndex(FILES, "/4/a"));
+        assertEquals(3, UpdateRecordService.getFileIndex(FILES, "/9/a"));
+        assertEquals(0, UpdateRecordService.getFileIndex(FILES.subList(0, 1), "/9/a"));
+    }
+
+    @Test
+    public void testPlanNothingChanged() {
+        assertEquals(List.of("copy f1", "copy f2", "copy f3", "copy f4"), plan(changed(), null));
+    }
+
+    @Test
+    public void testPlanChangedRange() {
+        // consecutive changed files are read with 1 query, up to the first key of the next file
+        assertEquals(List.of("copy f1", "read /2/a../4/a (2)", "copy f4"), plan(changed(1, 2), null));
+        assertEquals(List.of("read null../2/a (1)", "copy f2", "read /3/a../4/a (1)", "copy f4"),
+                plan(changed(0, 2), null));
+    }
+
+    @Test
+    public void testPlanOpenRanges() {
+        // the first and last range include all records before/after them
+        assertEquals(List.of("read null../2/a (1)", "copy f2", "copy f3", "copy f4"), plan(changed(0), null));
+        assertEquals(List.of("copy f1", "copy f2", "copy f3", "read /4/a..null (1)"), plan(changed(3), null));
+        assertEquals(List.of("read null..null (4)"), plan(changed(0, 1, 2, 3), null));
+    }
+
+    @Test
+    public void testPlanResumeHalfwayUnchangedFile() {
+        // the rest of the file in which the interrupted update stopped is read again
+        assertEquals(List.of("read /2/m../3/a excl (1)", "copy f3", "copy f4"), plan(changed(), "/2/m"));
+    }
+
+    @Test
+    public void testPlanResumeAtEndOfFile() {
+        assertEquals(List.of("copy f3", "copy f4"), plan(changed(), "/2/z"));
+    }
+
+    @Test
+    public void testPlanResumeAfterChangedRange() {
+        // ranges before the resume key were already done
+        assertEquals(List.of("read /3/m../4/a excl (1)", "copy f4"), plan(changed(0), "/3/m"));
+    }
+
+    @Test
+    public void testPlanResumeInChangedRange() {
+        assertEquals(List.of("read /2/m../4/a excl (2)", "copy f4"), plan(changed(1, 2), "/2/m"));
+        assertEquals(List.of("read /1/m../2/a excl (1)", "copy f2", "copy f3", "copy f4"), plan(changed(0), "/1/m"));
+    }
+
+    @Test
+    public void testPlanDoesNotChangeInput() {
+        boolean[] changed = changed();
+        plan(changed, "/2/m");
+        assertEquals(List.of(false, false, false, false),
+                List.of(changed[0], changed[1], changed[2], changed[3]));
+    }
+
+    @Test
+    public void testSplitPoints() {
+        List<Integer> sample = List.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12);
+        assertEquals(List.of(4, 7, 10), UpdateRecordService.getSplitPoints(sample, 4));
+        assertEquals(List.of(), UpdateRecordService.getSplitPoints(sample, 1));
+        assertEquals(List.of(), UpdateRecordService.getSplitPoints(List.<Integer>of(), 4));
+        // duplicate split points result in fewer partitions
+        assertEquals(List.of(1, 2), UpdateRecordService.getSplitPoints(List.of(1, 1, 1, 1, 1, 1, 2, 2), 4));
+    }
+
+    @Test
+    public void testSectionSplitPoints() {
+        List<SitemapManifest.File> sections = List.of(
+                new SitemapManifest.File("p1-1", "p01", 1, 10, "/1/a", "/1/m", "h1", 0),
+                new SitemapManifest.File("p1-2", "p01", 11, 20, "/1/n", "/1/z", "h2", 0),
+                new SitemapManifest.File("p2-1", "p02", 21, 30, "/2/a", "/2/z", "h3", 0),
+                new SitemapManifest.File("p3-1", "p03", 31, 40, "/3/a", "/3/z", "h4", 0));
+        // the first section starts at the first record, so only the start of the other sections are split points
+        assertEquals(List.of("/2/a", "/3/a"), UpdateRecordService.getSectionSplitPoints(sections));
+        assertEquals(List.of(), UpdateRecordService.getSectionSplitPoints(FILES));
+    }
+
+    @Test
+    public void testIsNewFile() {
+        long halfFull = Constants.ITEMS_PER_SITEMAP_FILE / 2;
+        FileBoundaries boundaries = new FileBoundaries(List.of("/1/a", "/2/a", "/3/a"));
+        assertTrue(UpdateRecordService.isNewFile(boundaries, "/1/a", halfFull));
+        assertFalse(UpdateRecordService.isNewFile(boundaries, "/1/b", halfFull));
+        // a file that is less than half full is merged with the next file
+        assertFalse(UpdateRecordService.isNewFile(boundaries, "/2/a", halfFull - 1));
+        // but the boundary is still passed
+        assertFalse(UpdateRecordService.isNewFile(boundaries, "/2/b", halfFull));
+        assertTrue(UpdateRecordService.isNewFile(boundaries, "/3/b", Constants.ITEMS_PER_SITEMAP_FILE - 1));
+    }
+}
@@ -0,0 +1,64 @@
+package eu.europeana.sitemap.service.update;
+
+import com.mongodb.BasicDBObject;
+import eu.europeana.sitemap.Constants;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the UpdateRecordServiceUtils class
+ * @see UpdateRecordServiceUtils
+ */
+public class UpdateRecordServiceUtilsTest {
+
+    private static final int NR_TIER_STAGES = 3;
+
+    @Test
+    public void testPriorityForTiers() {
+        assertEquals("0.0", UpdateRecordServiceUtils.getPriorityForTiers(0));
+        assertEquals("0.5", UpdateRecordServiceUtils.getPriorityForTiers(2));
+        assertEquals("1.0", UpdateRecordServiceUtils.getPriorityForTiers(4));
+        assertEquals("1.0", new String(UpdateRecordServiceUtils.getPriorityBytesForTiers(4)));
+    }
+
+    @Test
+    public void testPipelineWithoutTierFilter() {
+        assertEquals(NR_TIER_STAGES - 1, UpdateRecordServiceUtils.getPipeline("", "").size());
+    }
+
+    @Test
+    public void testPipelineOrderedRange() {
+        List<BasicDBObject> pipeline = UpdateRecordServiceUtils.getPipeline("2,3,4", "A,B,C", Constants.ABOUT,
+                "/1/a", "/2/a", true);
+        // range selection and sort should come first, so MongoDB can use the about index
+        assertEquals(NR_TIER_STAGES + 2, pipeline.size());
+        assertEquals(new BasicDBObject(Constants.MATCH, new BasicDBObject(Constants.ABOUT,
+                new BasicDBObject(Constants.GTE, "/1/a").append(Constants.LT, "/2/a"))), pipeline.get(0));
+        assertEquals(new BasicDBObject(Constants.SORT, new BasicDBObject(Constants.ABOUT, 1L)), pipeline.get(1));
+    }
+
+    @Test
+    public void testPipelineOpenRange() {
+        List<BasicDBObject> pipeline = UpdateRecordServiceUtils.getPipeline("2,3,4", "A,B,C", Constants.ABOUT,
+                null, "/2/a", true);
+        assertEquals(new BasicDBObject(Constants.MATCH, new BasicDBObject(Constants.ABOUT,
+                new BasicDBObject(Constants.LT, "/2/a"))), pipeline.get(0));
+
+        pipeline = UpdateRecordServiceUtils.getPipeline("2,3,4", "A,B,C", Constants.ABOUT, null, null, true);
+        assertEquals(NR_TIER_STAGES + 1, pipeline.size());
+        assertEquals(new BasicDBObject(Constants.SORT, new BasicDBObject(Constants.ABOUT, 1L)), pipeline.get(0));
+    }
+
+    @Test
+    public void testPipelineUnordered() {
+        List<BasicDBObject> pipeline = UpdateRecordServiceUtils.getPipeline("2,3,4", "A,B,C", "id1", "id2");
+        assertEquals(NR_TIER_STAGES + 1, pipeline.size());
+        assertEquals(new BasicDBObject(Constants.MATCH, new BasicDBObject(Constants.ID,
+                new BasicDBObject(Constants.GTE, "id1").append(Constants.LT, "id2"))), pipeline.get(0));
+
+        assertEquals(NR_TIER_STAGES, UpdateRecordServiceUtils.getPipeline("2,3,4", "A,B,C", null, null).size());
+    }
+}
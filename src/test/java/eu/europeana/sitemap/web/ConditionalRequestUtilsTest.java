@@ -0,0 +1,65 @@
+package eu.europeana.sitemap.web;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the ConditionalRequestUtils class
+ * @see ConditionalRequestUtils
+ */
+public class ConditionalRequestUtilsTest {
+
+    private static final String ETAG = "\"abc123\"";
+    private static final long LAST_MODIFIED = 1_700_000_000_500L;
+
+    private static boolean isNotModified(String headerName, Object headerValue) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/record/sitemap-index.xml");
+        if (headerName != null) {
+            request.addHeader(headerName, headerValue);
+        }
+        return ConditionalRequestUtils.isNotModified(request, ETAG, LAST_MODIFIED);
+    }
+
+    @Test
+    public void testIfNoneMatch() {
+        assertTrue(isNotModified(HttpHeaders.IF_NONE_MATCH, ETAG));
+        assertTrue(isNotModified(HttpHeaders.IF_NONE_MATCH, "W/" + ETAG));
+        assertTrue(isNotModified(HttpHeaders.IF_NONE_MATCH, "\"other\", " + ETAG));
+        assertTrue(isNotModified(HttpHeaders.IF_NONE_MATCH, "*"));
+        assertFalse(isNotModified(HttpHeaders.IF_NONE_MATCH, "\"other\""));
+        assertFalse(isNotModified(HttpHeaders.IF_NONE_MATCH, "abc123"));
+    }
+
+    @Test
+    public void testIfModifiedSince() {
+        assertTrue(isNotModified(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED));
+        // http dates have no milliseconds
+        assertTrue(isNotModified(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED - 500));
+        assertTrue(isNotModified(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED + 60_000));
+        assertFalse(isNotModified(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED - 60_000));
+        assertFalse(isNotModified(HttpHeaders.IF_MODIFIED_SINCE, "not a date"));
+        assertFalse(isNotModified(null, null));
+    }
+
+    /**
+     * If-Modified-Since should be ignored when there's an If-None-Match header
+     */
+    @Test
+    public void testIfNoneMatchPrecedence() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/record/sitemap-index.xml");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED);
+        assertFalse(ConditionalRequestUtils.isNotModified(request, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    public void testQuote() {
+        assertEquals(ETAG, ConditionalRequestUtils.quote("abc123"));
+        assertEquals(ETAG, ConditionalRequestUtils.quote(ETAG));
+    }
+}